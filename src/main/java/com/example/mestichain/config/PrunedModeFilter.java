@@ -0,0 +1,35 @@
+package com.example.mestichain.config;
+
+import com.example.mestichain.services.BlockService;
+import com.example.mestichain.utils.constants.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Anunciar en todas las respuestas si el nodo esta en modo podado, para que los demas nodos no lo elijan para
+ * descargar la cadena completa
+ */
+@Component
+public class PrunedModeFilter extends OncePerRequestFilter {
+
+    private final BlockService blockService;
+
+    @Autowired
+    public PrunedModeFilter(BlockService blockService) {
+        this.blockService = blockService;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        response.setHeader(Path.NODE_PRUNED_HEADER, String.valueOf(blockService.isPruned()));
+        filterChain.doFilter(request, response);
+    }
+}
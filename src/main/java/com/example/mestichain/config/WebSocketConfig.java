@@ -0,0 +1,29 @@
+package com.example.mestichain.config;
+
+import com.example.mestichain.services.PeerChannelService;
+import com.example.mestichain.utils.constants.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Canal WebSocket para el trafico entre nodos. Los clientes siguen usando la API HTTP
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final PeerChannelService peerChannelService;
+
+    @Autowired
+    public WebSocketConfig(PeerChannelService peerChannelService) {
+        this.peerChannelService = peerChannelService;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(peerChannelService, Path.PEER).setAllowedOrigins("*");
+    }
+}
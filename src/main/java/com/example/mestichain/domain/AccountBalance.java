@@ -0,0 +1,17 @@
+package com.example.mestichain.domain;
+
+import lombok.Data;
+
+/**
+ * Saldo y nonce de una cuenta junto con la altura y el hash del bloque al que corresponden
+ */
+@Data
+public class AccountBalance {
+
+    private long balance;
+    //Nonce que debe usar la siguiente transaccion de la cuenta
+    private long nonce;
+    private int height;
+    private byte[] blockHash;
+    private byte[] stateRoot;
+}
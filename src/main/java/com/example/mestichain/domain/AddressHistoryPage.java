@@ -0,0 +1,18 @@
+package com.example.mestichain.domain;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pagina del historial de transacciones de una cuenta, de la mas reciente a la mas antigua
+ */
+@Data
+public class AddressHistoryPage {
+
+    private int page;
+    private int size;
+    private int total;
+    private List<TransactionRecord> transactions = new ArrayList<>();
+}
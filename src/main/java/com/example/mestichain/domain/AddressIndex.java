@@ -0,0 +1,246 @@
+package com.example.mestichain.domain;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indice de transacciones por cuenta. Para cada cuenta (identificada por el hash SHA256 de su clave publica) se
+ * guardan las posiciones (altura, indice en el bloque) de las transacciones en las que participa, en orden de altura.
+ * Las posiciones se guardan en bloques de tamaño fijo codificadas como enteros de longitud variable, con la altura
+ * expresada como diferencia respecto a la anterior, de forma que una pagina se lee en tiempo constante.
+ */
+public class AddressIndex {
+
+    //Numero de posiciones por segmento del historial
+    static final int SEGMENT_SIZE = 64;
+
+    private final Map<ByteBuffer, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * Añadir las transacciones de un bloque al indice
+     *
+     * @param block  Bloque añadido a la cadena
+     * @param height altura del bloque
+     */
+    public void add(Block block, int height) {
+        List<Transaction> transactions = block.getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction transaction = transactions.get(i);
+            if (!transaction.isCoinbase()) {
+                history(transaction.getSender()).add(height, i);
+            }
+            if (transaction.isCoinbase() || !Arrays.equals(transaction.getSender(), transaction.getRecipient())) {
+                history(transaction.getRecipient()).add(height, i);
+            }
+        }
+    }
+
+    /**
+     * Eliminar del indice las transacciones de un bloque deshecho. El bloque debe ser el ultimo añadido.
+     *
+     * @param block  Bloque eliminado de la cadena
+     * @param height altura del bloque
+     */
+    public void remove(Block block, int height) {
+        for (Transaction transaction : block.getTransactions()) {
+            if (!transaction.isCoinbase()) {
+                removeFrom(transaction.getSender(), height);
+            }
+            removeFrom(transaction.getRecipient(), height);
+        }
+    }
+
+    /**
+     * Numero de transacciones de una cuenta por debajo de una altura. El indice lo comparten las vistas de la cadena
+     * y puede ir por delante de ellas: cada vista solo cuenta las posiciones de sus bloques
+     *
+     * @param address   clave publica de la cuenta
+     * @param maxHeight altura a partir de la cual no se cuentan las transacciones
+     * @return numero de transacciones en las que participa la cuenta
+     */
+    public int count(byte[] address, int maxHeight) {
+        History history = this.histories.get(keyOf(address));
+        return history != null ? history.countBelow(maxHeight) : 0;
+    }
+
+    /**
+     * Obtener una pagina del historial de una cuenta por debajo de una altura, de la transaccion mas reciente a la
+     * mas antigua
+     *
+     * @param address   clave publica de la cuenta
+     * @param page      numero de pagina empezando en 0
+     * @param size      tamaño de la pagina
+     * @param maxHeight altura a partir de la cual no se incluyen las transacciones
+     * @return posiciones de las transacciones de la pagina
+     */
+    public List<TransactionLocation> getPage(byte[] address, int page, int size, int maxHeight) {
+        History history = this.histories.get(keyOf(address));
+        if (history == null || page < 0 || size <= 0) {
+            return Collections.emptyList();
+        }
+        return history.getPage(page, size, maxHeight);
+    }
+
+    private void removeFrom(byte[] address, int height) {
+        History history = this.histories.get(keyOf(address));
+        if (history != null) {
+            history.removeFrom(height);
+        }
+    }
+
+    private History history(byte[] address) {
+        return this.histories.computeIfAbsent(keyOf(address), key -> new History());
+    }
+
+    private static ByteBuffer keyOf(byte[] address) {
+        return ByteBuffer.wrap(DigestUtils.sha256(address));
+    }
+
+    /**
+     * Historial de una cuenta dividido en segmentos de SEGMENT_SIZE posiciones
+     */
+    private static final class History {
+        private final List<Segment> segments = new ArrayList<>();
+        private int size;
+
+        synchronized void add(int height, int index) {
+            if (this.segments.isEmpty() || this.segments.get(this.segments.size() - 1).count == SEGMENT_SIZE) {
+                this.segments.add(new Segment(height));
+            }
+            this.segments.get(this.segments.size() - 1).add(height, index);
+            this.size++;
+        }
+
+        synchronized void removeFrom(int height) {
+            while (!this.segments.isEmpty()) {
+                Segment last = this.segments.get(this.segments.size() - 1);
+                if (last.lastHeight < height) {
+                    return;
+                }
+                this.size -= last.count;
+                last.truncate(height);
+                this.size += last.count;
+                if (last.count == 0) {
+                    this.segments.remove(this.segments.size() - 1);
+                }
+            }
+        }
+
+        synchronized int countBelow(int height) {
+            int count = this.size;
+            for (int i = this.segments.size() - 1; i >= 0; i--) {
+                Segment segment = this.segments.get(i);
+                if (segment.lastHeight < height) {
+                    break;
+                }
+                if (segment.baseHeight >= height) {
+                    count -= segment.count;
+                    continue;
+                }
+                List<TransactionLocation> locations = new ArrayList<>(segment.count);
+                segment.decode(0, segment.count, locations);
+                count -= (int) locations.stream().filter(location -> location.getHeight() >= height).count();
+                break;
+            }
+            return count;
+        }
+
+        synchronized List<TransactionLocation> getPage(int page, int size, int maxHeight) {
+            // la pagina 0 contiene las posiciones mas recientes por debajo de maxHeight
+            long end = (long) countBelow(maxHeight) - (long) page * size;
+            if (end <= 0) {
+                return Collections.emptyList();
+            }
+            int from = (int) Math.max(0, end - size);
+            List<TransactionLocation> locations = new ArrayList<>((int) end - from);
+            int position = from;
+            while (position < end) {
+                Segment segment = this.segments.get(position / SEGMENT_SIZE);
+                int offset = position % SEGMENT_SIZE;
+                int to = (int) Math.min(end - (long) (position - offset), segment.count);
+                segment.decode(offset, to, locations);
+                position += to - offset;
+            }
+            Collections.reverse(locations);
+            return locations;
+        }
+    }
+
+    /**
+     * Segmento de posiciones: altura base y pares (diferencia de altura, indice) codificados como varint
+     */
+    private static final class Segment {
+        private final int baseHeight;
+        private int lastHeight;
+        private int count;
+        private byte[] data = new byte[16];
+        private int length;
+
+        Segment(int baseHeight) {
+            this.baseHeight = baseHeight;
+            this.lastHeight = baseHeight;
+        }
+
+        void add(int height, int index) {
+            writeVarInt(height - this.lastHeight);
+            writeVarInt(index);
+            this.lastHeight = height;
+            this.count++;
+        }
+
+        void truncate(int height) {
+            List<TransactionLocation> locations = new ArrayList<>(this.count);
+            decode(0, this.count, locations);
+            this.lastHeight = this.baseHeight;
+            this.count = 0;
+            this.length = 0;
+            for (TransactionLocation location : locations) {
+                if (location.getHeight() < height) {
+                    add(location.getHeight(), location.getIndex());
+                }
+            }
+        }
+
+        void decode(int from, int to, List<TransactionLocation> locations) {
+            int height = this.baseHeight;
+            int[] cursor = {0};
+            for (int i = 0; i < to; i++) {
+                height += readVarInt(cursor);
+                int index = readVarInt(cursor);
+                if (i >= from) {
+                    locations.add(new TransactionLocation(height, index));
+                }
+            }
+        }
+
+        private void writeVarInt(int value) {
+            if (this.length + 5 > this.data.length) {
+                this.data = Arrays.copyOf(this.data, this.data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                this.data[this.length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.data[this.length++] = (byte) value;
+        }
+
+        private int readVarInt(int[] cursor) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = this.data[cursor[0]++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.mestichain.domain;
+
+import lombok.Getter;
+
+/**
+ * Vista inmutable de los saldos tras aplicar el bloque de una altura dada. Se publica al final de cada
+ * {@link Blockchain#add(Block)} y puede ser leida desde cualquier hilo sin bloqueos: el arbol de saldos es
+ * inmutable, por lo que la vista nunca observa un bloque aplicado a medias.
+ */
+@Getter
+public class BalanceView {
+
+    public static final BalanceView EMPTY = new BalanceView(-1, null, StateTree.EMPTY);
+
+    private final int height;
+    private final byte[] blockHash;
+    private final StateTree stateTree;
+
+    public BalanceView(int height, byte[] blockHash, StateTree stateTree) {
+        this.height = height;
+        this.blockHash = blockHash;
+        this.stateTree = stateTree;
+    }
+
+    /**
+     * Obtener el saldo de una cuenta
+     *
+     * @param address clave publica de la cuenta
+     * @return saldo, 0 si la cuenta no existe
+     */
+    public long getBalance(byte[] address) {
+        Long balance = this.stateTree.get(address);
+        return balance != null ? balance : 0L;
+    }
+
+    /**
+     * Obtener el siguiente nonce de una cuenta
+     *
+     * @param address clave publica de la cuenta
+     * @return numero de transacciones enviadas por la cuenta
+     */
+    public long getNonce(byte[] address) {
+        return getBalance(RecordBalances.nonceAddress(address));
+    }
+}
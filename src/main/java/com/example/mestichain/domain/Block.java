@@ -1,16 +1,16 @@
 package com.example.mestichain.domain;
 
-import com.google.common.primitives.Longs;
+import com.example.mestichain.utils.DifficultyUtils;
+import com.example.mestichain.utils.LogUtils;
+import com.example.mestichain.utils.MerkleUtils;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.ArrayUtils;
 
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.stream.Collectors;
 
 /**
@@ -19,21 +19,40 @@ import java.util.stream.Collectors;
  * 	- Hash del bloque calculado a partir del contenido de la cabecera
  * 	- Hash del bloque anterior (permite mantener la cadena enlazada)
  * 	- Timestamp
- * 	- Nonce Dificultad prueba de trabajo (en nuestro caso es constante asi que no lo incluimos por ahora).
+ * 	- Nonce de la prueba de trabajo
+ * 	- Objetivo de la prueba de trabajo: el hash del bloque, como entero de 256 bits, no puede superarlo
  * 	- Raiz arbol de merkle
+ * 	- Raiz de estado (opcional): raiz del arbol de saldos tras aplicar el bloque
  * El contenido del bloque está formado por la lista de transacciones incluidas en dicho bloque.
+ *
+ * La cabecera que se hashea tiene un formato fijo de 145 bytes, con los campos que cambian durante el minado al final:
+ * 	previousHash(32) | merkleRoot(32) | stateRoot(32) | target(32) | flags(1) | timestamp(8) | nonce(8)
+ * Los campos ausentes (hash anterior del bloque genesis, raiz de estado opcional) se rellenan con ceros y el bit 0 de
+ * flags indica si hay raiz de estado.
  * */
 @Slf4j
 @Data
 public class Block {
 
+    public static final int HEADER_SIZE = 145;
+    private static final int HASH_SIZE = 32;
+    private static final int FLAGS_OFFSET = 4 * HASH_SIZE;
+    private static final int TIMESTAMP_OFFSET = FLAGS_OFFSET + 1;
+    private static final int NONCE_OFFSET = TIMESTAMP_OFFSET + Long.BYTES;
+    private static final byte FLAG_STATE_ROOT = 1;
+
     private byte[] hash;
     private byte[] previousHash;
     private long timestamp;
     private long nonce;
     private byte[] merkleRoot;
+    private byte[] stateRoot;
+    private byte[] target;
     private List<Transaction> transactions;
 
+    public Block() {
+    }
+
     /**
      * Constructor de bloque
      * @param previousHash Hash del bloque anterior
@@ -41,24 +60,138 @@ public class Block {
      * @param nonce calculado como solución a la prueba de trabajo
      * */
     public Block(byte[] previousHash, List<Transaction> transactions, long nonce) {
+        this(previousHash, transactions, null, nonce);
+    }
+
+    /**
+     * Constructor de bloque con raiz de estado
+     * @param previousHash Hash del bloque anterior
+     * @param transactions Lista de transacciones
+     * @param stateRoot Raiz del arbol de saldos tras aplicar el bloque
+     * @param nonce calculado como solución a la prueba de trabajo
+     * */
+    public Block(byte[] previousHash, List<Transaction> transactions, byte[] stateRoot, long nonce) {
+        this(previousHash, transactions, stateRoot, null, nonce);
+    }
+
+    /**
+     * Constructor de bloque con raiz de estado y objetivo de la prueba de trabajo
+     * @param previousHash Hash del bloque anterior
+     * @param transactions Lista de transacciones
+     * @param stateRoot Raiz del arbol de saldos tras aplicar el bloque
+     * @param target Objetivo de la prueba de trabajo
+     * @param nonce calculado como solución a la prueba de trabajo
+     * */
+    public Block(byte[] previousHash, List<Transaction> transactions, byte[] stateRoot, byte[] target, long nonce) {
         this.previousHash = previousHash;
         this.transactions = transactions;
+        this.stateRoot = stateRoot;
+        this.target = target;
         this.nonce = nonce;
         this.merkleRoot = this.calculateMerkleRoot();
         this.timestamp = System.currentTimeMillis();
         this.hash = this.calculateHash();
     }
 
+    /**
+     * Constructor de cabecera de bloque, sin transacciones
+     * @param previousHash Hash del bloque anterior
+     * @param merkleRoot Raiz del arbol de merkle de las transacciones
+     * @param stateRoot Raiz del arbol de saldos tras aplicar el bloque
+     * @param target Objetivo de la prueba de trabajo
+     * @param timestamp Timestamp de la cabecera
+     * @param nonce calculado como solución a la prueba de trabajo
+     * */
+    public Block(byte[] previousHash, byte[] merkleRoot, byte[] stateRoot, byte[] target, long timestamp, long nonce) {
+        this.previousHash = previousHash;
+        this.merkleRoot = merkleRoot;
+        this.stateRoot = stateRoot;
+        this.target = target;
+        this.timestamp = timestamp;
+        this.nonce = nonce;
+        this.hash = this.calculateHash();
+    }
+
     /**
      * Calcular el hash del bloque a partir de la información de la cabecera del bloque (sin transacciones)
      *
      * @return Hash SHA256
      */
-    private byte[] calculateHash() {
-        byte[] hashableData = ArrayUtils.addAll(this.previousHash, this.merkleRoot);
-        hashableData = ArrayUtils.addAll(hashableData, Longs.toByteArray(nonce));
-        hashableData = ArrayUtils.addAll(hashableData, Longs.toByteArray(timestamp));
-        return DigestUtils.sha256(hashableData);
+    public byte[] calculateHash() {
+        return DigestUtils.sha256(getHeaderBytes());
+    }
+
+    /**
+     * Cabecera serializada con el formato fijo que se hashea
+     *
+     * @return array de HEADER_SIZE bytes
+     */
+    @JsonIgnore
+    public byte[] getHeaderBytes() {
+        byte[] header = new byte[HEADER_SIZE];
+        copyField(this.previousHash, header, 0);
+        copyField(this.merkleRoot, header, HASH_SIZE);
+        copyField(this.stateRoot, header, 2 * HASH_SIZE);
+        copyField(this.target, header, 3 * HASH_SIZE);
+        header[FLAGS_OFFSET] = this.stateRoot != null ? FLAG_STATE_ROOT : 0;
+        setHeaderTimestamp(header, this.timestamp);
+        setHeaderNonce(header, this.nonce);
+        return header;
+    }
+
+    /**
+     * Cambiar el nonce de una cabecera serializada sin volver a construirla
+     *
+     * @param header cabecera serializada
+     * @param nonce  nuevo nonce
+     */
+    public static void setHeaderNonce(byte[] header, long nonce) {
+        putLong(header, NONCE_OFFSET, nonce);
+    }
+
+    /**
+     * Cambiar el timestamp de una cabecera serializada sin volver a construirla
+     *
+     * @param header    cabecera serializada
+     * @param timestamp nuevo timestamp
+     */
+    public static void setHeaderTimestamp(byte[] header, long timestamp) {
+        putLong(header, TIMESTAMP_OFFSET, timestamp);
+    }
+
+    /**
+     * Actualizar el timestamp del bloque y su hash. Solo cambia la cabecera, la raiz de merkle no se recalcula.
+     *
+     * @param timestamp nuevo timestamp
+     */
+    public void rollTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+        this.hash = calculateHash();
+    }
+
+    private static void copyField(byte[] field, byte[] header, int offset) {
+        if (field != null) {
+            System.arraycopy(field, 0, header, offset, Math.min(field.length, HASH_SIZE));
+        }
+    }
+
+    private static void putLong(byte[] header, int offset, long value) {
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            header[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Comprobar que los campos de la cabecera tienen el tamaño del formato de cabecera
+     *
+     * @return true si todos los hashes presentes son de 32 bytes
+     */
+    private boolean hasValidLayout() {
+        return (this.previousHash == null || this.previousHash.length == HASH_SIZE)
+                && (this.merkleRoot == null || this.merkleRoot.length == HASH_SIZE)
+                && (this.stateRoot == null || this.stateRoot.length == HASH_SIZE)
+                && (this.target == null || this.target.length == HASH_SIZE);
     }
 
     /**
@@ -66,18 +199,47 @@ public class Block {
      * @return Hash SHA256
      */
      public byte[] calculateMerkleRoot() {
-         Queue<byte[]> hashesQueue = this.transactions.stream().map(Transaction::getHash).collect(Collectors.toCollection(LinkedList::new));
-         while (hashesQueue.size() > 1) {
-//          calcular hash a partir de dos hashes previos
-            byte[] info = ArrayUtils.addAll(hashesQueue.poll(), hashesQueue.poll());
-//           añadir hash calculado a la cola
-             hashesQueue.add(DigestUtils.sha256(info));
-         }
-         return hashesQueue.poll();
+         return MerkleUtils.calculateRoot(this.transactions.stream().map(Transaction::getHash).collect(Collectors.toList()));
+    }
+
+    /**
+     * Cabecera del bloque: copia del bloque sin la lista de transacciones
+     *
+     * @return Bloque con la cabecera y sin contenido
+     */
+    public Block toHeader() {
+        Block header = new Block();
+        header.setHash(this.hash);
+        header.setPreviousHash(this.previousHash);
+        header.setTimestamp(this.timestamp);
+        header.setNonce(this.nonce);
+        header.setMerkleRoot(this.merkleRoot);
+        header.setStateRoot(this.stateRoot);
+        header.setTarget(this.target);
+        return header;
+    }
+
+    /**
+     * Comprobar que la cabecera es valida: el hash coincide con el contenido de la cabecera
+     *
+     * @return true si el hash de la cabecera es correcto
+     */
+    @JsonIgnore
+    public boolean isValidHeader() {
+        return this.hash != null && this.merkleRoot != null && hasValidLayout() && Arrays.equals(this.hash, calculateHash());
     }
 
     /**
-     * Numero de ceros al principio del hash del bloque (para la prueba de trabajo)
+     * Comprobar si el hash del bloque cumple el objetivo de la prueba de trabajo incluido en la cabecera
+     *
+     * @return true si el hash no supera el objetivo
+     */
+    public boolean meetsTarget() {
+        return this.hash != null && this.target != null && DifficultyUtils.meetsTarget(this.hash, this.target);
+    }
+
+    /**
+     * Numero de ceros al principio del hash del bloque
      *
      * @return int number of leading zeros
      */
@@ -90,18 +252,39 @@ public class Block {
         return this.hash.length;
     }
 
+    /**
+     * Resumen del bloque para trazas: hashes cortos y numero de transacciones
+     */
     @Override
     public String toString() {
+        return "Block{hash=" + LogUtils.shortHash(hash) +
+                ", previousHash=" + LogUtils.shortHash(previousHash) +
+                ", timestamp=" + timestamp +
+                ", nonce=" + nonce +
+                ", transactions=" + (transactions != null ? transactions.size() : 0) +
+                '}';
+    }
+
+    /**
+     * Volcado completo del bloque con todos los campos en Base64 y sus transacciones
+     *
+     * @return texto del bloque
+     */
+    public String dump() {
         return "Block{" +
                 "\nhash=" + Base64.encodeBase64String(hash) +
                 ",\npreviousHash=" + Base64.encodeBase64String(previousHash) +
                 ",\ntimestamp=" + timestamp +
                 ",\nnonce=" + nonce +
                 ",\nmerkleRoot=" + Base64.encodeBase64String(merkleRoot) +
-                ",\ntransactions=" + transactions +
+                ",\nstateRoot=" + Base64.encodeBase64String(stateRoot) +
+                ",\ntarget=" + Base64.encodeBase64String(target) +
+                ",\ntransactions=" + (transactions != null
+                ? transactions.stream().map(Transaction::dump).collect(Collectors.joining(",", "[", "]")) : null) +
                 '}';
     }
 
+    @JsonIgnore
     public boolean isValid() {
         if(this.hash == null) {
             log.info("Hash inválido");
@@ -113,11 +296,26 @@ public class Block {
             return false;
         }
 
+        if(this.previousHash != null && this.previousHash.length != HASH_SIZE) {
+            log.info("Hash anterior inválido");
+            return false;
+        }
+
         if(this.merkleRoot == null) {
             log.info("Merkle inválido");
             return false;
         }
 
+        if(this.stateRoot != null && this.stateRoot.length != HASH_SIZE) {
+            log.info("Raiz de estado inválida");
+            return false;
+        }
+
+        if(this.target == null || this.target.length != HASH_SIZE) {
+            log.info("Objetivo inválido");
+            return false;
+        }
+
         if(this.transactions == null || this.transactions.size() == 0) {
             log.info("Bloque sin transacciones");
             return false;
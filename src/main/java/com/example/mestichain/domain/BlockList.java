@@ -0,0 +1,106 @@
+package com.example.mestichain.domain;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Lista inmutable de bloques ordenados por altura que comparte su contenido con las versiones de las que se deriva.
+ * Los bloques se guardan en tramos de tamaño fijo: añadir, sustituir o quitar un bloque solo copia el tramo afectado
+ * y el array de tramos, de modo que publicar una vista de la cadena tras cada bloque no copia la cadena entera.
+ */
+public final class BlockList extends AbstractList<Block> implements RandomAccess {
+
+    public static final BlockList EMPTY = new BlockList(new Block[0][], 0);
+
+    //Bloques por tramo
+    private static final int CHUNK_SIZE = 1024;
+
+    //Tramos de bloques; todos llenos salvo el ultimo. Nunca se modifican una vez publicados
+    private final Block[][] chunks;
+    private final int size;
+
+    private BlockList(Block[][] chunks, int size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Crear una lista con los bloques dados
+     *
+     * @param blocks bloques ordenados por altura
+     * @return lista inmutable
+     */
+    public static BlockList of(List<Block> blocks) {
+        if (blocks instanceof BlockList) {
+            return (BlockList) blocks;
+        }
+        Block[][] chunks = new Block[(blocks.size() + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = blocks.subList(i * CHUNK_SIZE, Math.min((i + 1) * CHUNK_SIZE, blocks.size()))
+                    .toArray(new Block[0]);
+        }
+        return new BlockList(chunks, blocks.size());
+    }
+
+    @Override
+    public Block get(int index) {
+        Objects.checkIndex(index, this.size);
+        return this.chunks[index / CHUNK_SIZE][index % CHUNK_SIZE];
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Nueva lista con un bloque mas al final
+     *
+     * @param block bloque a añadir
+     * @return lista con el bloque añadido
+     */
+    public BlockList with(Block block) {
+        int chunk = this.size / CHUNK_SIZE;
+        Block[][] newChunks = Arrays.copyOf(this.chunks, chunk + 1);
+        newChunks[chunk] = chunk < this.chunks.length
+                ? Arrays.copyOf(this.chunks[chunk], this.chunks[chunk].length + 1) : new Block[1];
+        newChunks[chunk][this.size % CHUNK_SIZE] = block;
+        return new BlockList(newChunks, this.size + 1);
+    }
+
+    /**
+     * Nueva lista con el bloque de una altura sustituido
+     *
+     * @param index altura del bloque
+     * @param block bloque que lo sustituye
+     * @return lista con el bloque sustituido
+     */
+    public BlockList with(int index, Block block) {
+        Objects.checkIndex(index, this.size);
+        int chunk = index / CHUNK_SIZE;
+        Block[][] newChunks = this.chunks.clone();
+        newChunks[chunk] = this.chunks[chunk].clone();
+        newChunks[chunk][index % CHUNK_SIZE] = block;
+        return new BlockList(newChunks, this.size);
+    }
+
+    /**
+     * Nueva lista sin el ultimo bloque
+     *
+     * @return lista sin el ultimo bloque
+     */
+    public BlockList withoutLast() {
+        int last = this.size - 1;
+        Objects.checkIndex(last, this.size);
+        int chunk = last / CHUNK_SIZE;
+        if (last % CHUNK_SIZE == 0) {
+            return new BlockList(Arrays.copyOf(this.chunks, chunk), last);
+        }
+        Block[][] newChunks = this.chunks.clone();
+        newChunks[chunk] = Arrays.copyOf(this.chunks[chunk], last % CHUNK_SIZE);
+        return new BlockList(newChunks, last);
+    }
+}
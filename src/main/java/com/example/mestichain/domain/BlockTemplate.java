@@ -0,0 +1,137 @@
+package com.example.mestichain.domain;
+
+import com.example.mestichain.utils.MerkleUtils;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Plantilla de bloque preparada por el nodo para minar: cabecera (salvo extra-nonce, timestamp y nonce) y contenido.
+ * Cada trabajo repartido recibe un extra-nonce distinto en la transaccion coinbase, y por tanto una raiz de merkle
+ * distinta, de forma que dos mineros nunca prueban la misma cabecera aunque usen los mismos nonces y timestamp.
+ * Es inmutable: al llegar nuevas transacciones se crea una plantilla nueva a partir de la anterior.
+ */
+@Getter
+public class BlockTemplate {
+
+    private final long id;
+    private final byte[] previousHash;
+    private final List<Transaction> transactions;
+    private final byte[] stateRoot;
+    private final byte[] target;
+    private final long timestamp;
+    //Timestamp minimo que acepta la cadena para el bloque
+    private final long minTimestamp;
+    //Saldos tras aplicar las transacciones de la plantilla
+    private final StateTree state;
+    //Siguiente extra-nonce sin asignar
+    private final AtomicLong nextExtraNonce = new AtomicLong();
+
+    /**
+     * Constructor de plantilla
+     * @param id Identificador de la plantilla
+     * @param previousHash Hash del bloque anterior
+     * @param transactions Lista de transacciones, empezando por la transaccion coinbase
+     * @param state Saldos tras aplicar las transacciones
+     * @param includeStateRoot Incluir la raiz de estado en la cabecera
+     * @param target Objetivo de la prueba de trabajo
+     * @param minTimestamp Timestamp minimo del bloque; si el reloj del nodo va por detras se usa este
+     * */
+    public BlockTemplate(long id, byte[] previousHash, List<Transaction> transactions, StateTree state,
+                         boolean includeStateRoot, byte[] target, long minTimestamp) {
+        this.id = id;
+        this.previousHash = previousHash;
+        this.transactions = List.copyOf(transactions);
+        this.state = state;
+        this.stateRoot = includeStateRoot ? state.getRootHash() : null;
+        this.target = target;
+        this.minTimestamp = minTimestamp;
+        this.timestamp = Math.max(System.currentTimeMillis(), minTimestamp);
+    }
+
+    /**
+     * Nueva plantilla con una transaccion mas sobre la misma cima, aplicando solo esa transaccion a los saldos
+     *
+     * @param id          Identificador de la nueva plantilla
+     * @param transaction Transaccion a añadir
+     * @return plantilla con la transaccion añadida al final
+     */
+    public BlockTemplate withTransaction(long id, Transaction transaction) throws Exception {
+        StateTree newState = RecordBalances.settle(this.state, transaction);
+        List<Transaction> newTransactions = new ArrayList<>(this.transactions);
+        newTransactions.add(transaction);
+        return new BlockTemplate(id, this.previousHash, newTransactions, newState, this.stateRoot != null, this.target,
+                this.minTimestamp);
+    }
+
+    /**
+     * Comprobar si la plantilla ya incluye una transaccion
+     *
+     * @param transaction Transaccion a comprobar
+     * @return true si la transaccion esta en la plantilla
+     */
+    public boolean contains(Transaction transaction) {
+        return this.transactions.stream().anyMatch(t -> Arrays.equals(t.getHash(), transaction.getHash()));
+    }
+
+    /**
+     * Reservar un espacio de busqueda propio: el siguiente extra-nonce y el rango de nonces [1, 1 + size)
+     *
+     * @param size numero de nonces del rango
+     * @return trabajo con la cabecera y el espacio de busqueda
+     */
+    public MiningWork allocate(long size) {
+        long extraNonce = this.nextExtraNonce.getAndIncrement();
+        MiningWork work = new MiningWork();
+        work.setWorkId(this.id);
+        work.setExtraNonce(extraNonce);
+        work.setPreviousHash(this.previousHash);
+        work.setMerkleRoot(calculateMerkleRoot(getTransactions(extraNonce)));
+        work.setStateRoot(this.stateRoot);
+        work.setTarget(this.target);
+        work.setTimestamp(this.timestamp);
+        work.setNonceStart(1);
+        work.setNonceEnd(1 + size);
+        return work;
+    }
+
+    /**
+     * Comprobar si un extra-nonce ha sido asignado a algun trabajo de esta plantilla
+     *
+     * @param extraNonce extra-nonce
+     * @return true si fue asignado
+     */
+    public boolean isAllocated(long extraNonce) {
+        return extraNonce >= 0 && extraNonce < this.nextExtraNonce.get();
+    }
+
+    /**
+     * Montar el bloque completo a partir de la plantilla y la solucion de un trabajo
+     *
+     * @param extraNonce extra-nonce del trabajo
+     * @param timestamp  timestamp de la cabecera
+     * @param nonce      nonce que resuelve la prueba de trabajo
+     * @return Bloque completo con el hash calculado
+     */
+    public Block toBlock(long extraNonce, long timestamp, long nonce) {
+        List<Transaction> transactions = getTransactions(extraNonce);
+        Block block = new Block(this.previousHash, calculateMerkleRoot(transactions), this.stateRoot, this.target,
+                timestamp, nonce);
+        block.setTransactions(transactions);
+        return block;
+    }
+
+    private List<Transaction> getTransactions(long extraNonce) {
+        List<Transaction> transactions = new ArrayList<>(this.transactions);
+        transactions.set(0, this.transactions.get(0).withExtraNonce(extraNonce));
+        return transactions;
+    }
+
+    private static byte[] calculateMerkleRoot(List<Transaction> transactions) {
+        return MerkleUtils.calculateRoot(transactions.stream().map(Transaction::getHash).collect(Collectors.toList()));
+    }
+}
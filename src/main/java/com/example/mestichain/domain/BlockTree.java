@@ -0,0 +1,132 @@
+package com.example.mestichain.domain;
+
+import lombok.Getter;
+import org.apache.commons.codec.binary.Base64;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Arbol con todos los bloques conocidos: los de la cadena principal y los de las ramas laterales. Cada nodo conoce
+ * su padre, su altura y el trabajo acumulado desde el bloque genesis, de forma que se puede elegir la rama con mas
+ * trabajo y encontrar el punto de bifurcacion con la cadena principal recorriendo solo la rama.
+ * Solo se conservan los bloques recientes: una rama que se separa de la cadena principal por debajo de la profundidad
+ * maxima de reorganizacion nunca podra sustituirla.
+ */
+public class BlockTree {
+
+    private final Map<String, BlockNode> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Reconstruir el arbol a partir de la cadena principal
+     *
+     * @param blocks bloques de la cadena principal ordenados por altura
+     * @param work   trabajo de cada bloque
+     */
+    public void reset(List<Block> blocks, Function<Block, BigInteger> work) {
+        this.nodes.clear();
+        for (Block block : blocks) {
+            add(block, work.apply(block));
+        }
+    }
+
+    public boolean contains(byte[] hash) {
+        return hash != null && this.nodes.containsKey(Base64.encodeBase64String(hash));
+    }
+
+    public BlockNode get(byte[] hash) {
+        return hash != null ? this.nodes.get(Base64.encodeBase64String(hash)) : null;
+    }
+
+    /**
+     * Añadir un bloque al arbol. El bloque anterior debe estar en el arbol salvo para bloques genesis.
+     *
+     * @param block Bloque a añadir
+     * @param work  trabajo del bloque
+     * @return nodo del bloque
+     */
+    public BlockNode add(Block block, BigInteger work) {
+        BlockNode parent = get(block.getPreviousHash());
+        BlockNode node = new BlockNode(block, parent, parent != null ? parent.getHeight() + 1 : 0,
+                parent != null ? parent.getCumulativeWork().add(work) : work);
+        node.invalid = parent != null && parent.isInvalid();
+        this.nodes.put(Base64.encodeBase64String(block.getHash()), node);
+        return node;
+    }
+
+    /**
+     * Marcar un bloque como invalido: ni el ni sus descendientes podran formar parte de la cadena principal.
+     * Los descendientes ya añadidos se detectan al recorrer su rama.
+     *
+     * @param hash hash del bloque
+     */
+    public void invalidate(byte[] hash) {
+        BlockNode node = get(hash);
+        if (node != null) {
+            node.invalid = true;
+        }
+    }
+
+    /**
+     * Sustituir el bloque de un nodo por su cabecera al descartar su contenido (modo podado)
+     *
+     * @param header cabecera del bloque
+     */
+    public void prune(Block header) {
+        BlockNode node = get(header.getHash());
+        if (node != null) {
+            node.block = header;
+        }
+    }
+
+    /**
+     * Olvidar los nodos por debajo de una altura, de la cadena principal y de las ramas laterales. Los nodos que
+     * quedan a esa altura dejan de apuntar a su padre para que los anteriores puedan liberarse
+     *
+     * @param height altura del primer nodo que se conserva
+     */
+    public void discardBelow(int height) {
+        if (height <= 0) {
+            return;
+        }
+        this.nodes.values().removeIf(node -> node.height < height);
+        for (BlockNode node : this.nodes.values()) {
+            if (node.height == height) {
+                node.parent = null;
+            }
+        }
+    }
+
+    public int size() {
+        return this.nodes.size();
+    }
+
+    /**
+     * Nodo del arbol de bloques
+     */
+    @Getter
+    public static class BlockNode {
+        private volatile Block block;
+        private volatile BlockNode parent;
+        private final int height;
+        private final BigInteger cumulativeWork;
+        private volatile boolean invalid;
+
+        BlockNode(Block block, BlockNode parent, int height, BigInteger cumulativeWork) {
+            this.block = block;
+            this.parent = parent;
+            this.height = height;
+            this.cumulativeWork = cumulativeWork;
+        }
+
+        /**
+         * Un nodo es invalido si ha sido marcado como invalido o si su padre lo era cuando se añadio
+         */
+        public boolean isInvalid() {
+            return this.invalid;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.mestichain.domain;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registro para deshacer la aplicacion de un bloque: saldo previo de cada cuenta modificada por el bloque
+ * (null si la cuenta no existia antes del bloque).
+ */
+public class BlockUndo {
+
+    private final Map<String, Long> previousBalances = new LinkedHashMap<>();
+
+    /**
+     * Guardar el saldo de una cuenta antes de ser modificada. Solo se guarda el primer saldo de cada cuenta.
+     *
+     * @param balances saldos actuales
+     * @param address  clave publica de la cuenta
+     */
+    public void record(RecordBalances balances, byte[] address) {
+        String key = Base64.encodeBase64String(address);
+        if (!this.previousBalances.containsKey(key)) {
+            this.previousBalances.put(key, balances.isValidAccount(address) ? balances.getAccountBalance(address) : null);
+        }
+    }
+
+    /**
+     * Restaurar los saldos previos a la aplicacion del bloque
+     *
+     * @param balances saldos a restaurar
+     */
+    public void revert(RecordBalances balances) {
+        for (Map.Entry<String, Long> account : this.previousBalances.entrySet()) {
+            byte[] address = Base64.decodeBase64(account.getKey());
+            if (account.getValue() == null) {
+                balances.removeAccount(address);
+            } else {
+                balances.setAccountBalance(address, account.getValue());
+            }
+        }
+    }
+
+    /**
+     * Restaurar los saldos previos a la aplicacion del bloque sobre un arbol de saldos sin modificarlo
+     *
+     * @param tree arbol de saldos tras el bloque
+     * @return arbol de saldos previo al bloque
+     */
+    public StateTree revert(StateTree tree) {
+        for (Map.Entry<String, Long> account : this.previousBalances.entrySet()) {
+            byte[] address = Base64.decodeBase64(account.getKey());
+            tree = account.getValue() == null ? tree.remove(address) : tree.put(address, account.getValue());
+        }
+        return tree;
+    }
+}
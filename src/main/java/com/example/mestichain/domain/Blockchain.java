@@ -1,12 +1,16 @@
 package com.example.mestichain.domain;
 
+import com.example.mestichain.utils.LogUtils;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
 
-import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  * La cadena de bloques es esencialmente una lista de bloques enlazados ya que cada bloque tiene el identificador del
@@ -16,10 +20,29 @@ import java.util.List;
 @Data
 public class Blockchain {
 
-    //Lista de bloques en la cadena ordenados por altura (posición en la cadena)
-    private List<Block> blocks = new ArrayList<>();
+    //Lista de bloques en la cadena ordenados por altura (posición en la cadena). Es inmutable y cada modificacion
+    //crea una nueva que comparte los bloques anteriores, de modo que las vistas publicadas no necesitan copiarla
+    private BlockList blocks = BlockList.EMPTY;
     //Saldos actuales de las cuentas
     private RecordBalances balances = new RecordBalances();
+    //Indice hash de bloque -> altura
+    @JsonIgnore
+    private Map<String, Integer> blockIndex = new ConcurrentHashMap<>();
+    //Indice hash de transaccion -> (altura, indice en el bloque)
+    @JsonIgnore
+    private Map<String, TransactionLocation> transactionIndex = new ConcurrentHashMap<>();
+    //Indice cuenta -> posiciones de sus transacciones
+    @JsonIgnore
+    private AddressIndex addressIndex = new AddressIndex();
+    //Registros para deshacer los ultimos bloques de la cadena, por altura
+    @JsonIgnore
+    private Map<Integer, BlockUndo> undos = new ConcurrentHashMap<>();
+    //Vista de saldos publicada tras cada bloque para lecturas sin bloqueo
+    @JsonIgnore
+    private volatile BalanceView balanceView = BalanceView.EMPTY;
+    //Los bloques por debajo de esta altura ya se han podado (solo se conserva su cabecera)
+    @JsonIgnore
+    private int prunedHeight;
 
     public boolean isEmpty() {
         return this.blocks == null || this.blocks.isEmpty();
@@ -42,18 +65,262 @@ public class Blockchain {
     }
 
     /**
-     * Añadir un bloque a la cadena
+     * Obtener el bloque a una altura dada
+     *
+     * @param height altura del bloque
+     * @return Bloque o null si no existe
+     */
+    public Block getBlock(int height) {
+        return height >= 0 && height < getSize() ? this.blocks.get(height) : null;
+    }
+
+    /**
+     * Obtener un bloque por su hash
+     *
+     * @param hash hash del bloque
+     * @return Bloque o null si no esta en la cadena
+     */
+    public Block getBlock(byte[] hash) {
+        Integer height = this.blockIndex.get(Base64.encodeBase64String(hash));
+        return height != null ? getBlock(height) : null;
+    }
+
+    /**
+     * Comprobar si un bloque forma parte de la cadena
+     *
+     * @param hash hash del bloque
+     * @return true si el bloque esta en la cadena
+     */
+    public boolean contains(byte[] hash) {
+        return hash != null && this.blockIndex.containsKey(Base64.encodeBase64String(hash));
+    }
+
+    /**
+     * Obtener la posicion de una transaccion en la cadena
+     *
+     * @param hash hash de la transaccion
+     * @return posicion o null si la transaccion no esta en la cadena
+     */
+    public TransactionLocation getTransactionLocation(byte[] hash) {
+        return this.transactionIndex.get(Base64.encodeBase64String(hash));
+    }
+
+    /**
+     * Crear una vista inmutable del estado actual de la cadena
+     *
+     * @param nextTarget objetivo de la prueba de trabajo del siguiente bloque
+     * @return vista de la cadena
+     */
+    public ChainView createView(byte[] nextTarget) {
+        return new ChainView(this.blocks, this.balanceView, this.blockIndex, this.transactionIndex, this.addressIndex,
+                nextTarget);
+    }
+
+    /**
+     * Sustituir la lista de bloques (por ejemplo al descargar la cadena de otro nodo) y reconstruir los indices
+     *
+     * @param blocks bloques ordenados por altura
+     */
+    public void setBlocks(List<Block> blocks) {
+        this.blocks = BlockList.of(blocks);
+        this.blockIndex.clear();
+        this.transactionIndex.clear();
+        this.undos.clear();
+        this.addressIndex = new AddressIndex();
+        this.prunedHeight = 0;
+        for (int height = 0; height < this.blocks.size(); height++) {
+            index(this.blocks.get(height), height);
+        }
+        publishBalanceView();
+    }
+
+    /**
+     * Sustituir los saldos (por ejemplo al restaurar una instantanea) y publicar la nueva vista de saldos
+     *
+     * @param balances saldos de las cuentas
+     */
+    public void setBalances(RecordBalances balances) {
+        this.balances = balances;
+        publishBalanceView();
+    }
+
+    /**
+     * Añadir un bloque a la cadena. La aplicacion es atomica: si alguna transaccion no puede liquidarse o la raiz de
+     * estado del bloque no coincide, los saldos quedan como estaban.
      *
      * @param block a ser añadido
      */
     public void add(Block block) throws Exception {
-        //iteramos y procesamos las transacciones. Si esto es correcto lo añadimos a la cadena
+        BlockUndo undo = new BlockUndo();
+        try {
+            //iteramos y procesamos las transacciones. Si esto es correcto lo añadimos a la cadena
+            for (Transaction transaction : block.getTransactions()) {
+                if (!transaction.isCoinbase()) {
+                    undo.record(balances, transaction.getSender());
+                    undo.record(balances, RecordBalances.nonceAddress(transaction.getSender()));
+                }
+                undo.record(balances, transaction.getRecipient());
+                //actualizar saldos
+                balances.settleTransaction(transaction);
+            }
+            //la raiz de estado, si se incluye, coincide con los saldos tras aplicar el bloque
+            if (block.getStateRoot() != null && !Arrays.equals(block.getStateRoot(), balances.getStateRoot())) {
+                throw new Exception("La raiz de estado del bloque no coincide");
+            }
+        } catch (Exception e) {
+            undo.revert(balances);
+            throw e;
+        }
+        this.blocks = this.blocks.with(block);
+        this.undos.put(this.blocks.size() - 1, undo);
+        index(block, this.blocks.size() - 1);
+        publishBalanceView();
+        if (log.isDebugEnabled()) {
+            log.debug("Bloque {} aplicado a altura {}: {} transacciones, {} cuentas", LogUtils.shortHash(block.getHash()),
+                    this.blocks.size() - 1, block.getTransactions().size(), balances.getBalances().size());
+        }
+    }
+
+    /**
+     * Deshacer el ultimo bloque de la cadena: restaurar los saldos previos y eliminarlo de los indices
+     *
+     * @return Bloque eliminado
+     */
+    public Block removeLastBlock() throws Exception {
+        int height = getSize() - 1;
+        BlockUndo undo = this.undos.remove(height);
+        if (undo == null) {
+            throw new Exception("No se puede deshacer el bloque a altura " + height);
+        }
+        Block block = this.blocks.get(height);
+        this.blocks = this.blocks.withoutLast();
+        undo.revert(balances);
+
+        this.blockIndex.remove(Base64.encodeBase64String(block.getHash()));
         for (Transaction transaction : block.getTransactions()) {
-            //actualizar saldos
-            balances.settleTransaction(transaction);
+            String key = Base64.encodeBase64String(transaction.getHash());
+            TransactionLocation location = this.transactionIndex.get(key);
+            if (location != null && location.getHeight() == height) {
+                this.transactionIndex.remove(key);
+            }
+        }
+        this.addressIndex.remove(block, height);
+        publishBalanceView();
+        return block;
+    }
+
+    /**
+     * Comprobar si se pueden deshacer los ultimos bloques de la cadena
+     *
+     * @param depth numero de bloques a deshacer
+     * @return true si hay registros para deshacer todos ellos
+     */
+    public boolean canUndo(int depth) {
+        for (int height = getSize() - depth; height < getSize(); height++) {
+            if (height < 0 || !this.undos.containsKey(height)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Comprobar, sin modificar la cadena, si una rama se puede aplicar tras deshacer los ultimos bloques: se parte de
+     * los saldos actuales, se deshacen los bloques con sus registros y se liquidan las transacciones de la rama sobre
+     * una copia del arbol de saldos. Permite decidir una reorganizacion antes de tocar la cadena.
+     *
+     * @param depth  numero de bloques a deshacer (deben poder deshacerse)
+     * @param branch bloques de la rama ordenados por altura
+     * @return indice en la rama del primer bloque que no se puede aplicar, -1 si se pueden aplicar todos
+     */
+    public int findInvalidBlock(int depth, List<Block> branch) {
+        StateTree tree = this.balances.getStateTree();
+        for (int height = getSize() - 1; height >= getSize() - depth; height--) {
+            tree = this.undos.get(height).revert(tree);
+        }
+        for (int i = 0; i < branch.size(); i++) {
+            Block block = branch.get(i);
+            try {
+                for (Transaction transaction : block.getTransactions()) {
+                    tree = RecordBalances.settle(tree, transaction);
+                }
+            } catch (Exception e) {
+                log.info("El bloque {} de la rama no puede aplicarse: {}", LogUtils.shortHash(block.getHash()),
+                        e.getMessage());
+                return i;
+            }
+            if (block.getStateRoot() != null && !Arrays.equals(block.getStateRoot(), tree.getRootHash())) {
+                log.info("La raiz de estado del bloque {} de la rama no coincide", LogUtils.shortHash(block.getHash()));
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Descartar los registros para deshacer bloques por debajo de una altura
+     *
+     * @param height altura minima que se podra deshacer
+     */
+    public void discardUndo(int height) {
+        this.undos.keySet().removeIf(h -> h < height);
+    }
+
+    /**
+     * Podar los bloques por debajo de una altura: se sustituyen por su cabecera y sus transacciones dejan de estar
+     * indexadas. Los saldos no cambian, ya que el estado de las cuentas se guarda aparte. Las posiciones del indice
+     * por cuenta se conservan, pero el historial omite las transacciones podadas.
+     *
+     * @param height altura del primer bloque que conserva su contenido
+     * @return cabeceras de los bloques podados
+     */
+    public List<Block> prune(int height) {
+        List<Block> pruned = new ArrayList<>();
+        for (; this.prunedHeight < Math.min(height, getSize()); this.prunedHeight++) {
+            Block block = this.blocks.get(this.prunedHeight);
+            if (block.getTransactions() == null) {
+                continue;
+            }
+            for (Transaction transaction : block.getTransactions()) {
+                String key = Base64.encodeBase64String(transaction.getHash());
+                TransactionLocation location = this.transactionIndex.get(key);
+                if (location != null && location.getHeight() == this.prunedHeight) {
+                    this.transactionIndex.remove(key);
+                }
+            }
+            this.undos.remove(this.prunedHeight);
+            Block header = block.toHeader();
+            this.blocks = this.blocks.with(this.prunedHeight, header);
+            pruned.add(header);
+        }
+        return pruned;
+    }
+
+    /**
+     * Publicar una nueva vista inmutable de los saldos actuales
+     */
+    private void publishBalanceView() {
+        Block lastBlock = getLastBlock();
+        this.balanceView = new BalanceView(getSize() - 1, lastBlock != null ? lastBlock.getHash() : null,
+                this.balances.getStateTree());
+    }
+
+    /**
+     * Añadir un bloque y sus transacciones a los indices
+     *
+     * @param block  Bloque a indexar
+     * @param height altura del bloque
+     */
+    private void index(Block block, int height) {
+        this.blockIndex.put(Base64.encodeBase64String(block.getHash()), height);
+        // las cabeceras sin contenido no tienen transacciones que indexar
+        if (block.getTransactions() != null) {
+            for (int i = 0; i < block.getTransactions().size(); i++) {
+                this.transactionIndex.put(Base64.encodeBase64String(block.getTransactions().get(i).getHash()),
+                        new TransactionLocation(height, i));
+            }
+            this.addressIndex.add(block, height);
         }
-        this.blocks.add(block);
-        log.info(balances.toString() + "\n");
     }
 
     @Override
@@ -76,11 +343,23 @@ public class Blockchain {
         return true;
     }
 
+    /**
+     * Resumen de la cadena para trazas: altura y ultimo bloque
+     */
     @Override
     public String toString() {
+        return "Blockchain{size=" + getSize() + ", lastBlock=" + getLastBlock() + "}";
+    }
+
+    /**
+     * Volcado completo de todos los bloques de la cadena
+     *
+     * @return texto de la cadena
+     */
+    public String dump() {
         StringBuilder sb = new StringBuilder();
         for (Block block : this.blocks) {
-            sb.append(block.toString());
+            sb.append(block.dump());
         }
         return sb.toString();
     }
@@ -0,0 +1,150 @@
+package com.example.mestichain.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.codec.binary.Base64;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vista inmutable de la cadena principal publicada por el servicio de bloques cuando termina de aplicar un bloque (o
+ * una reorganizacion completa). Las lecturas (API REST, minero) se hacen siempre sobre la ultima vista publicada, sin
+ * bloqueos, y nunca observan una cadena a medio modificar.
+ * Los indices por hash se comparten con la cadena y pueden ir por delante de la vista, por lo que cada resultado se
+ * comprueba contra los bloques de la vista.
+ */
+public class ChainView {
+
+    public static final ChainView EMPTY = new ChainView(BlockList.EMPTY, BalanceView.EMPTY, Map.of(), Map.of(),
+            new AddressIndex(), null);
+
+    //Bloques de la cadena, compartidos con la cadena y con las vistas anteriores
+    private final BlockList blocks;
+    private final BalanceView balanceView;
+    private final Map<String, Integer> blockIndex;
+    private final Map<String, TransactionLocation> transactionIndex;
+    private final AddressIndex addressIndex;
+    private final byte[] nextTarget;
+
+    public ChainView(BlockList blocks, BalanceView balanceView, Map<String, Integer> blockIndex,
+                     Map<String, TransactionLocation> transactionIndex, AddressIndex addressIndex, byte[] nextTarget) {
+        this.blocks = blocks;
+        this.balanceView = balanceView;
+        this.blockIndex = blockIndex;
+        this.transactionIndex = transactionIndex;
+        this.addressIndex = addressIndex;
+        this.nextTarget = nextTarget;
+    }
+
+    public List<Block> getBlocks() {
+        return this.blocks;
+    }
+
+    /**
+     * Saldos de las cuentas tras el ultimo bloque de la vista
+     *
+     * @return copia de los saldos
+     */
+    public RecordBalances getBalances() {
+        return RecordBalances.of(this.balanceView.getStateTree());
+    }
+
+    public int getSize() {
+        return this.blocks.size();
+    }
+
+    public boolean isEmpty() {
+        return this.blocks.isEmpty();
+    }
+
+    @JsonIgnore
+    public BalanceView getBalanceView() {
+        return this.balanceView;
+    }
+
+    /**
+     * Objetivo de la prueba de trabajo del siguiente bloque de la cadena
+     *
+     * @return objetivo de 32 bytes
+     */
+    @JsonIgnore
+    public byte[] getNextTarget() {
+        return this.nextTarget;
+    }
+
+    @JsonIgnore
+    public Block getLastBlock() {
+        return this.blocks.isEmpty() ? null : this.blocks.get(this.blocks.size() - 1);
+    }
+
+    /**
+     * Obtener el bloque a una altura dada
+     *
+     * @param height altura del bloque
+     * @return Bloque o null si no existe
+     */
+    public Block getBlock(int height) {
+        return height >= 0 && height < this.blocks.size() ? this.blocks.get(height) : null;
+    }
+
+    /**
+     * Obtener un bloque de la vista por su hash
+     *
+     * @param hash hash del bloque
+     * @return Bloque o null si no esta en la vista
+     */
+    public Block getBlock(byte[] hash) {
+        Integer height = this.blockIndex.get(Base64.encodeBase64String(hash));
+        Block block = height != null ? getBlock(height) : null;
+        return block != null && Arrays.equals(block.getHash(), hash) ? block : null;
+    }
+
+    /**
+     * Obtener una transaccion incluida en la vista por su hash
+     *
+     * @param hash hash de la transaccion
+     * @return Transaccion o null si no esta en la vista
+     */
+    public Transaction getTransaction(byte[] hash) {
+        TransactionLocation location = this.transactionIndex.get(Base64.encodeBase64String(hash));
+        Transaction transaction = location != null ? getTransaction(location) : null;
+        return transaction != null && Arrays.equals(transaction.getHash(), hash) ? transaction : null;
+    }
+
+    /**
+     * Obtener una pagina del historial de transacciones de una cuenta. Solo se leen las posiciones del indice por
+     * debajo de la altura de la vista y solo se devuelven las transacciones de la cuenta: si el indice ya refleja una
+     * reorganizacion posterior a la vista, la pagina puede tener menos transacciones que su tamaño
+     *
+     * @param address clave publica de la cuenta
+     * @param page    numero de pagina empezando en 0 (transacciones mas recientes)
+     * @param size    tamaño de la pagina
+     * @return pagina con las transacciones y su posicion en la cadena
+     */
+    public AddressHistoryPage getAddressHistory(byte[] address, int page, int size) {
+        AddressHistoryPage result = new AddressHistoryPage();
+        result.setPage(page);
+        result.setSize(size);
+        result.setTotal(this.addressIndex.count(address, getSize()));
+        for (TransactionLocation location : this.addressIndex.getPage(address, page, size, getSize())) {
+            // tras una reorganizacion posterior a la vista la posicion puede ser de otra transaccion en su bloque
+            Transaction transaction = getTransaction(location);
+            if (transaction != null && involves(transaction, address)) {
+                result.getTransactions().add(new TransactionRecord(location.getHeight(), location.getIndex(), transaction));
+            }
+        }
+        return result;
+    }
+
+    private static boolean involves(Transaction transaction, byte[] address) {
+        return Arrays.equals(transaction.getRecipient(), address)
+                || (!transaction.isCoinbase() && Arrays.equals(transaction.getSender(), address));
+    }
+
+    private Transaction getTransaction(TransactionLocation location) {
+        Block block = getBlock(location.getHeight());
+        return block != null && block.getTransactions() != null && location.getIndex() < block.getTransactions().size()
+                ? block.getTransactions().get(location.getIndex()) : null;
+    }
+}
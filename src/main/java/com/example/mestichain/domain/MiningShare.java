@@ -0,0 +1,16 @@
+package com.example.mestichain.domain;
+
+import lombok.Data;
+
+/**
+ * Solucion enviada por un minero externo: identificador del trabajo, extra-nonce asignado, timestamp usado en la
+ * cabecera y nonce que cumple el objetivo
+ */
+@Data
+public class MiningShare {
+
+    private long workId;
+    private long extraNonce;
+    private long timestamp;
+    private long nonce;
+}
@@ -0,0 +1,43 @@
+package com.example.mestichain.domain;
+
+import lombok.Data;
+
+/**
+ * Trabajo entregado a un minero: cabecera de la plantilla de bloque con su propio extra-nonce (ya reflejado en la raiz
+ * de merkle) y el rango de nonces [nonceStart, nonceEnd) que debe probar. El minero solo necesita la cabecera para
+ * calcular el hash del bloque, y puede avanzar el timestamp sin pedir trabajo nuevo.
+ */
+@Data
+public class MiningWork {
+
+    private long workId;
+    private long extraNonce;
+    private byte[] previousHash;
+    private byte[] merkleRoot;
+    private byte[] stateRoot;
+    private byte[] target;
+    private long timestamp;
+    private long nonceStart;
+    private long nonceEnd;
+
+    /**
+     * Cabecera del bloque con un nonce dado, con el hash calculado
+     *
+     * @param nonce nonce a probar
+     * @return Bloque con la cabecera y sin contenido
+     */
+    public Block toHeader(long nonce) {
+        return toHeader(this.timestamp, nonce);
+    }
+
+    /**
+     * Cabecera del bloque con un timestamp y un nonce dados, con el hash calculado
+     *
+     * @param timestamp timestamp de la cabecera
+     * @param nonce     nonce a probar
+     * @return Bloque con la cabecera y sin contenido
+     */
+    public Block toHeader(long timestamp, long nonce) {
+        return new Block(this.previousHash, this.merkleRoot, this.stateRoot, this.target, timestamp, nonce);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.mestichain.domain;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bloques recibidos antes que su bloque anterior. Se guardan indexados por el hash del bloque anterior hasta que
+ * este llega y pueden ser conectados. El numero de bloques esta acotado: al superarlo se descartan los mas antiguos.
+ */
+public class OrphanPool {
+
+    private final int maxSize;
+    //Bloques huerfanos por hash, en orden de llegada
+    private final LinkedHashMap<String, Block> orphans = new LinkedHashMap<>();
+    //Hashes de los bloques huerfanos por hash del bloque anterior
+    private final Map<String, List<String>> byPreviousHash = new HashMap<>();
+
+    public OrphanPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Guardar un bloque huerfano
+     *
+     * @param block Bloque cuyo bloque anterior no es conocido
+     * @return true si el bloque no estaba ya guardado
+     */
+    public synchronized boolean add(Block block) {
+        String hash = Base64.encodeBase64String(block.getHash());
+        if (this.maxSize <= 0 || this.orphans.containsKey(hash)) {
+            return false;
+        }
+        this.orphans.put(hash, block);
+        this.byPreviousHash.computeIfAbsent(Base64.encodeBase64String(block.getPreviousHash()), k -> new ArrayList<>()).add(hash);
+
+        // descartar los bloques mas antiguos
+        Iterator<Map.Entry<String, Block>> iterator = this.orphans.entrySet().iterator();
+        while (this.orphans.size() > this.maxSize) {
+            Map.Entry<String, Block> oldest = iterator.next();
+            iterator.remove();
+            removeFromParent(oldest.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Comprobar si un bloque esta guardado como huerfano
+     *
+     * @param hash hash del bloque
+     * @return true si el bloque esta en el pool
+     */
+    public synchronized boolean contains(byte[] hash) {
+        return this.orphans.containsKey(Base64.encodeBase64String(hash));
+    }
+
+    /**
+     * Extraer los bloques huerfanos cuyo bloque anterior es el bloque dado
+     *
+     * @param previousHash hash del bloque anterior
+     * @return bloques hijos, que dejan de estar en el pool
+     */
+    public synchronized List<Block> removeChildren(byte[] previousHash) {
+        List<String> hashes = this.byPreviousHash.remove(Base64.encodeBase64String(previousHash));
+        if (hashes == null) {
+            return Collections.emptyList();
+        }
+        List<Block> children = new ArrayList<>(hashes.size());
+        for (String hash : hashes) {
+            children.add(this.orphans.remove(hash));
+        }
+        return children;
+    }
+
+    public synchronized int size() {
+        return this.orphans.size();
+    }
+
+    private void removeFromParent(Block block) {
+        String previousHash = Base64.encodeBase64String(block.getPreviousHash());
+        List<String> siblings = this.byPreviousHash.get(previousHash);
+        if (siblings != null) {
+            siblings.remove(Base64.encodeBase64String(block.getHash()));
+            if (siblings.isEmpty()) {
+                this.byPreviousHash.remove(previousHash);
+            }
+        }
+    }
+}
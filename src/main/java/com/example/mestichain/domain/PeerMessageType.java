@@ -0,0 +1,50 @@
+package com.example.mestichain.domain;
+
+/**
+ * Tipos de mensaje del canal entre nodos. Cada mensaje binario empieza con el codigo del tipo seguido del contenido
+ * en JSON:
+ * 	- HELLO: url del nodo que abre la conexion
+ * 	- PING / PONG: latido, sin contenido
+ * 	- TRANSACTION / TRANSACTIONS: una transaccion o un lote de transacciones
+ * 	- BLOCK: bloque completo
+ * 	- INVENTORY: hashes de bloques que tiene el nodo (su cima)
+ * 	- GET_DATA: hashes de bloques que se piden al nodo
+ * 	- COMPRESSION: sin contenido, el nodo admite bloques comprimidos ({@link com.example.mestichain.utils.BlockCodec})
+ */
+public enum PeerMessageType {
+
+    HELLO(1),
+    PING(2),
+    PONG(3),
+    TRANSACTION(4),
+    TRANSACTIONS(5),
+    BLOCK(6),
+    INVENTORY(7),
+    GET_DATA(8),
+    COMPRESSION(9);
+
+    private final byte code;
+
+    PeerMessageType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Tipo de mensaje a partir de su codigo
+     *
+     * @param code codigo del mensaje
+     * @return tipo o null si el codigo no es conocido
+     */
+    public static PeerMessageType of(byte code) {
+        for (PeerMessageType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.mestichain.domain;
+
+import lombok.Data;
+
+import java.net.URL;
+
+/**
+ * Medidas de un nodo vecino para elegir a quien enviar los mensajes y de quien sincronizar:
+ * 	- Tiempo de respuesta (RTT) y tasa de fallos, como medias moviles exponenciales
+ * 	- Bytes servidos y caudal medido en las descargas
+ * 	- Fallos consecutivos: tras cada fallo el vecino no se usa durante un tiempo que se duplica con cada fallo
+ * 	- Modo podado anunciado en sus respuestas: un vecino podado no puede servir la cadena completa
+ */
+@Data
+public class PeerStats {
+
+    //Peso de la ultima medida en las medias moviles
+    private static final double ALPHA = 0.2;
+    //RTT (ms) supuesto para un vecino sin medidas
+    private static final double DEFAULT_RTT = 100;
+    //Espera maxima tras fallos consecutivos, en multiplos de la espera base
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    private final URL url;
+    private double rtt = DEFAULT_RTT;
+    private double failureRate;
+    private long bytesServed;
+    //Caudal en bytes por segundo, 0 si nunca ha servido datos
+    private double throughput;
+    private int consecutiveFailures;
+    //Momento (ms) a partir del cual se vuelve a usar el vecino tras un fallo
+    private long retryAt;
+    private volatile boolean pruned;
+
+    /**
+     * Registrar una respuesta correcta del vecino
+     *
+     * @param rtt tiempo de respuesta en ms
+     */
+    public synchronized void recordSuccess(long rtt) {
+        this.rtt = (1 - ALPHA) * this.rtt + ALPHA * rtt;
+        this.failureRate = (1 - ALPHA) * this.failureRate;
+        this.consecutiveFailures = 0;
+        this.retryAt = 0;
+    }
+
+    /**
+     * Registrar un fallo del vecino y calcular hasta cuando no se usa
+     *
+     * @param now     momento actual (ms)
+     * @param backoff espera base (ms) tras el primer fallo
+     */
+    public synchronized void recordFailure(long now, long backoff) {
+        this.failureRate = (1 - ALPHA) * this.failureRate + ALPHA;
+        this.consecutiveFailures++;
+        this.retryAt = now + (backoff << Math.min(this.consecutiveFailures - 1, MAX_BACKOFF_SHIFT));
+    }
+
+    /**
+     * Registrar datos servidos por el vecino
+     *
+     * @param bytes    bytes recibidos
+     * @param duration tiempo de la descarga en ms
+     */
+    public synchronized void recordServed(long bytes, long duration) {
+        this.bytesServed += bytes;
+        double rate = bytes * 1000.0 / Math.max(duration, 1);
+        this.throughput = this.throughput == 0 ? rate : (1 - ALPHA) * this.throughput + ALPHA * rate;
+    }
+
+    /**
+     * Comprobar si el vecino puede usarse o esta esperando tras un fallo
+     *
+     * @param now momento actual (ms)
+     * @return true si no esta en espera
+     */
+    public synchronized boolean isAvailable(long now) {
+        return now >= this.retryAt;
+    }
+
+    /**
+     * Coste esperado de enviar un mensaje al vecino: su RTT penalizado por la tasa de fallos. Menor es mejor
+     *
+     * @return coste en ms
+     */
+    public synchronized double getScore() {
+        return this.rtt / Math.max(1 - this.failureRate, 0.05);
+    }
+}
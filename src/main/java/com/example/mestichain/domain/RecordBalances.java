@@ -1,19 +1,48 @@
 package com.example.mestichain.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import org.apache.commons.codec.binary.Base64;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 
 /*
  * La cadena de bloques es esencialmente una lista de bloques enlazados ya que cada bloque tiene el identificador del bloque anterior.
+ * Junto al saldo de cada cuenta se guarda su nonce (numero de transacciones enviadas) como una entrada mas del arbol de
+ * saldos, con la clave publica precedida de NONCE_PREFIX: la raiz de estado, las instantaneas y los registros para
+ * deshacer bloques lo incluyen sin cambios de formato. Las entradas de nonces no pueden recibir saldo: se rechaza
+ * cualquier transaccion cuyo destinatario empiece por NONCE_PREFIX.
  * */
 @Data
 public class RecordBalances {
 
+    //Prefijo de la entrada con el nonce de una cuenta. Una clave publica codificada nunca empieza asi, y ningun
+    //destinatario puede empezar asi (ver isReservedAddress)
+    private static final byte[] NONCE_PREFIX = "nonce:".getBytes(StandardCharsets.US_ASCII);
+
     private Hashtable<String, Long> balances = new Hashtable<>();
 
+    //Arbol de Merkle sobre los saldos, se actualiza con cada cambio de saldo
+    @JsonIgnore
+    private StateTree stateTree = StateTree.EMPTY;
+
+
+    /**
+     * Saldos a partir de un arbol de saldos
+     *
+     * @param tree arbol de saldos
+     * @return saldos con el arbol dado
+     */
+    public static RecordBalances of(StateTree tree) {
+        RecordBalances recordBalances = new RecordBalances();
+        tree.forEach((address, balance) -> recordBalances.balances.put(address, balance));
+        recordBalances.stateTree = tree;
+        return recordBalances;
+    }
 
     public Long getAccountBalance(byte[] address) {
         return this.balances.getOrDefault(this.getAddressAsString(address), 0L);
@@ -21,17 +50,81 @@ public class RecordBalances {
 
     public void setAccountBalance(byte[] address, Long balance) {
         this.balances.put(this.getAddressAsString(address), balance);
+        this.stateTree = this.stateTree.put(address, balance);
     }
 
     public void addAccountBalance(byte[] address, Long balance) {
-        this.balances.put(this.getAddressAsString(address), this.getAccountBalance(address) + balance);
+        this.setAccountBalance(address, this.getAccountBalance(address) + balance);
+    }
+
+    public void removeAccount(byte[] address) {
+        this.balances.remove(this.getAddressAsString(address));
+        this.stateTree = this.stateTree.remove(address);
+    }
+
+    public void setBalances(Hashtable<String, Long> balances) {
+        this.balances = balances;
+        StateTree tree = StateTree.EMPTY;
+        for (Map.Entry<String, Long> account : balances.entrySet()) {
+            tree = tree.put(Base64.decodeBase64(account.getKey()), account.getValue());
+        }
+        this.stateTree = tree;
+    }
+
+    /**
+     * Siguiente nonce que debe usar una cuenta
+     *
+     * @param address clave publica de la cuenta
+     * @return numero de transacciones enviadas por la cuenta
+     */
+    public long getAccountNonce(byte[] address) {
+        return this.getAccountBalance(nonceAddress(address));
+    }
+
+    /**
+     * Clave de la entrada con el nonce de una cuenta
+     *
+     * @param address clave publica de la cuenta
+     * @return clave de la entrada en el arbol de saldos
+     */
+    public static byte[] nonceAddress(byte[] address) {
+        byte[] key = new byte[NONCE_PREFIX.length + address.length];
+        System.arraycopy(NONCE_PREFIX, 0, key, 0, NONCE_PREFIX.length);
+        System.arraycopy(address, 0, key, NONCE_PREFIX.length, address.length);
+        return key;
+    }
+
+    /**
+     * Comprobar si una clave corresponde a una entrada de nonces, que no puede ser destinataria de transacciones: si
+     * lo fuera, cualquiera podria aumentar el nonce de otra cuenta y dejar sin validez sus transacciones pendientes
+     *
+     * @param address clave de la cuenta
+     * @return true si la clave empieza por NONCE_PREFIX
+     */
+    public static boolean isReservedAddress(byte[] address) {
+        if (address.length < NONCE_PREFIX.length) {
+            return false;
+        }
+        for (int i = 0; i < NONCE_PREFIX.length; i++) {
+            if (address[i] != NONCE_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void settleTransaction(Transaction transaction) throws Exception {
+        if (isReservedAddress(transaction.getRecipient())) {
+            throw new Exception("Destinatario invalido");
+        }
         if(transaction.isCoinbase()){
             this.addAccountBalance(transaction.getRecipient(), transaction.getAmount());
         } else {
+            if (transaction.getNonce() != this.getAccountNonce(transaction.getSender())) {
+                throw new Exception("Nonce invalido");
+            }
             if(this.getAccountBalance(transaction.getSender()) >= transaction.getAmount()) {
+                this.setAccountBalance(nonceAddress(transaction.getSender()), transaction.getNonce() + 1);
                 this.addAccountBalance(transaction.getSender(), -transaction.getAmount());
                 this.addAccountBalance(transaction.getRecipient(), transaction.getAmount());
             } else {
@@ -40,16 +133,83 @@ public class RecordBalances {
         }
     }
 
+    /**
+     * Raiz de estado actual
+     *
+     * @return Hash SHA256 raiz del arbol de saldos
+     */
+    @JsonIgnore
+    public byte[] getStateRoot() {
+        return this.stateTree.getRootHash();
+    }
+
+    /**
+     * Calcular la raiz de estado que resultaria de aplicar una lista de transacciones, sin modificar los saldos
+     *
+     * @param transactions transacciones a aplicar en orden
+     * @return Hash SHA256 raiz del arbol de saldos resultante
+     */
+    public byte[] calculateStateRoot(List<Transaction> transactions) throws Exception {
+        StateTree tree = this.stateTree;
+        for (Transaction transaction : transactions) {
+            tree = settle(tree, transaction);
+        }
+        return tree.getRootHash();
+    }
+
+    /**
+     * Aplicar una transaccion sobre un arbol de saldos sin modificarlo
+     *
+     * @param tree        arbol de saldos
+     * @param transaction transaccion a aplicar
+     * @return arbol de saldos resultante
+     */
+    public static StateTree settle(StateTree tree, Transaction transaction) throws Exception {
+        if (isReservedAddress(transaction.getRecipient())) {
+            throw new Exception("Destinatario invalido");
+        }
+        if (!transaction.isCoinbase()) {
+            byte[] nonceAddress = nonceAddress(transaction.getSender());
+            if (transaction.getNonce() != getOrZero(tree, nonceAddress)) {
+                throw new Exception("Nonce invalido");
+            }
+            long senderBalance = getOrZero(tree, transaction.getSender());
+            if (senderBalance < transaction.getAmount()) {
+                throw new Exception("Saldo Insuficiente");
+            }
+            tree = tree.put(nonceAddress, transaction.getNonce() + 1);
+            tree = tree.put(transaction.getSender(), senderBalance - transaction.getAmount());
+        }
+        return tree.put(transaction.getRecipient(), getOrZero(tree, transaction.getRecipient()) + transaction.getAmount());
+    }
+
     public boolean isValidAccount(byte[] address) {
         return this.balances.containsKey(this.getAddressAsString(address));
     }
 
+    private static long getOrZero(StateTree tree, byte[] address) {
+        Long balance = tree.get(address);
+        return balance != null ? balance : 0L;
+    }
+
     private String getAddressAsString(byte[] address) {
         return Base64.encodeBase64String(address);
     }
 
+    /**
+     * Resumen de los saldos para trazas: numero de cuentas
+     */
     @Override
     public String toString() {
+        return "RecordBalances{accounts=" + this.balances.size() + "}";
+    }
+
+    /**
+     * Volcado de la tabla de saldos con las claves publicas abreviadas
+     *
+     * @return texto de la tabla de saldos
+     */
+    public String dump() {
         StringBuilder sb = new StringBuilder();
         Enumeration<String> accounts = this.balances.keys();
         sb.append("\nCLAVE PUBLICA | SALDO\n");
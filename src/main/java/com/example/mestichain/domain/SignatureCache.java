@@ -0,0 +1,74 @@
+package com.example.mestichain.domain;
+
+import com.example.mestichain.utils.constants.MetricName;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Firmas de transacciones ya verificadas, por hash de la transaccion. La comparten el pool y la validacion de bloques:
+ * una transaccion que entra en el pool no vuelve a verificarse al llegar en un bloque, al descargarse en una
+ * sincronizacion o al aplicarse de nuevo en una reorganizacion.
+ * Solo es valida para transacciones cuyo hash ya se ha comprobado contra su contenido: con el mismo hash y la misma
+ * firma, la verificacion daria el mismo resultado. El numero de entradas esta acotado: al superarlo se descartan las
+ * menos usadas.
+ */
+@Component
+public class SignatureCache {
+
+    private final Cache<ByteBuffer, byte[]> verified;
+
+    /**
+     * @param maxSize numero maximo de firmas guardadas (unos 200 bytes por entrada)
+     */
+    @Autowired
+    public SignatureCache(@Value("${signatureCacheSize}") long maxSize) {
+        this.verified = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * Comprobar si la firma de una transaccion ya fue verificada
+     *
+     * @param hash      hash de la transaccion, ya comprobado contra su contenido
+     * @param signature firma de la transaccion
+     * @return true si esa misma firma ya se verifico para ese hash
+     */
+    public boolean contains(byte[] hash, byte[] signature) {
+        byte[] cached = verified.getIfPresent(ByteBuffer.wrap(hash));
+        boolean hit = cached != null && Arrays.equals(cached, signature);
+        Metrics.counter(MetricName.SIGNATURE_CACHE, MetricName.TAG_RESULT, hit ? "hit" : "miss").increment();
+        return hit;
+    }
+
+    /**
+     * Guardar una firma verificada
+     *
+     * @param hash      hash de la transaccion
+     * @param signature firma valida de la transaccion
+     */
+    public void add(byte[] hash, byte[] signature) {
+        verified.put(ByteBuffer.wrap(hash), signature);
+    }
+
+    /**
+     * Numero aproximado de firmas guardadas
+     */
+    public long size() {
+        return verified.size();
+    }
+
+    /**
+     * Vaciar la cache
+     */
+    public void clear() {
+        verified.invalidateAll();
+    }
+}
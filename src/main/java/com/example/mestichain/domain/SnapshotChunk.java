@@ -0,0 +1,36 @@
+package com.example.mestichain.domain;
+
+import com.google.common.primitives.Longs;
+import lombok.Data;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fragmento de una instantanea del estado de cuentas. Contiene un rango de cuentas ordenadas por clave publica
+ * y puede ser verificado de forma independiente con el hash publicado en el manifiesto de la instantanea.
+ */
+@Data
+public class SnapshotChunk {
+
+    private int height;
+    private int index;
+    //Saldos de las cuentas del fragmento, en el mismo orden en el que se calcula el hash
+    private Map<String, Long> accounts = new LinkedHashMap<>();
+
+    /**
+     * Calcular el hash del fragmento a partir de las cuentas y saldos que contiene
+     *
+     * @return Hash SHA256
+     */
+    public byte[] calculateHash() {
+        var digest = DigestUtils.getSha256Digest();
+        for (Map.Entry<String, Long> account : this.accounts.entrySet()) {
+            digest.update(Base64.decodeBase64(account.getKey()));
+            digest.update(Longs.toByteArray(account.getValue()));
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.mestichain.domain;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manifiesto de una instantanea del estado de cuentas a una altura dada. Incluye:
+ * - Altura y hash del bloque tras el que se tomo la instantanea
+ * - Raiz de estado que compromete el contenido de todos los fragmentos
+ * - Hash de cada uno de los fragmentos, en orden
+ */
+@Data
+public class SnapshotManifest {
+
+    private int height;
+    private byte[] blockHash;
+    private byte[] stateRoot;
+    private int accounts;
+    private List<byte[]> chunkHashes = new ArrayList<>();
+}
@@ -0,0 +1,57 @@
+package com.example.mestichain.domain;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prueba de Merkle del saldo de una cuenta en el arbol de estado. Incluye:
+ * - La cuenta y su saldo (null si la cuenta no existe)
+ * - Los hashes hermanos del camino desde la raiz hasta la hoja
+ * - Si la cuenta no existe y el camino termina en otra cuenta, la clave y el saldo de esa otra cuenta
+ */
+@Data
+public class StateProof {
+
+    private byte[] address;
+    private Long balance;
+    private byte[] rootHash;
+    private List<byte[]> siblings = new ArrayList<>();
+    private byte[] leafKey;
+    private Long leafBalance;
+
+    /**
+     * Verificar la prueba contra una raiz de estado
+     *
+     * @param expectedRoot raiz de estado de confianza (por ejemplo la de una cabecera de bloque)
+     * @return true si la prueba es valida para esa raiz
+     */
+    public boolean verify(byte[] expectedRoot) {
+        byte[] key = StateTree.keyOf(this.address);
+        byte[] hash;
+        if (this.balance != null) {
+            hash = StateTree.leafHash(key, this.balance);
+        } else if (this.leafKey != null && this.leafBalance != null) {
+            // la otra cuenta debe compartir el camino hasta la hoja
+            for (int depth = 0; depth < this.siblings.size(); depth++) {
+                if (StateTree.bit(key, depth) != StateTree.bit(this.leafKey, depth)) {
+                    return false;
+                }
+            }
+            if (Arrays.equals(this.leafKey, key)) {
+                return false;
+            }
+            hash = StateTree.leafHash(this.leafKey, this.leafBalance);
+        } else {
+            hash = StateTree.EMPTY_HASH;
+        }
+
+        for (int depth = this.siblings.size() - 1; depth >= 0; depth--) {
+            byte[] sibling = this.siblings.get(depth);
+            hash = StateTree.bit(key, depth) == 0 ? StateTree.branchHash(hash, sibling) : StateTree.branchHash(sibling, hash);
+        }
+        return Arrays.equals(hash, expectedRoot);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.mestichain.domain;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instantanea inmutable del estado de cuentas tras aplicar el bloque de una altura dada, dividida en fragmentos
+ * que pueden ser descargados y verificados por separado. La raiz de estado es la raiz del arbol de saldos.
+ */
+@Getter
+public class StateSnapshot {
+
+    private final SnapshotManifest manifest;
+    private final List<SnapshotChunk> chunks;
+
+    /**
+     * Crear una instantanea a partir de los saldos actuales
+     *
+     * @param height    altura del ultimo bloque aplicado
+     * @param blockHash hash del ultimo bloque aplicado
+     * @param balances  saldos de las cuentas tras aplicar el bloque
+     * @param chunkSize numero maximo de cuentas por fragmento
+     */
+    public StateSnapshot(int height, byte[] blockHash, RecordBalances balances, int chunkSize) {
+        this.chunks = new ArrayList<>();
+        this.manifest = new SnapshotManifest();
+        this.manifest.setHeight(height);
+        this.manifest.setBlockHash(blockHash);
+
+        // las cuentas se recorren en el orden del arbol para que el contenido de los fragmentos sea determinista
+        StateTree tree = balances.getStateTree();
+        tree.forEach((address, balance) -> {
+            if (this.chunks.isEmpty() || this.chunks.get(this.chunks.size() - 1).getAccounts().size() == chunkSize) {
+                SnapshotChunk chunk = new SnapshotChunk();
+                chunk.setHeight(height);
+                chunk.setIndex(this.chunks.size());
+                this.chunks.add(chunk);
+            }
+            this.chunks.get(this.chunks.size() - 1).getAccounts().put(address, balance);
+        });
+
+        for (SnapshotChunk chunk : this.chunks) {
+            this.manifest.getChunkHashes().add(chunk.calculateHash());
+        }
+        this.manifest.setAccounts(tree.size());
+        this.manifest.setStateRoot(tree.getRootHash());
+    }
+
+    public SnapshotChunk getChunk(int index) {
+        return index >= 0 && index < this.chunks.size() ? this.chunks.get(index) : null;
+    }
+}
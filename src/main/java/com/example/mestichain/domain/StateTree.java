@@ -0,0 +1,273 @@
+package com.example.mestichain.domain;
+
+import com.google.common.primitives.Longs;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Arbol de Merkle disperso sobre los saldos de las cuentas. Cada cuenta se situa en el arbol siguiendo los bits
+ * del hash SHA256 de su clave publica, y cada subarbol con una unica cuenta se representa con una hoja.
+ * - Hoja: SHA256(0x00 | hash clave publica | saldo)
+ * - Nodo interno: SHA256(0x01 | hash hijo izquierdo | hash hijo derecho), un hijo vacio vale 32 bytes a cero
+ * El arbol es inmutable: cada modificacion crea una nueva version que comparte con la anterior todos los nodos
+ * salvo los del camino modificado, de forma que actualizar k cuentas cuesta O(k log n) y versiones anteriores
+ * pueden ser leidas sin bloqueos.
+ */
+public final class StateTree {
+
+    public static final StateTree EMPTY = new StateTree(null, 0);
+
+    static final byte[] EMPTY_HASH = new byte[32];
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte BRANCH_PREFIX = 0x01;
+
+    private final Node root;
+    private final int size;
+
+    private StateTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Numero de cuentas en el arbol
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Raiz del arbol que compromete el saldo de todas las cuentas
+     *
+     * @return Hash SHA256, 32 bytes a cero si el arbol esta vacio
+     */
+    public byte[] getRootHash() {
+        return this.root == null ? EMPTY_HASH.clone() : this.root.hash().clone();
+    }
+
+    /**
+     * Obtener el saldo de una cuenta
+     *
+     * @param address clave publica de la cuenta
+     * @return saldo o null si la cuenta no esta en el arbol
+     */
+    public Long get(byte[] address) {
+        byte[] key = keyOf(address);
+        Node node = this.root;
+        int depth = 0;
+        while (node instanceof Branch) {
+            node = ((Branch) node).child(bit(key, depth++));
+        }
+        return node != null && Arrays.equals(((Leaf) node).key, key) ? ((Leaf) node).balance : null;
+    }
+
+    /**
+     * Nueva version del arbol con el saldo de una cuenta actualizado
+     *
+     * @param address clave publica de la cuenta
+     * @param balance saldo de la cuenta
+     * @return arbol con la cuenta actualizada
+     */
+    public StateTree put(byte[] address, long balance) {
+        Leaf leaf = new Leaf(keyOf(address), Base64.encodeBase64String(address), balance);
+        boolean exists = get(address) != null;
+        return new StateTree(put(this.root, leaf, 0), exists ? this.size : this.size + 1);
+    }
+
+    /**
+     * Nueva version del arbol sin una cuenta
+     *
+     * @param address clave publica de la cuenta
+     * @return arbol sin la cuenta
+     */
+    public StateTree remove(byte[] address) {
+        if (get(address) == null) {
+            return this;
+        }
+        return new StateTree(remove(this.root, keyOf(address), 0), this.size - 1);
+    }
+
+    /**
+     * Recorrer las cuentas en el orden del arbol
+     *
+     * @param consumer recibe la clave publica en Base64 y el saldo de cada cuenta
+     */
+    public void forEach(BiConsumer<String, Long> consumer) {
+        forEach(this.root, consumer);
+    }
+
+    /**
+     * Generar la prueba de inclusion (o de no inclusion) de una cuenta en el arbol
+     *
+     * @param address clave publica de la cuenta
+     * @return prueba verificable contra la raiz del arbol
+     */
+    public StateProof getProof(byte[] address) {
+        byte[] key = keyOf(address);
+        List<byte[]> siblings = new ArrayList<>();
+        Node node = this.root;
+        int depth = 0;
+        while (node instanceof Branch) {
+            int bit = bit(key, depth++);
+            siblings.add(hashOf(((Branch) node).child(1 - bit)));
+            node = ((Branch) node).child(bit);
+        }
+
+        StateProof proof = new StateProof();
+        proof.setAddress(address);
+        proof.setRootHash(getRootHash());
+        proof.setSiblings(siblings);
+        if (node != null) {
+            Leaf leaf = (Leaf) node;
+            if (Arrays.equals(leaf.key, key)) {
+                proof.setBalance(leaf.balance);
+            } else {
+                // la ruta termina en otra cuenta: la cuenta no esta en el arbol
+                proof.setLeafKey(leaf.key);
+                proof.setLeafBalance(leaf.balance);
+            }
+        }
+        return proof;
+    }
+
+    static byte[] keyOf(byte[] address) {
+        return DigestUtils.sha256(address);
+    }
+
+    static int bit(byte[] key, int depth) {
+        return (key[depth >> 3] >> (7 - (depth & 7))) & 1;
+    }
+
+    static byte[] leafHash(byte[] key, long balance) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(LEAF_PREFIX);
+        digest.update(key);
+        digest.update(Longs.toByteArray(balance));
+        return digest.digest();
+    }
+
+    static byte[] branchHash(byte[] left, byte[] right) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(BRANCH_PREFIX);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    private static byte[] hashOf(Node node) {
+        return node == null ? EMPTY_HASH : node.hash();
+    }
+
+    private static Node put(Node node, Leaf leaf, int depth) {
+        if (node == null) {
+            return leaf;
+        }
+        if (node instanceof Leaf) {
+            Leaf existing = (Leaf) node;
+            return Arrays.equals(existing.key, leaf.key) ? leaf : split(existing, leaf, depth);
+        }
+        Branch branch = (Branch) node;
+        return bit(leaf.key, depth) == 0
+                ? new Branch(put(branch.left, leaf, depth + 1), branch.right)
+                : new Branch(branch.left, put(branch.right, leaf, depth + 1));
+    }
+
+    private static Node split(Leaf a, Leaf b, int depth) {
+        int bitA = bit(a.key, depth);
+        int bitB = bit(b.key, depth);
+        if (bitA == bitB) {
+            Node child = split(a, b, depth + 1);
+            return bitA == 0 ? new Branch(child, null) : new Branch(null, child);
+        }
+        return bitA == 0 ? new Branch(a, b) : new Branch(b, a);
+    }
+
+    private static Node remove(Node node, byte[] key, int depth) {
+        if (node instanceof Leaf) {
+            return null;
+        }
+        Branch branch = (Branch) node;
+        Node left = branch.left;
+        Node right = branch.right;
+        if (bit(key, depth) == 0) {
+            left = remove(left, key, depth + 1);
+        } else {
+            right = remove(right, key, depth + 1);
+        }
+        // un subarbol con una unica cuenta se representa con su hoja
+        if (left == null && (right == null || right instanceof Leaf)) {
+            return right;
+        }
+        if (right == null && left instanceof Leaf) {
+            return left;
+        }
+        return new Branch(left, right);
+    }
+
+    private static void forEach(Node node, BiConsumer<String, Long> consumer) {
+        if (node instanceof Leaf) {
+            consumer.accept(((Leaf) node).address, ((Leaf) node).balance);
+        } else if (node != null) {
+            forEach(((Branch) node).left, consumer);
+            forEach(((Branch) node).right, consumer);
+        }
+    }
+
+    private abstract static class Node {
+        // el hash se calcula la primera vez que se necesita: solo los nodos nuevos se recalculan
+        private volatile byte[] hash;
+
+        byte[] hash() {
+            byte[] h = this.hash;
+            if (h == null) {
+                h = calculateHash();
+                this.hash = h;
+            }
+            return h;
+        }
+
+        abstract byte[] calculateHash();
+    }
+
+    private static final class Leaf extends Node {
+        private final byte[] key;
+        private final String address;
+        private final long balance;
+
+        Leaf(byte[] key, String address, long balance) {
+            this.key = key;
+            this.address = address;
+            this.balance = balance;
+        }
+
+        @Override
+        byte[] calculateHash() {
+            return leafHash(this.key, this.balance);
+        }
+    }
+
+    private static final class Branch extends Node {
+        private final Node left;
+        private final Node right;
+
+        Branch(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        Node child(int bit) {
+            return bit == 0 ? this.left : this.right;
+        }
+
+        @Override
+        byte[] calculateHash() {
+            return branchHash(hashOf(this.left), hashOf(this.right));
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package com.example.mestichain.domain;
 
+import com.example.mestichain.utils.LogUtils;
 import com.example.mestichain.utils.SignatureUtils;
+import com.example.mestichain.utils.constants.MetricName;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.primitives.Longs;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
@@ -22,6 +27,10 @@ import java.util.Date;
  * - La cantidad a ser transferida
  * - El timestamp de cuándo fue creada
  * - La firma con la clave privada del emisor
+ * - El nonce del emisor: numero de transacciones enviadas antes por la cuenta. Cada nonce solo puede usarse una vez,
+ *   por lo que una transaccion firmada no puede volver a incluirse en la cadena
+ * - En la transaccion coinbase, un extra-nonce que cambia la raiz de merkle del bloque y amplia el espacio de busqueda
+ *   de la prueba de trabajo mas alla del nonce de la cabecera
  */
 @Slf4j
 @Data
@@ -36,6 +45,8 @@ public class Transaction {
     private long amount;
     private byte[] signature;
     private long timestamp;
+    private long nonce;
+    private long extraNonce;
 
     private boolean isCoinbase;
 
@@ -43,10 +54,15 @@ public class Transaction {
     }
 
     public Transaction(byte[] sender, byte[] recipient, long amount) {
+        this(sender, recipient, amount, 0);
+    }
+
+    public Transaction(byte[] sender, byte[] recipient, long amount, long nonce) {
         this.isCoinbase = false;
         this.sender = sender;
         this.recipient = recipient;
         this.amount = amount;
+        this.nonce = nonce;
         this.timestamp = System.currentTimeMillis();
         this.hash = calculateHash();
     }
@@ -64,11 +80,17 @@ public class Transaction {
      *
      * @return byte[] Array de bytes representando el contenido de la transaccion
      */
+    @JsonIgnore
     public byte[] getContent() {
         byte[] content = ArrayUtils.addAll(String.valueOf(amount).getBytes());
         content = ArrayUtils.addAll(content, this.sender);
         content = ArrayUtils.addAll(content, this.recipient);
         content = ArrayUtils.addAll(content, Longs.toByteArray(this.timestamp));
+        if (this.isCoinbase) {
+            content = ArrayUtils.addAll(content, Longs.toByteArray(this.extraNonce));
+        } else {
+            content = ArrayUtils.addAll(content, Longs.toByteArray(this.nonce));
+        }
         return content;
     }
 
@@ -81,58 +103,141 @@ public class Transaction {
         return DigestUtils.sha256(getContent());
     }
 
+    /**
+     * Copia de la transaccion coinbase con otro extra-nonce
+     *
+     * @param extraNonce extra-nonce de la copia
+     * @return Transaccion coinbase con el hash recalculado
+     */
+    public Transaction withExtraNonce(long extraNonce) {
+        Transaction coinbase = new Transaction();
+        coinbase.setCoinbase(true);
+        coinbase.setRecipient(this.recipient);
+        coinbase.setAmount(this.amount);
+        coinbase.setTimestamp(this.timestamp);
+        coinbase.setExtraNonce(extraNonce);
+        coinbase.setHash(coinbase.calculateHash());
+        return coinbase;
+    }
+
     /**
      * Comprobar si una transacción es válida
      *
+     * @param signatureCache firmas ya verificadas, se consulta y se actualiza
      * @return true si tiene un hash válido y la firma es válida
      */
-    public boolean isValidTransaction() {
-        if (this.recipient == null) {
-            log.error("Destinatario inválido");
-            return false;
+    public boolean isValidTransaction(SignatureCache signatureCache) {
+        return verify(signatureCache) == null;
+    }
+
+    /**
+     * Verificar el hash y la firma de la transacción
+     *
+     * @param signatureCache firmas ya verificadas, se consulta y se actualiza
+     * @return motivo del rechazo o null si la transaccion es valida
+     */
+    public String verify(SignatureCache signatureCache) {
+        Timer.Sample sample = Timer.start();
+        String reason = getRejection(signatureCache);
+        sample.stop(Metrics.timer(MetricName.TRANSACTION_VERIFY));
+        if (reason != null) {
+            Metrics.counter(MetricName.TRANSACTION_REJECTED, MetricName.TAG_REASON, reason).increment();
+        }
+        return reason;
+    }
+
+    /**
+     * Motivo por el que la transaccion no es valida
+     *
+     * @param signatureCache firmas ya verificadas
+     * @return motivo o null si la transaccion es valida
+     */
+    private String getRejection(SignatureCache signatureCache) {
+        if (this.recipient == null || RecordBalances.isReservedAddress(this.recipient)) {
+            log.debug("Destinatario inválido: {}", this);
+            return "invalid_recipient";
+        }
+
+        if (this.nonce < 0) {
+            log.debug("Nonce inválido: {}", this);
+            return "invalid_nonce";
         }
 
         if (this.amount < 0) {
-            log.error("Cantidad inválida");
-            return false;
+            log.debug("Cantidad inválida: {}", this);
+            return "invalid_amount";
         }
 
         if (this.signature == null) {
-            log.error("Firma inválida");
-            return false;
+            log.debug("Firma inválida: {}", this);
+            return "missing_signature";
         }
 
         // verificar hash
         if (!Arrays.equals(getHash(), calculateHash())) {
-            log.error("Hash inválido");
-            return false;
+            log.debug("Hash inválido: {}", this);
+            return "invalid_hash";
         }
 
         // no coinbase tx
         if (!this.isCoinbase) {
             if (this.sender == null) {
-                log.error("Emisor inválido");
-                return false;
+                log.debug("Emisor inválido: {}", this);
+                return "invalid_sender";
             }
 
-            // verificar firma
+            // verificar firma, salvo que ya se haya verificado (el hash ya esta comprobado)
+            if (signatureCache.contains(this.hash, this.signature)) {
+                return null;
+            }
             try {
                 if (!SignatureUtils.validateSignature(this.getContent(), this.signature, this.sender))
-                    return false;
+                    return "invalid_signature";
 
             } catch (Exception e) {
-                return false;
+                return "invalid_signature";
             }
+            signatureCache.add(this.hash, this.signature);
         }
 
-        return true;
+        return null;
+    }
+
+    /**
+     * Tamaño aproximado de la transaccion en memoria (campos binarios y numericos)
+     *
+     * @return numero de bytes
+     */
+    @JsonIgnore
+    public int getByteSize() {
+        return length(this.hash) + length(this.sender) + length(this.recipient) + length(this.signature)
+                + 3 * Long.BYTES + 1;
+    }
+
+    private static int length(byte[] field) {
+        return field != null ? field.length : 0;
     }
 
+    /**
+     * Resumen de la transaccion para trazas: hash corto, extremos abreviados y cantidad
+     */
     @Override
     public String toString() {
+        return "Transaction{hash=" + LogUtils.shortHash(this.hash) + ", sender=" + LogUtils.shortKey(this.sender)
+                + ", recipient=" + LogUtils.shortKey(this.recipient) + ", amount=" + this.amount
+                + (this.isCoinbase ? ", coinbase" : ", nonce=" + this.nonce) + "}";
+    }
+
+    /**
+     * Volcado completo de la transaccion con todos los campos en Base64
+     *
+     * @return texto de la transaccion
+     */
+    public String dump() {
         return "{\nHash: " + Base64.encodeBase64String(this.hash) + ",\nEmisor: " + Base64.encodeBase64String(this.sender) + ",\nDestinatario: "
                 + Base64.encodeBase64String(this.recipient) + ",\nCantidad: " + this.amount + ",\nFirma: " + Base64.encodeBase64String(this.signature)
-                + ",\nTimestamp: " + this.timestamp + "\n}";
+                + ",\nTimestamp: " + this.timestamp + (this.isCoinbase ? ",\nExtraNonce: " + this.extraNonce : ",\nNonce: " + this.nonce)
+                + "\n}";
     }
 }
 
@@ -0,0 +1,158 @@
+package com.example.mestichain.domain;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto de transacciones indexado por el hash de la transaccion, para comprobar la pertenencia sin calcular el
+ * hashCode de Transaction, que recorre todos sus campos binarios (claves publicas y firma).
+ * Tabla de direccionamiento abierto con sondeo lineal: los primeros 8 bytes de cada hash se guardan en un array de
+ * long, de forma que la busqueda compara primitivos y solo compara el hash completo cuando coinciden. No es seguro
+ * para uso concurrente: se usa con el bloqueo de {@link TransactionPool}.
+ */
+public class TransactionHashSet {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    //Primeros 8 bytes del hash de cada posicion ocupada
+    private long[] keys = new long[INITIAL_CAPACITY];
+    //Transaccion de cada posicion, null si esta libre
+    private Transaction[] transactions = new Transaction[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Añadir una transaccion
+     *
+     * @param transaction Transaccion a añadir
+     * @return true si no habia ya una transaccion con el mismo hash
+     */
+    public boolean add(Transaction transaction) {
+        byte[] hash = transaction.getHash();
+        if (indexOf(hash) >= 0) {
+            return false;
+        }
+        if ((this.size + 1) * 2 > this.transactions.length) {
+            resize(this.transactions.length * 2);
+        }
+        insert(keyOf(hash), transaction);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Transaccion del conjunto con un hash dado
+     *
+     * @param hash hash de la transaccion
+     * @return transaccion o null si no esta en el conjunto
+     */
+    public Transaction get(byte[] hash) {
+        int index = indexOf(hash);
+        return index >= 0 ? this.transactions[index] : null;
+    }
+
+    /**
+     * Comprobar si una transaccion esta en el conjunto. Ademas del hash se comparan el resto de campos, para no dar
+     * por conocida una transaccion que solo copia el hash de otra
+     *
+     * @param transaction Transaccion a comprobar
+     * @return true si el conjunto contiene una transaccion igual
+     */
+    public boolean contains(Transaction transaction) {
+        Transaction found = get(transaction.getHash());
+        return found != null && (found == transaction || found.equals(transaction));
+    }
+
+    /**
+     * Eliminar la transaccion con el hash de una transaccion dada
+     *
+     * @param transaction Transaccion a eliminar
+     * @return true si estaba en el conjunto
+     */
+    public boolean remove(Transaction transaction) {
+        int index = indexOf(transaction.getHash());
+        if (index < 0) {
+            return false;
+        }
+        // desplazar hacia atras las entradas siguientes que no quedarian accesibles desde su posicion ideal
+        int mask = this.transactions.length - 1;
+        int free = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (this.transactions[next] == null) {
+                break;
+            }
+            int ideal = slotOf(this.keys[next], mask);
+            boolean reachable = free <= next ? free < ideal && ideal <= next : free < ideal || ideal <= next;
+            if (!reachable) {
+                this.keys[free] = this.keys[next];
+                this.transactions[free] = this.transactions[next];
+                free = next;
+            }
+        }
+        this.keys[free] = 0;
+        this.transactions[free] = null;
+        this.size--;
+        return true;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void clear() {
+        this.keys = new long[INITIAL_CAPACITY];
+        this.transactions = new Transaction[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    private int indexOf(byte[] hash) {
+        if (hash == null) {
+            return -1;
+        }
+        long key = keyOf(hash);
+        int mask = this.transactions.length - 1;
+        for (int index = slotOf(key, mask); this.transactions[index] != null; index = (index + 1) & mask) {
+            if (this.keys[index] == key && Arrays.equals(this.transactions[index].getHash(), hash)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long key, Transaction transaction) {
+        int mask = this.transactions.length - 1;
+        int index = slotOf(key, mask);
+        while (this.transactions[index] != null) {
+            index = (index + 1) & mask;
+        }
+        this.keys[index] = key;
+        this.transactions[index] = transaction;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = this.keys;
+        Transaction[] oldTransactions = this.transactions;
+        this.keys = new long[capacity];
+        this.transactions = new Transaction[capacity];
+        for (int i = 0; i < oldTransactions.length; i++) {
+            if (oldTransactions[i] != null) {
+                insert(oldKeys[i], oldTransactions[i]);
+            }
+        }
+    }
+
+    /**
+     * Los hashes son SHA-256, sus primeros bytes ya estan uniformemente distribuidos
+     */
+    private static long keyOf(byte[] hash) {
+        long key = 0;
+        for (int i = 0; i < Math.min(8, hash.length); i++) {
+            key = key << 8 | (hash[i] & 0xff);
+        }
+        return key;
+    }
+
+    private static int slotOf(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.mestichain.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Posicion de una transaccion en la cadena: altura del bloque e indice dentro del bloque
+ */
+@Data
+@AllArgsConstructor
+public class TransactionLocation {
+
+    private int height;
+    private int index;
+}
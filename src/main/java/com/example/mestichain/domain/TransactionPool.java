@@ -1,35 +1,153 @@
 package com.example.mestichain.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
+import org.apache.commons.codec.binary.Base64;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Transacciones pendientes de ser incluidas en un bloque. Ademas del conjunto de transacciones se mantiene un indice
+ * por emisor ordenado por nonce, que permite:
+ * 	- Rechazar en O(1) y sin verificar la firma las transacciones repetidas o con un nonce ya usado
+ * 	- Recorrer las transacciones de cada emisor en el orden en que pueden incluirse en un bloque
+ * La pertenencia al pool se comprueba por el hash de la transaccion ({@link TransactionHashSet}).
+ */
 @Data
 public class TransactionPool {
 
     private Set<Transaction> pool = new HashSet<>();
 
+    //Transacciones de cada emisor (clave publica en Base64) por nonce, en el orden de llegada de los emisores
+    @JsonIgnore
+    private Map<String, NavigableMap<Long, Transaction>> bySender = new LinkedHashMap<>();
+
+    //Transacciones del pool por hash
+    @JsonIgnore
+    private TransactionHashSet hashes = new TransactionHashSet();
+
+    //Tamaño aproximado en bytes de las transacciones del pool
+    @JsonIgnore
+    private final AtomicLong bytes = new AtomicLong();
+
     /**
-     * Añadir una transaccion al pool
+     * Añadir una transaccion al pool. La firma se verifica fuera del bloqueo del pool
      * @param transaction Transaccion a ser añadida
-     * @return true si la transaccion es válida y es añadida al pool
+     * @param signatureCache Firmas ya verificadas
+     * @return true si la transaccion es válida y nueva en el pool
+     */
+    public boolean add(Transaction transaction, SignatureCache signatureCache) {
+        return transaction.isValidTransaction(signatureCache) && insert(transaction);
+    }
+
+    /**
+     * Añadir al pool en una sola operacion un lote de transacciones ya verificadas
+     * @param transactions Transacciones verificadas
+     * @return para cada transaccion, true si es nueva en el pool y false si ya estaba o es una coinbase
      */
-    public synchronized boolean add(Transaction transaction) {
-        if (transaction.isValidTransaction()) {
-            pool.add(transaction);
-            return true;
+    public synchronized List<Boolean> addAll(List<Transaction> transactions) {
+        List<Boolean> added = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            added.add(insert(transaction));
         }
-        return false;
+        return added;
+    }
+
+    private synchronized boolean insert(Transaction transaction) {
+        // una coinbase solo puede ir al principio de un bloque, la crea el minero
+        if (transaction.isCoinbase() || transaction.getSender() == null) {
+            return false;
+        }
+        NavigableMap<Long, Transaction> pending = bySender.computeIfAbsent(senderOf(transaction), key -> new TreeMap<>());
+        if (pending.containsKey(transaction.getNonce()) || !hashes.add(transaction)) {
+            return false;
+        }
+        pending.put(transaction.getNonce(), transaction);
+        pool.add(transaction);
+        bytes.addAndGet(transaction.getByteSize());
+        return true;
     }
 
     /**
-     * Eliminar una transaccion del pool
+     * Motivo por el que una transaccion no puede entrar en el pool, comprobado sin verificar su firma
+     * @param transaction  Transaccion a comprobar
+     * @param accountNonce Siguiente nonce de la cuenta del emisor en la cadena
+     * @return DUPLICATE si ya esta en el pool, NONCE_CONFLICT si hay otra transaccion con el mismo nonce, STALE_NONCE
+     * si el nonce ya se ha usado en la cadena o null si puede añadirse
+     */
+    public synchronized String getConflict(Transaction transaction, long accountNonce) {
+        if (transaction.isCoinbase() || transaction.getSender() == null) {
+            return null;
+        }
+        if (transaction.getNonce() < accountNonce) {
+            return TransactionResult.STALE_NONCE;
+        }
+        NavigableMap<Long, Transaction> pending = bySender.get(senderOf(transaction));
+        Transaction existing = pending != null ? pending.get(transaction.getNonce()) : null;
+        if (existing == null) {
+            return null;
+        }
+        return Arrays.equals(existing.getHash(), transaction.getHash())
+                ? TransactionResult.DUPLICATE : TransactionResult.NONCE_CONFLICT;
+    }
+
+    /**
+     * Eliminar una transaccion del pool al incluirse en la cadena, junto con las del mismo emisor con nonce igual o
+     * menor, que ya no pueden incluirse
      * @param transaction Transaccion a eliminar
      */
-    public void remove(Transaction transaction) {
-        pool.remove(transaction);
+    public synchronized void remove(Transaction transaction) {
+        String sender = senderOf(transaction);
+        NavigableMap<Long, Transaction> pending = bySender.get(sender);
+        if (pending == null) {
+            return;
+        }
+        NavigableMap<Long, Transaction> stale = pending.headMap(transaction.getNonce(), true);
+        for (Transaction removed : stale.values()) {
+            hashes.remove(removed);
+            pool.remove(removed);
+            bytes.addAndGet(-removed.getByteSize());
+        }
+        stale.clear();
+        if (pending.isEmpty()) {
+            bySender.remove(sender);
+        }
+    }
+
+    /**
+     * Copia de las transacciones del pool, para recorrerlas mientras se siguen añadiendo transacciones. Las de cada
+     * emisor aparecen ordenadas por nonce
+     * @return transacciones del pool
+     */
+    public synchronized List<Transaction> snapshot() {
+        List<Transaction> transactions = new ArrayList<>(pool.size());
+        for (NavigableMap<Long, Transaction> pending : bySender.values()) {
+            transactions.addAll(pending.values());
+        }
+        return transactions;
+    }
+
+    /**
+     * Sustituir el contenido del pool sin verificar las transacciones. Solo se usa al leer el pool descargado de otro
+     * nodo, cuyas transacciones se añaden despues con TransactionService.addAll
+     * @param pool Transacciones del pool
+     */
+    public synchronized void setPool(Set<Transaction> pool) {
+        this.pool = new HashSet<>();
+        this.bySender = new LinkedHashMap<>();
+        this.hashes = new TransactionHashSet();
+        this.bytes.set(0);
+        pool.forEach(this::insert);
     }
 
     /**
@@ -37,14 +155,61 @@ public class TransactionPool {
      * @param transaction Lista de transacciones a comprobar
      * @return true si todas las transacciones de la coleccion están en el pool
      */
-    public boolean contains(Collection<Transaction> transaction) {
-        return pool.containsAll(transaction);
+    public synchronized boolean contains(Collection<Transaction> transaction) {
+        for (Transaction t : transaction) {
+            if (!hashes.contains(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Transacciones de una lista que no estan en el pool, comprobadas con un solo bloqueo del pool
+     * @param transactions Lista de transacciones a comprobar
+     * @return transacciones que no estan en el pool, en el mismo orden
+     */
+    public synchronized List<Transaction> getMissing(Collection<Transaction> transactions) {
+        List<Transaction> missing = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            if (!hashes.contains(transaction)) {
+                missing.add(transaction);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Tamaño aproximado en bytes de las transacciones del pool
+     * @return numero de bytes
+     */
+    @JsonIgnore
+    public long getBytes() {
+        return bytes.get();
     }
 
+    /**
+     * Resumen del pool para trazas: numero de transacciones y tamaño
+     */
     @Override
     public String toString() {
-        return "TransactionPool{" +
-                "pool=" + pool.toString() +
-                '}';
+        return "TransactionPool{size=" + pool.size() + ", senders=" + bySender.size() + ", bytes=" + bytes.get() + '}';
+    }
+
+    /**
+     * Volcado completo de las transacciones del pool
+     *
+     * @return texto del pool
+     */
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Transaction transaction : this.pool) {
+            sb.append(transaction.dump()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static String senderOf(Transaction transaction) {
+        return Base64.encodeBase64String(transaction.getSender());
     }
 }
@@ -0,0 +1,18 @@
+package com.example.mestichain.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Transaccion incluida en la cadena junto con su posicion (altura del bloque e indice dentro del bloque)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransactionRecord {
+
+    private int height;
+    private int index;
+    private Transaction transaction;
+}
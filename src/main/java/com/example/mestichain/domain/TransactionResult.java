@@ -0,0 +1,26 @@
+package com.example.mestichain.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de una transaccion enviada en lote: si se acepta y, si no es nueva o se rechaza, el motivo
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransactionResult {
+
+    public static final String DUPLICATE = "duplicate";
+    //El nonce ya se ha usado en la cadena
+    public static final String STALE_NONCE = "stale_nonce";
+    //Hay otra transaccion del mismo emisor con el mismo nonce en el pool
+    public static final String NONCE_CONFLICT = "nonce_conflict";
+    //Las transacciones coinbase solo las crea el minero al principio de un bloque, nunca entran en el pool
+    public static final String COINBASE = "coinbase";
+
+    private byte[] hash;
+    private boolean accepted;
+    private String reason;
+}
@@ -0,0 +1,19 @@
+package com.example.mestichain.events;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.net.URL;
+
+/**
+ * Bloque recibido de otro nodo por el canal entre nodos, pendiente de validar
+ */
+@Data
+@AllArgsConstructor
+public class BlockReceivedEvent {
+
+    //Bloque en JSON, comprimido si el nodo lo ha enviado asi
+    private byte[] body;
+    //Nodo que envia el bloque
+    private URL sender;
+}
@@ -0,0 +1,16 @@
+package com.example.mestichain.events;
+
+import com.example.mestichain.domain.Block;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * La cima de la cadena principal ha cambiado (nuevo bloque, reorganizacion o sincronizacion con otro nodo)
+ */
+@Data
+@AllArgsConstructor
+public class NewTipEvent {
+
+    //Ultimo bloque de la cadena principal, null si la cadena esta vacia
+    private Block tip;
+}
@@ -0,0 +1,15 @@
+package com.example.mestichain.events;
+
+import com.example.mestichain.domain.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Se ha añadido una transaccion valida al pool de transacciones
+ */
+@Data
+@AllArgsConstructor
+public class NewTransactionEvent {
+
+    private Transaction transaction;
+}
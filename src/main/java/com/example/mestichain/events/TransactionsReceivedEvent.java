@@ -0,0 +1,20 @@
+package com.example.mestichain.events;
+
+import com.example.mestichain.domain.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Transacciones recibidas de otro nodo por el canal entre nodos, pendientes de añadir al pool
+ */
+@Data
+@AllArgsConstructor
+public class TransactionsReceivedEvent {
+
+    private List<Transaction> transactions;
+    //Nodo que envia las transacciones
+    private URL sender;
+}
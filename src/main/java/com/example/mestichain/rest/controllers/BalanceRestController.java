@@ -0,0 +1,44 @@
+package com.example.mestichain.rest.controllers;
+
+import com.example.mestichain.domain.AccountBalance;
+import com.example.mestichain.services.BlockService;
+import com.example.mestichain.utils.constants.Path;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@Slf4j
+@RestController
+@RequestMapping(Path.BALANCE)
+public class BalanceRestController {
+
+    private final BlockService blockService;
+
+    @Autowired
+    public BalanceRestController(BlockService blockService) {
+        this.blockService = blockService;
+    }
+
+    /**
+     * Obtener el saldo y el siguiente nonce de una cuenta. Se sirve desde la ultima vista de saldos publicada, por lo que nunca espera
+     * a que termine de aplicarse un bloque.
+     *
+     * @param address clave publica de la cuenta en Base64 (se admite la variante URL-safe)
+     * @return JSON saldo de la cuenta con la altura y el hash del bloque al que corresponde
+     */
+    @GetMapping("/{address}")
+    public AccountBalance getBalance(@PathVariable String address) {
+        var view = blockService.getChainView().getBalanceView();
+        var balance = new AccountBalance();
+        balance.setBalance(view.getBalance(Base64.decodeBase64(address)));
+        balance.setNonce(view.getNonce(Base64.decodeBase64(address)));
+        balance.setHeight(view.getHeight());
+        balance.setBlockHash(view.getBlockHash());
+        balance.setStateRoot(view.getStateTree().getRootHash());
+        return balance;
+    }
+}
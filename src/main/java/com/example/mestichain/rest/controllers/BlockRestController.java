@@ -1,17 +1,24 @@
 package com.example.mestichain.rest.controllers;
 
 import com.example.mestichain.domain.Block;
-import com.example.mestichain.domain.Blockchain;
+import com.example.mestichain.domain.ChainView;
 import com.example.mestichain.services.BlockService;
+import com.example.mestichain.services.BlockPipelineService;
 import com.example.mestichain.services.MinningService;
-import com.example.mestichain.services.NodeService;
+import com.example.mestichain.utils.BlockCodec;
 import com.example.mestichain.utils.constants.Path;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
-import java.util.Base64;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -19,49 +26,145 @@ import java.util.Base64;
 public class BlockRestController {
 
     private final BlockService blockService;
-    private final NodeService nodeService;
+    private final BlockPipelineService blockPipelineService;
     private final MinningService minningService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public BlockRestController(BlockService blockService, NodeService nodeService, MinningService minningService) {
+    public BlockRestController(BlockService blockService, BlockPipelineService blockPipelineService,
+                               MinningService minningService, ObjectMapper objectMapper) {
         this.blockService = blockService;
-        this.nodeService = nodeService;
+        this.blockPipelineService = blockPipelineService;
         this.minningService = minningService;
+        this.objectMapper = objectMapper;
         minningService.start();
     }
 
     /**
      * Obtener la cadena de bloques
      *
-     * @return JSON Lista de bloques
+     * @param acceptEncoding la cadena se envia comprimida si incluye {@link BlockCodec#ENCODING}
+     * @param response       respuesta en la que se escribe la cadena comprimida, codigo 404 si el nodo esta en modo
+     *                       podado y no conserva la cadena completa
+     * @return JSON Lista de bloques, null si se ha escrito comprimida
      */
     @GetMapping()
-    public Blockchain getBlockChain() {
+    public ChainView getBlockChain(@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                   HttpServletResponse response) throws IOException {
         log.info("Obteniendo cadena de bloques");
-        return blockService.getBlockchain();
+        ChainView view = blockService.getChainView();
+        if (blockService.isPruned()) {
+            log.info("Nodo en modo podado, la cadena completa no esta disponible");
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        return compress(view, acceptEncoding, response);
+    }
+
+    /**
+     * Obtener las cabeceras de los bloques de la cadena (sin transacciones)
+     *
+     * @param to altura de la ultima cabecera a obtener
+     * @return JSON Lista de cabeceras desde el bloque genesis
+     */
+    @GetMapping(Path.BLOCK_HEADERS)
+    public List<Block> getHeaders(@RequestParam(defaultValue = "" + Integer.MAX_VALUE) int to) {
+        log.info("Obteniendo cabeceras hasta altura {}", to);
+        return blockService.getHeaders(to);
+    }
+
+    /**
+     * Obtener los bloques completos a partir de una altura
+     *
+     * @param from           altura del primer bloque a obtener
+     * @param acceptEncoding los bloques se envian comprimidos si incluye {@link BlockCodec#ENCODING}
+     * @param response       respuesta en la que se escriben los bloques comprimidos
+     * @return JSON Lista de bloques, null si se han escrito comprimidos o si alguno de los bloques esta podado
+     * (codigo 404)
+     */
+    @GetMapping(Path.BLOCK_RANGE)
+    public List<Block> getBlocks(@RequestParam(defaultValue = "0") int from,
+                                 @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                 HttpServletResponse response) throws IOException {
+        log.info("Obteniendo bloques desde altura {}", from);
+        List<Block> blocks = blockService.getBlocks(from);
+        if (blocks == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        return compress(blocks, acceptEncoding, response);
+    }
+
+    /**
+     * Obtener un bloque por su hash, de la cadena principal o de una rama lateral
+     *
+     * @param hash     hash del bloque en Base64 (se admite la variante URL-safe)
+     * @param response codigo 404 si el bloque no es conocido o solo se conserva su cabecera
+     * @return JSON bloque
+     */
+    @GetMapping("/{hash}")
+    public Block getBlock(@PathVariable String hash, HttpServletResponse response) {
+        var block = blockService.getFullBlock(Base64.decodeBase64(hash));
+        if (block == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return block;
     }
 
     /**
-     * Añadir un bloque a la cadena
+     * Obtener el bloque a una altura dada
      *
-     * @param block     El bloque a ser añadido
+     * @param height   altura del bloque
+     * @param response codigo 404 si no hay bloque a esa altura o solo se conserva su cabecera
+     * @return JSON bloque
+     */
+    @GetMapping(Path.BLOCK_HEIGHT + "/{height}")
+    public Block getBlockAtHeight(@PathVariable int height, HttpServletResponse response) {
+        var block = blockService.getChainView().getBlock(height);
+        if (block == null || block.getTransactions() == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * Añadir un bloque a la cadena. El bloque se encola para validarlo y aplicarlo fuera del hilo de la peticion.
+     *
+     * @param block     El bloque a ser añadido, en JSON o comprimido ({@link BlockCodec})
      * @param propagate Si el bloque debe ser propagado al resto de nodos en la red
-     * @param response  codigo 202 si el bloque es aceptado y añadido, código 406 en caso contrario
+     * @param sender    Nodo que envia el bloque, al que se pediran los bloques anteriores que falten
+     * @param response  codigo 202 si el bloque es encolado, código 503 si las colas de bloques estan llenas
      */
     @PostMapping
-    public void addBlock(@RequestBody Block block, @RequestParam(required = false) Boolean propagate,
-                    HttpServletResponse response) throws Exception {
-        log.info("Añadiendo bloque: {}", Base64.getEncoder().encodeToString(block.getHash()));
-        if (blockService.add(block)) {
+    public void addBlock(@RequestBody byte[] block, @RequestParam(required = false) Boolean propagate,
+                         @RequestHeader(value = Path.NODE_HEADER, required = false) URL sender,
+                         HttpServletResponse response) {
+        if (blockPipelineService.submit(block, sender, propagate != null && propagate)) {
             response.setStatus(HttpServletResponse.SC_ACCEPTED);
-
-            if (propagate != null && propagate) {
-                nodeService.broadcast(Path.BLOCK, block);
-            }
         } else {
-            log.info("Bloque rechazado: {}", Base64.getEncoder().encodeToString(block.getHash()));
-            response.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
+            log.info("Bloque no encolado, colas llenas");
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         }
+    }
 
+    /**
+     * Escribir la respuesta comprimida si el nodo que la pide admite el formato
+     *
+     * @param body           contenido de la respuesta
+     * @param acceptEncoding cabecera Accept-Encoding de la peticion
+     * @param response       respuesta
+     * @return el contenido si se debe enviar en JSON, null si ya se ha escrito comprimido
+     */
+    private <T> T compress(T body, String acceptEncoding, HttpServletResponse response) throws IOException {
+        if (!BlockCodec.isAccepted(acceptEncoding)) {
+            return body;
+        }
+        byte[] compressed = BlockCodec.compress(objectMapper.writeValueAsBytes(body));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, BlockCodec.ENCODING);
+        response.setContentLength(compressed.length);
+        response.getOutputStream().write(compressed);
+        return null;
     }
 }
@@ -0,0 +1,74 @@
+package com.example.mestichain.rest.controllers;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.services.BlockService;
+import com.example.mestichain.services.TransactionService;
+import com.example.mestichain.utils.constants.Path;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Volcados completos en texto para diagnostico. Las trazas solo muestran resumenes; el detalle se pide aqui bajo
+ * demanda.
+ */
+@Slf4j
+@RestController
+@RequestMapping(value = Path.DEBUG, produces = MediaType.TEXT_PLAIN_VALUE)
+public class DebugRestController {
+
+    private final BlockService blockService;
+    private final TransactionService transactionService;
+
+    @Autowired
+    public DebugRestController(BlockService blockService, TransactionService transactionService) {
+        this.blockService = blockService;
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * Volcado completo de un bloque de la cadena principal con todas sus transacciones
+     *
+     * @param hash hash del bloque en Base64 (se admite la variante URL-safe)
+     * @return texto del bloque o 404 si no esta en la cadena
+     */
+    @GetMapping(Path.BLOCK + "/{hash}")
+    public String dumpBlock(@PathVariable String hash, HttpServletResponse response) {
+        log.info("Volcado del bloque {}", hash);
+        Block block = blockService.getChainView().getBlock(Base64.decodeBase64(hash));
+        if (block == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        return block.dump();
+    }
+
+    /**
+     * Volcado completo de las transacciones del pool
+     *
+     * @return texto del pool
+     */
+    @GetMapping(Path.TRANSACTION)
+    public String dumpTransactionPool() {
+        log.info("Volcado del pool de transacciones");
+        return transactionService.getTransactionPool().dump();
+    }
+
+    /**
+     * Volcado de la tabla de saldos de la ultima vista publicada
+     *
+     * @return texto de la tabla de saldos
+     */
+    @GetMapping(Path.BALANCE)
+    public String dumpBalances() {
+        log.info("Volcado de saldos");
+        return blockService.getChainView().getBalances().dump();
+    }
+}
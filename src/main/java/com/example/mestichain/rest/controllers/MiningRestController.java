@@ -0,0 +1,58 @@
+package com.example.mestichain.rest.controllers;
+
+import com.example.mestichain.domain.MiningShare;
+import com.example.mestichain.domain.MiningWork;
+import com.example.mestichain.services.MinningService;
+import com.example.mestichain.utils.constants.Path;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+
+@Slf4j
+@RestController
+@RequestMapping(Path.MINING)
+public class MiningRestController {
+
+    private static final long MAX_NONCE_RANGE = 1L << 32;
+
+    private final MinningService minningService;
+
+    @Autowired
+    public MiningRestController(MinningService minningService) {
+        this.minningService = minningService;
+    }
+
+    /**
+     * Obtener trabajo para un minero externo
+     *
+     * @param size     numero de nonces a reservar
+     * @param response codigo 503 si no se puede preparar una plantilla de bloque
+     * @return JSON cabecera de la plantilla de bloque y rango de nonces a probar
+     */
+    @GetMapping(Path.MINING_WORK)
+    public MiningWork getWork(@RequestParam(defaultValue = "1000000") long size, HttpServletResponse response) {
+        var work = minningService.getWork(Math.max(1, Math.min(size, MAX_NONCE_RANGE)));
+        if (work == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        return work;
+    }
+
+    /**
+     * Enviar la solucion a un trabajo
+     *
+     * @param share    identificador del trabajo y nonce solucion
+     * @param response codigo 202 si el bloque es aceptado y añadido, código 406 en caso contrario
+     */
+    @PostMapping(Path.MINING_SHARE)
+    public void submitShare(@RequestBody MiningShare share, HttpServletResponse response) {
+        log.info("Solucion recibida para el trabajo {}: nonce {}", share.getWorkId(), share.getNonce());
+        if (minningService.submitShare(share)) {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        } else {
+            response.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.mestichain.rest.controllers;
 
+import com.example.mestichain.domain.PeerStats;
 import com.example.mestichain.services.NodeService;
 import com.example.mestichain.utils.constants.Path;
 import lombok.extern.slf4j.Slf4j;
@@ -8,6 +9,7 @@ import org.springframework.web.bind.annotation.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.net.URL;
+import java.util.Collection;
 import java.util.Set;
 
 
@@ -36,6 +38,17 @@ public class NodeRestController {
         return parentNodes;
     }
 
+    /**
+     * Obtener las medidas de los nodos vecinos: RTT, tasa de fallos y bytes servidos
+     *
+     * @return JSON lista de medidas por vecino
+     */
+    @GetMapping(Path.NODE_PEERS)
+    public Collection<PeerStats> getPeerStats() {
+        log.info("Obteniendo medidas de los nodos vecinos");
+        return nodeService.getPeerService().getStats();
+    }
+
     /**
      * Dar de alta un nodo en la red
      *
@@ -0,0 +1,77 @@
+package com.example.mestichain.rest.controllers;
+
+import com.example.mestichain.domain.SnapshotChunk;
+import com.example.mestichain.domain.SnapshotManifest;
+import com.example.mestichain.services.SnapshotService;
+import com.example.mestichain.utils.constants.Path;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+
+@Slf4j
+@RestController
+@RequestMapping(Path.SNAPSHOT)
+public class SnapshotRestController {
+
+    private final SnapshotService snapshotService;
+
+    @Autowired
+    public SnapshotRestController(SnapshotService snapshotService) {
+        this.snapshotService = snapshotService;
+    }
+
+    /**
+     * Obtener el manifiesto de la instantanea de estado mas reciente
+     *
+     * @param response codigo 204 si el nodo no dispone de instantaneas
+     * @return JSON manifiesto de la instantanea
+     */
+    @GetMapping
+    public SnapshotManifest getLatestManifest(HttpServletResponse response) {
+        log.info("Obteniendo ultima instantanea de estado");
+        var manifest = snapshotService.getLatestManifest();
+        if (manifest == null) {
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+        return manifest;
+    }
+
+    /**
+     * Obtener el manifiesto de la instantanea de estado a una altura dada
+     *
+     * @param height   altura de la instantanea
+     * @param response codigo 404 si no hay instantanea a esa altura
+     * @return JSON manifiesto de la instantanea
+     */
+    @GetMapping("/{height}")
+    public SnapshotManifest getManifest(@PathVariable int height, HttpServletResponse response) {
+        log.info("Obteniendo instantanea de estado a altura {}", height);
+        var manifest = snapshotService.getManifest(height);
+        if (manifest == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return manifest;
+    }
+
+    /**
+     * Obtener un fragmento de la instantanea de estado a una altura dada
+     *
+     * @param height   altura de la instantanea
+     * @param index    indice del fragmento
+     * @param response codigo 404 si el fragmento no existe
+     * @return JSON fragmento con las cuentas y sus saldos
+     */
+    @GetMapping("/{height}" + Path.SNAPSHOT_CHUNK + "/{index}")
+    public SnapshotChunk getChunk(@PathVariable int height, @PathVariable int index, HttpServletResponse response) {
+        var chunk = snapshotService.getChunk(height, index);
+        if (chunk == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return chunk;
+    }
+}
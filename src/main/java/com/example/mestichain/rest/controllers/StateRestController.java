@@ -0,0 +1,47 @@
+package com.example.mestichain.rest.controllers;
+
+import com.example.mestichain.domain.StateProof;
+import com.example.mestichain.services.BlockService;
+import com.example.mestichain.utils.constants.Path;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@Slf4j
+@RestController
+@RequestMapping(Path.STATE)
+public class StateRestController {
+
+    private final BlockService blockService;
+
+    @Autowired
+    public StateRestController(BlockService blockService) {
+        this.blockService = blockService;
+    }
+
+    /**
+     * Obtener la raiz de estado actual (raiz del arbol de saldos)
+     *
+     * @return raiz de estado en Base64
+     */
+    @GetMapping
+    public String getStateRoot() {
+        return Base64.encodeBase64String(blockService.getChainView().getBalanceView().getStateTree().getRootHash());
+    }
+
+    /**
+     * Obtener la prueba de Merkle del saldo de una cuenta
+     *
+     * @param address clave publica de la cuenta en Base64 (se admite la variante URL-safe)
+     * @return JSON prueba verificable contra la raiz de estado
+     */
+    @GetMapping(Path.STATE_PROOF + "/{address}")
+    public StateProof getProof(@PathVariable String address) {
+        log.info("Obteniendo prueba de saldo para cuenta {}", address.substring(0, Math.min(20, address.length())));
+        return blockService.getChainView().getBalanceView().getStateTree().getProof(Base64.decodeBase64(address));
+    }
+}
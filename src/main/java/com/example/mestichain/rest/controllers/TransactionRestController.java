@@ -1,17 +1,29 @@
 package com.example.mestichain.rest.controllers;
 
+import com.example.mestichain.domain.AddressHistoryPage;
 import com.example.mestichain.domain.Transaction;
 import com.example.mestichain.domain.TransactionPool;
+import com.example.mestichain.domain.TransactionResult;
+import com.example.mestichain.services.BlockService;
 import com.example.mestichain.services.NodeService;
 import com.example.mestichain.services.TransactionService;
 import com.example.mestichain.utils.constants.Path;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 
 @Slf4j
@@ -19,13 +31,20 @@ import javax.servlet.http.HttpServletResponse;
 @RequestMapping(Path.TRANSACTION)
 public class TransactionRestController {
 
+    private static final int MAX_PAGE_SIZE = 100;
+
     private final TransactionService transactionService;
     private final NodeService nodeService;
+    private final BlockService blockService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public TransactionRestController(TransactionService transactionService, NodeService nodeService) {
+    public TransactionRestController(TransactionService transactionService, NodeService nodeService, BlockService blockService,
+                                     ObjectMapper objectMapper) {
         this.transactionService = transactionService;
         this.nodeService = nodeService;
+        this.blockService = blockService;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -41,30 +60,131 @@ public class TransactionRestController {
         return transactionPool;
     }
 
+    /**
+     * Obtener el historial paginado de transacciones de una cuenta, de la mas reciente a la mas antigua
+     *
+     * @param address clave publica de la cuenta en Base64 (se admite la variante URL-safe)
+     * @param page    numero de pagina empezando en 0
+     * @param size    tamaño de la pagina (maximo MAX_PAGE_SIZE)
+     * @return JSON pagina de transacciones con su posicion en la cadena
+     */
+    @GetMapping(Path.TRANSACTION_ADDRESS + "/{address}")
+    public AddressHistoryPage getAddressHistory(@PathVariable String address, @RequestParam(defaultValue = "0") int page,
+                                                @RequestParam(defaultValue = "20") int size) {
+        return blockService.getChainView().getAddressHistory(Base64.decodeBase64(address), page,
+                Math.min(Math.max(size, 1), MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Obtener una transaccion incluida en la cadena por su hash
+     *
+     * @param hash     hash de la transaccion en Base64 (se admite la variante URL-safe)
+     * @param response codigo 404 si la transaccion no esta en la cadena
+     * @return JSON transaccion
+     */
+    @GetMapping("/{hash}")
+    public Transaction getTransaction(@PathVariable String hash, HttpServletResponse response) {
+        var transaction = blockService.getChainView().getTransaction(Base64.decodeBase64(hash));
+        if (transaction == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return transaction;
+    }
+
     /**
      * Añadir una transaccion al pool
      *
      * @param transaction Transaccion a ser añadida
      * @param propagate   si la transacción debe ser propaga a otros nodos en la red
+     * @param sender      Nodo que envia la transaccion, al que no se le reenvia
      * @param response    código 202 si la transacción es añadida al pool, 406 en otro caso
      */
     @PostMapping
     public void addTransaction(@RequestBody Transaction transaction, @RequestParam(required = false) Boolean propagate,
+                               @RequestHeader(value = Path.NODE_HEADER, required = false) URL sender,
                                HttpServletResponse response) {
-        log.info("Añadiendo transaccion al pool: {}", Base64.encodeBase64String(transaction.getHash()));
+        log.debug("Añadiendo transaccion al pool: {}", transaction);
         boolean result = transactionService.add(transaction);
 
         if (result) {
-            log.info("Transaccion añadida al pool: {}", Base64.encodeBase64String(transaction.getHash()));
+            log.debug("Transaccion añadida al pool: {}", transaction);
             response.setStatus(HttpServletResponse.SC_ACCEPTED);
 
             if (propagate != null && propagate) {
-                nodeService.broadcast(Path.TRANSACTION, transaction);
+                nodeService.relay(Path.TRANSACTION, transaction, sender);
             }
         } else {
-            log.info("Transaccion invalida, no añadida al pool: {}", Base64.encodeBase64String(transaction.getHash()));
+            log.info("Transaccion invalida, no añadida al pool: {}", transaction);
             response.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
         }
     }
 
+    /**
+     * Añadir un lote de transacciones al pool a partir de un array JSON
+     *
+     * @param transactions Transacciones a ser añadidas
+     * @param propagate    si las transacciones aceptadas deben propagarse a otros nodos en la red (en un solo lote)
+     * @param sender       Nodo que envia el lote, al que no se le reenvia
+     * @param response     código 202 si alguna transacción es nueva en el pool, 406 si ninguna lo es, 413 si el lote
+     *                     supera el tamaño maximo
+     * @return JSON resultado de cada transaccion en el orden del lote
+     */
+    @PostMapping(value = Path.TRANSACTION_BATCH, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public List<TransactionResult> addTransactions(@RequestBody List<Transaction> transactions,
+                                                   @RequestParam(required = false) Boolean propagate,
+                                                   @RequestHeader(value = Path.NODE_HEADER, required = false) URL sender,
+                                                   HttpServletResponse response) {
+        if (transactions.size() > transactionService.getMaxTransactionsPerBatch()) {
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return null;
+        }
+        return addBatch(transactions, propagate, sender, response);
+    }
+
+    /**
+     * Añadir un lote de transacciones al pool a partir de un flujo NDJSON (una transaccion por linea)
+     *
+     * @param request   peticion con el flujo de transacciones
+     * @param propagate si las transacciones aceptadas deben propagarse a otros nodos en la red (en un solo lote)
+     * @param sender    Nodo que envia el lote, al que no se le reenvia
+     * @param response  código 202 si alguna transacción es nueva en el pool, 406 si ninguna lo es, 400 si alguna linea
+     *                  no es una transaccion, 413 si el lote supera el tamaño maximo
+     * @return JSON resultado de cada transaccion en el orden del flujo
+     */
+    @PostMapping(value = Path.TRANSACTION_BATCH, consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public List<TransactionResult> addTransactionStream(HttpServletRequest request,
+                                                        @RequestParam(required = false) Boolean propagate,
+                                                        @RequestHeader(value = Path.NODE_HEADER, required = false) URL sender,
+                                                        HttpServletResponse response) throws IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        try (MappingIterator<Transaction> iterator = objectMapper.readerFor(Transaction.class)
+                .readValues(request.getInputStream())) {
+            while (iterator.hasNextValue()) {
+                if (transactions.size() == transactionService.getMaxTransactionsPerBatch()) {
+                    response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    return null;
+                }
+                transactions.add(iterator.nextValue());
+            }
+        } catch (JsonProcessingException e) {
+            log.info("Lote de transacciones con formato invalido: {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return null;
+        }
+        return addBatch(transactions, propagate, sender, response);
+    }
+
+    private List<TransactionResult> addBatch(List<Transaction> transactions, Boolean propagate, URL sender,
+                                             HttpServletResponse response) {
+        List<TransactionResult> results = transactionService.addAll(transactions);
+
+        List<Transaction> accepted = transactionService.getNew(transactions, results);
+        response.setStatus(accepted.isEmpty() ? HttpServletResponse.SC_NOT_ACCEPTABLE : HttpServletResponse.SC_ACCEPTED);
+
+        if (propagate != null && propagate && !accepted.isEmpty()) {
+            nodeService.relay(Path.TRANSACTION + Path.TRANSACTION_BATCH, accepted, sender);
+        }
+        return results;
+    }
+
 }
@@ -0,0 +1,162 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.events.BlockReceivedEvent;
+import com.example.mestichain.utils.BlockCodec;
+import com.example.mestichain.utils.constants.MetricName;
+import com.example.mestichain.utils.constants.Path;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Procesado de los bloques recibidos de otros nodos fuera de los hilos de la API, en etapas:
+ * 	- Decodificacion y validaciones independientes del estado de la cadena (prueba de trabajo, merkle, firmas), en
+ * 	  paralelo en un pool de hilos
+ * 	- Aplicacion a la cadena, en un unico hilo y en el orden de llegada de los bloques
+ * Las colas de las dos etapas estan acotadas: si alguna esta llena el bloque se rechaza y el nodo que lo envia
+ * puede reintentarlo mas tarde.
+ */
+@Slf4j
+@Service
+public class BlockPipelineService {
+
+    private final BlockService blockService;
+    private final NodeService nodeService;
+    private final ObjectMapper objectMapper;
+
+    private final ThreadPoolExecutor validationExecutor;
+    private final ThreadPoolExecutor applyExecutor;
+
+    @Autowired
+    public BlockPipelineService(BlockService blockService, NodeService nodeService, ObjectMapper objectMapper,
+                                @Value("${blockValidationThreads}") int validationThreads,
+                                @Value("${blockQueueSize}") int queueSize) {
+        this.blockService = blockService;
+        this.nodeService = nodeService;
+        this.objectMapper = objectMapper;
+        this.validationExecutor = new ThreadPoolExecutor(validationThreads, validationThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("block-validation-%d").build());
+        this.applyExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("block-apply-%d").build());
+        Metrics.gauge(MetricName.BLOCK_QUEUED, this, BlockPipelineService::getQueuedBlocks);
+    }
+
+    /**
+     * Encolar un bloque recibido
+     *
+     * @param body      bloque en JSON
+     * @param sender    Nodo que envia el bloque (puede ser null)
+     * @param propagate Si el bloque debe ser propagado al resto de nodos una vez añadido
+     * @return true si el bloque ha sido encolado, false si las colas estan llenas
+     */
+    public boolean submit(byte[] body, URL sender, boolean propagate) {
+        CompletableFuture<Block> validated;
+        try {
+            validated = CompletableFuture.supplyAsync(() -> validate(body), this.validationExecutor);
+        } catch (RejectedExecutionException e) {
+            log.warn("Cola de validacion de bloques llena");
+            BlockService.reject("queue_full");
+            return false;
+        }
+        try {
+            // la etapa de aplicacion espera a cada bloque en el orden en que se encolaron
+            this.applyExecutor.execute(() -> apply(validated.join(), sender, propagate));
+        } catch (RejectedExecutionException e) {
+            validated.cancel(false);
+            log.warn("Cola de aplicacion de bloques llena");
+            BlockService.reject("queue_full");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Bloque recibido por el canal entre nodos: se encola y, si es nuevo, se reenvia al resto de vecinos
+     *
+     * @param event evento con el bloque en JSON y el nodo que lo envia
+     */
+    @EventListener
+    public void onBlockReceived(BlockReceivedEvent event) {
+        submit(event.getBody(), event.getSender(), true);
+    }
+
+    /**
+     * Numero de bloques esperando en las colas del pipeline
+     *
+     * @return bloques pendientes de validar o de aplicar
+     */
+    public int getQueuedBlocks() {
+        return this.validationExecutor.getQueue().size() + this.applyExecutor.getQueue().size();
+    }
+
+    /**
+     * Etapa de validacion: decodificar el bloque y hacer las validaciones independientes del estado de la cadena
+     *
+     * @param body bloque en JSON, comprimido o no ({@link BlockCodec})
+     * @return Bloque valido o null si no se puede decodificar, no es valido o falla la validacion. No lanza
+     * excepciones: la etapa de aplicacion espera al resultado y un fallo la dejaria sin registro ni metrica
+     */
+    private Block validate(byte[] body) {
+        Block block;
+        try {
+            block = this.objectMapper.readValue(BlockCodec.decode(body, BlockCodec.MAX_BLOCK_SIZE), Block.class);
+        } catch (Exception e) {
+            log.info("Bloque recibido con formato invalido", e);
+            BlockService.reject("malformed");
+            return null;
+        }
+        try {
+            if (!this.blockService.validateStateless(block)) {
+                log.info("Bloque rechazado: {}", block);
+                return null;
+            }
+        } catch (RuntimeException e) {
+            log.error("Error validando el bloque {}", block, e);
+            BlockService.reject("validation_error");
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * Etapa de aplicacion: añadir a la cadena un bloque ya validado y propagarlo. Un bloque ya conocido no se
+     * propaga, por lo que cada nodo reenvia cada bloque una sola vez
+     *
+     * @param block     Bloque validado, null si no paso la validacion
+     * @param sender    Nodo que envio el bloque, al que no se le reenvia
+     * @param propagate Si el bloque debe ser propagado
+     */
+    private void apply(Block block, URL sender, boolean propagate) {
+        if (block == null) {
+            return;
+        }
+        try {
+            if (this.blockService.add(block, sender, true) && propagate) {
+                this.nodeService.relay(Path.BLOCK, block, sender);
+            }
+        } catch (Exception e) {
+            log.info("Bloque rechazado: {}", block, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.validationExecutor.shutdownNow();
+        this.applyExecutor.shutdownNow();
+    }
+}
@@ -1,69 +1,570 @@
 package com.example.mestichain.services;
 
 import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.BlockTree;
 import com.example.mestichain.domain.Blockchain;
+import com.example.mestichain.domain.ChainView;
+import com.example.mestichain.domain.OrphanPool;
+import com.example.mestichain.domain.RecordBalances;
+import com.example.mestichain.domain.SnapshotManifest;
+import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.events.NewTipEvent;
+import com.example.mestichain.utils.DifficultyUtils;
+import com.example.mestichain.utils.constants.MetricName;
 import com.example.mestichain.utils.constants.Path;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.math.BigInteger;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 @Data
 public class BlockService {
 
+    //Numero de bloques anteriores cuya mediana de timestamps debe superar el timestamp de un bloque nuevo
+    private static final int MEDIAN_TIME_SPAN = 11;
+
     private final TransactionService transactionService;
-    private Blockchain blockchain = new Blockchain();
+    private final SnapshotService snapshotService;
+    //Vecinos conocidos: solo se piden bloques a ellos
+    private final PeerService peerService;
+    //Cadena principal: solo se modifica con el bloqueo de escritura chainLock adquirido
+    private volatile Blockchain blockchain = new Blockchain();
+    //Ultima vista publicada de la cadena principal, para lecturas sin bloqueo
+    private volatile ChainView chainView = ChainView.EMPTY;
+    //Bloqueo de escritura de la cadena: un unico escritor a la vez (no reentrante)
+    private final StampedLock chainLock = new StampedLock();
+    //Todos los bloques conocidos, incluidas las ramas laterales
+    private final BlockTree blockTree = new BlockTree();
+    //Bloques recibidos antes que su bloque anterior
+    private OrphanPool orphanPool;
+    //Bloques anteriores pedidos a otros nodos y pendientes de respuesta
+    private final Set<String> requestedParents = ConcurrentHashMap.newKeySet();
+    private final ExecutorService parentFetcher = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("parent-fetcher-%d").build());
+    private RestTemplate restTemplate = new RestTemplate();
+    //Publicacion de eventos de la cadena (nueva cima)
+    private final ApplicationEventPublisher eventPublisher;
 
     @Value("${maxTransactionsPerBlock}")
     private int maxTransactionsPerBlock;
+    //Dificultad inicial: numero de bytes a cero al principio del hash de los primeros bloques
     @Value("${difficulty}")
     private int difficulty;
+    //Numero de bloques entre reajustes del objetivo de la prueba de trabajo
+    @Value("${retargetInterval}")
+    private int retargetInterval;
+    //Tiempo esperado entre bloques (ms)
+    @Value("${targetBlockTime}")
+    private long targetBlockTime;
+    @Value("${maxReorgDepth}")
+    private int maxReorgDepth;
+    //Adelanto maximo (ms) del timestamp de un bloque respecto al reloj del nodo
+    @Value("${maxFutureBlockTime}")
+    private long maxFutureBlockTime;
+    //Numero de bloques recientes que conservan su contenido; 0 para conservar toda la historia
+    @Value("${pruneDepth}")
+    private int pruneDepth;
 
     @Autowired
-    public BlockService(TransactionService transactionService) {
+    public BlockService(TransactionService transactionService, SnapshotService snapshotService,
+                        PeerService peerService, ApplicationEventPublisher eventPublisher,
+                        @Value("${maxOrphanBlocks}") int maxOrphanBlocks) {
         this.transactionService = transactionService;
+        this.snapshotService = snapshotService;
+        this.peerService = peerService;
+        this.eventPublisher = eventPublisher;
+        this.orphanPool = new OrphanPool(maxOrphanBlocks);
+        // comprobacion de nonces del pool contra la ultima vista publicada: la cadena puede estar a medio modificar
+        this.transactionService.setAccountNonces(address -> this.chainView.getBalanceView().getNonce(address));
+        Metrics.gauge(MetricName.CHAIN_HEIGHT, this, service -> service.getChainView().getSize() - 1);
     }
 
     /**
-     * Añadir un bloque a la cadena
+     * Añadir un bloque generado o recibido sin conocer el nodo que lo envia
      *
      * @param block Bloque a ser añadido
-     * @return true si el bloque pasa la validacion y es añadida a la cadena
+     * @return true si el bloque pasa la validacion y es añadido, false si el bloque ya era conocido
      */
-    public synchronized boolean add(Block block) throws Exception {
-        if (validate(block)) {
-            this.blockchain.add(block);
-            //eliminar las transacciones incluidas en el bloque del pool de transacciones
-            block.getTransactions().forEach(transactionService::remove);
+    public boolean add(Block block) throws Exception {
+        return add(block, null);
+    }
+
+    /**
+     * Añadir un bloque. Si extiende la cadena principal se añade a ella; si extiende otra rama se guarda en el arbol
+     * de bloques y, si esa rama pasa a tener mas trabajo acumulado que la cadena principal, se reorganiza la cadena.
+     * Si el bloque anterior no es conocido, el bloque se guarda como huerfano y se pide el bloque anterior al nodo
+     * que lo envio. Al conectar un bloque se conectan tambien los huerfanos que dependian de el.
+     *
+     * @param block  Bloque a ser añadido
+     * @param sender Nodo que envia el bloque (puede ser null)
+     * @return true si el bloque pasa la validacion y es añadido, false si el bloque ya era conocido
+     */
+    public boolean add(Block block, URL sender) throws Exception {
+        return add(block, sender, false);
+    }
+
+    /**
+     * Añadir un bloque cuyas validaciones independientes del estado de la cadena pueden haberse hecho ya
+     * (por ejemplo en la etapa de validacion en paralelo de {@link BlockPipelineService})
+     *
+     * @param block    Bloque a ser añadido
+     * @param sender   Nodo que envia el bloque (puede ser null)
+     * @param verified true si el bloque ya ha pasado {@link #validateStateless(Block)}
+     * @return true si el bloque pasa la validacion y es añadido, false si el bloque ya era conocido
+     */
+    public boolean add(Block block, URL sender, boolean verified) throws Exception {
+        Timer.Sample sample = Timer.start();
+        String result = "rejected";
+        ChainView published = null;
+        long stamp = this.chainLock.writeLock();
+        try {
+            Block tip = this.blockchain.getLastBlock();
+            try {
+                boolean added = connect(block, sender, verified);
+                if (added && this.blockTree.contains(block.getHash())) {
+                    connectOrphans(block, sender);
+                }
+                result = added ? "added" : "known";
+                return added;
+            } finally {
+                if (this.blockchain.getLastBlock() != tip) {
+                    published = publishView();
+                }
+            }
+        } finally {
+            this.chainLock.unlockWrite(stamp);
+            sample.stop(Metrics.timer(MetricName.BLOCK_ADD, MetricName.TAG_RESULT, result));
+            publishTip(published);
+        }
+    }
+
+    /**
+     * Contabilizar un bloque rechazado
+     *
+     * @param reason motivo del rechazo
+     */
+    public static void reject(String reason) {
+        Metrics.counter(MetricName.BLOCK_REJECTED, MetricName.TAG_REASON, reason).increment();
+    }
+
+    /**
+     * Publicar una vista inmutable de la cadena principal tal y como queda tras una modificacion completa.
+     * Se llama con el bloqueo de escritura adquirido.
+     *
+     * @return vista publicada
+     */
+    private ChainView publishView() {
+        Block lastBlock = this.blockchain.getLastBlock();
+        ChainView view = this.blockchain.createView(
+                getNextTarget(lastBlock != null ? this.blockTree.get(lastBlock.getHash()) : null));
+        this.chainView = view;
+        return view;
+    }
+
+    /**
+     * Notificar que la cima de la cadena principal ha cambiado. Se llama tras liberar el bloqueo de escritura para
+     * que los suscriptores no alarguen la aplicacion de bloques.
+     *
+     * @param view vista publicada, null si la cima no ha cambiado
+     */
+    private void publishTip(ChainView view) {
+        if (view != null) {
+            this.eventPublisher.publishEvent(new NewTipEvent(view.getLastBlock()));
+        }
+    }
+
+    /**
+     * Conectar recursivamente los bloques huerfanos que descienden de un bloque recien conectado
+     *
+     * @param block  Bloque conectado
+     * @param sender Nodo que envio el bloque
+     */
+    private void connectOrphans(Block block, URL sender) {
+        LinkedList<Block> parents = new LinkedList<>();
+        parents.add(block);
+        while (!parents.isEmpty()) {
+            for (Block child : this.orphanPool.removeChildren(parents.poll().getHash())) {
+                try {
+                    // los huerfanos se validaron al guardarlos
+                    if (connect(child, sender, true)) {
+                        log.info("Bloque huerfano conectado: {}", child);
+                        parents.add(child);
+                    }
+                } catch (Exception e) {
+                    log.error("El bloque huerfano no puede ser conectado: {}", child, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pedir de forma asincrona un bloque anterior desconocido al nodo que envio su bloque hijo. La url del nodo la
+     * indica quien envia el bloque, por lo que solo se hace la peticion si es un vecino dado de alta
+     *
+     * @param sender Nodo al que pedir el bloque
+     * @param hash   hash del bloque anterior
+     */
+    private void requestParent(URL sender, byte[] hash) {
+        String key = Base64.encodeBase64String(hash);
+        if (!this.peerService.contains(sender)) {
+            log.info("El nodo {} no es un vecino conocido, no se le pide el bloque anterior {}", sender, key);
+            return;
+        }
+        if (!this.requestedParents.add(key)) {
+            return;
+        }
+        this.parentFetcher.execute(() -> {
+            try {
+                Block parent = restTemplate.getForObject(sender.toString() + Path.BLOCK + "/"
+                        + Base64.encodeBase64URLSafeString(hash), Block.class);
+                if (parent != null) {
+                    add(parent, sender);
+                }
+            } catch (Exception e) {
+                log.error("Error obteniendo el bloque anterior {} del nodo {}", key, sender, e);
+            } finally {
+                this.requestedParents.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Conectar un bloque a la cadena principal o al arbol de bloques
+     *
+     * @param block    Bloque a ser añadido
+     * @param sender   Nodo que envia el bloque
+     * @param verified true si el bloque ya ha pasado las validaciones independientes del estado de la cadena
+     * @return true si el bloque es añadido o guardado como huerfano, false si el bloque ya era conocido
+     */
+    private boolean connect(Block block, URL sender, boolean verified) throws Exception {
+        if (this.blockTree.contains(block.getHash()) || this.blockchain.contains(block.getHash())
+                || this.orphanPool.contains(block.getHash())) {
+            log.debug("Bloque ya conocido: {}", block);
+            return false;
+        }
+
+        Block lastBlock = this.blockchain.getLastBlock();
+        boolean extendsTip = lastBlock == null ? block.getPreviousHash() == null
+                : Arrays.equals(block.getPreviousHash(), lastBlock.getHash());
+        if (extendsTip) {
+            if ((!verified && !validateStateless(block)) || !validateTarget(block) || !validateTimestamp(block)) {
+                throw new Exception("El bloque no puede ser añadido a la cadena");
+            }
+            try {
+                this.blockchain.add(block);
+            } catch (Exception e) {
+                reject("invalid_state");
+                throw e;
+            }
+            this.blockTree.add(block, getWork(block));
+            onBlockConnected(block);
             return true;
-        } else {
+        }
+
+        // el bloque extiende una rama lateral
+        if (!verified && !validateStateless(block)) {
+            throw new Exception("El bloque no puede ser añadido a la cadena");
+        }
+        if (block.getPreviousHash() != null && !this.blockTree.contains(block.getPreviousHash())) {
+            log.info("Bloque anterior desconocido, guardando bloque huerfano: {}", block);
+            this.orphanPool.add(block);
+            requestParent(sender, block.getPreviousHash());
+            return true;
+        }
+        if (!validateTarget(block) || !validateTimestamp(block)) {
             throw new Exception("El bloque no puede ser añadido a la cadena");
         }
+        BlockTree.BlockNode node = this.blockTree.add(block, getWork(block));
+        BlockTree.BlockNode tip = this.blockTree.get(lastBlock.getHash());
+        if (!node.isInvalid() && node.getCumulativeWork().compareTo(tip.getCumulativeWork()) > 0) {
+            reorganize(node);
+        } else {
+            log.info("Bloque añadido a rama lateral a altura {}", node.getHeight());
+        }
+        return true;
     }
 
+    /**
+     * Cambiar la cadena principal a la rama que termina en un nodo dado. Se deshacen los bloques de la cadena
+     * principal posteriores al punto de bifurcacion y se aplican los de la rama, por lo que el coste depende de la
+     * profundidad de la reorganizacion y no de la longitud de la cadena. La rama se comprueba antes de modificar la
+     * cadena: si algun bloque no se puede aplicar, la cadena y las instantaneas quedan como estaban.
+     *
+     * @param newTip ultimo bloque de la rama con mas trabajo acumulado
+     */
+    private void reorganize(BlockTree.BlockNode newTip) throws Exception {
+        // bloques de la rama desde el punto de bifurcacion hasta la nueva punta
+        LinkedList<Block> branch = new LinkedList<>();
+        BlockTree.BlockNode node = newTip;
+        while (node != null && !this.blockchain.contains(node.getBlock().getHash())) {
+            if (node.isInvalid()) {
+                log.info("La rama contiene un bloque invalido, se descarta la reorganizacion");
+                return;
+            }
+            branch.addFirst(node.getBlock());
+            node = node.getParent();
+        }
+        if (node == null && !branch.isEmpty() && branch.getFirst().getPreviousHash() != null) {
+            log.error("La rama no enlaza con ningun bloque conocido");
+            return;
+        }
+        int forkHeight = node != null ? node.getHeight() : -1;
+        int depth = this.blockchain.getSize() - 1 - forkHeight;
+        if (!this.blockchain.canUndo(depth)) {
+            log.error("Reorganizacion de profundidad {} no permitida", depth);
+            return;
+        }
+        int invalid = this.blockchain.findInvalidBlock(depth, branch);
+        if (invalid >= 0) {
+            log.error("La rama no puede aplicarse, se conserva la cadena original: {}", branch.get(invalid));
+            this.blockTree.invalidate(branch.get(invalid).getHash());
+            reject("invalid_state");
+            return;
+        }
+        log.info("Reorganizando cadena: {} bloques deshechos, {} bloques aplicados desde altura {}", depth,
+                branch.size(), forkHeight);
+
+        // deshacer los bloques de la cadena principal posteriores a la bifurcacion y aplicar los de la rama, que ya
+        // se han comprobado sobre el mismo estado
+        LinkedList<Block> disconnected = new LinkedList<>();
+        while (this.blockchain.getSize() - 1 > forkHeight) {
+            disconnected.addFirst(this.blockchain.removeLastBlock());
+        }
+        List<Block> connected = new ArrayList<>();
+        for (Block block : branch) {
+            this.blockchain.add(block);
+            connected.add(block);
+        }
+        this.snapshotService.discardFrom(forkHeight + 1);
+
+        // devolver al pool las transacciones que no han quedado incluidas en la nueva cadena, comprobando sus nonces
+        // contra la nueva cadena
+        publishView();
+        for (Block block : disconnected) {
+            for (Transaction transaction : block.getTransactions().subList(1, block.getTransactions().size())) {
+                if (this.blockchain.getTransactionLocation(transaction.getHash()) == null) {
+                    this.transactionService.add(transaction);
+                }
+            }
+        }
+        for (Block block : connected) {
+            onBlockConnected(block);
+        }
+    }
 
     /**
-     * Validar un bloque a ser añadido a la cadena
+     * Tareas tras conectar un bloque a la cadena principal
      *
-     * @param block Bloque a ser validado
+     * @param block Bloque añadido a la cadena
      */
-    private boolean validate(Block block) {
-        // comprobar que el bloque tiene un formato valido
-        if(!block.isValid()) {
-            log.error("El bloque no es valido: {}", block);
+    private void onBlockConnected(Block block) {
+        this.snapshotService.onBlockAdded(this.blockchain);
+        //eliminar las transacciones incluidas en el bloque del pool de transacciones
+        block.getTransactions().forEach(transactionService::remove);
+        //solo se pueden deshacer los ultimos bloques
+        this.blockchain.discardUndo(this.blockchain.getSize() - maxReorgDepth);
+        discardOldBranches();
+        prune();
+    }
+
+    /**
+     * Olvidar los bloques del arbol que ya no pueden formar parte de una reorganizacion. Se conservan los
+     * antecesores necesarios para calcular el objetivo y el timestamp minimo de los bloques que si pueden
+     */
+    private void discardOldBranches() {
+        this.blockTree.discardBelow(this.blockchain.getSize() - 1 - maxReorgDepth
+                - Math.max(retargetInterval, MEDIAN_TIME_SPAN));
+    }
+
+    /**
+     * Modo podado: descartar las transacciones de los bloques con mas de pruneDepth bloques por encima, conservando
+     * su cabecera en la cadena y en el arbol de bloques. Nunca se podan los bloques que se pueden deshacer en una
+     * reorganizacion, ya que sus transacciones vuelven al pool, ni los posteriores a la ultima instantanea de estado,
+     * que otros nodos descargan completos en la sincronizacion rapida.
+     */
+    private void prune() {
+        if (pruneDepth <= 0) {
+            return;
+        }
+        int height = this.blockchain.getSize() - Math.max(pruneDepth, maxReorgDepth);
+        SnapshotManifest snapshot = this.snapshotService.getLatestManifest();
+        if (snapshot != null) {
+            height = Math.min(height, snapshot.getHeight() + 1);
+        }
+        List<Block> pruned = this.blockchain.prune(height);
+        pruned.forEach(this.blockTree::prune);
+        if (!pruned.isEmpty()) {
+            log.debug("{} bloques podados, contenido conservado desde altura {}", pruned.size(),
+                    this.blockchain.getPrunedHeight());
+        }
+    }
+
+    /**
+     * Trabajo esperado para encontrar un bloque con su objetivo
+     *
+     * @param block Bloque
+     * @return numero esperado de hashes
+     */
+    private BigInteger getWork(Block block) {
+        return DifficultyUtils.getWork(block.getTarget() != null ? block.getTarget() : getInitialTarget());
+    }
+
+    /**
+     * Objetivo de la prueba de trabajo de los primeros bloques, a partir de la dificultad configurada
+     *
+     * @return objetivo de 32 bytes
+     */
+    public byte[] getInitialTarget() {
+        return DifficultyUtils.initialTarget(difficulty);
+    }
+
+    /**
+     * Objetivo que debe tener el siguiente bloque de la cadena principal, segun la ultima vista publicada
+     *
+     * @return objetivo de 32 bytes
+     */
+    public byte[] getNextTarget() {
+        byte[] target = this.chainView.getNextTarget();
+        return target != null ? target : getInitialTarget();
+    }
+
+    /**
+     * Objetivo que debe tener un bloque hijo de un bloque dado. Cada retargetInterval bloques el objetivo se ajusta
+     * en proporcion al tiempo real que tardaron en minarse los bloques de la ventana anterior.
+     *
+     * @param parent nodo del bloque anterior, null para el bloque genesis
+     * @return objetivo de 32 bytes
+     */
+    public byte[] getNextTarget(BlockTree.BlockNode parent) {
+        if (parent == null) {
+            return getInitialTarget();
+        }
+        BlockTree.BlockNode first = parent;
+        if (isRetargetHeight(parent.getHeight() + 1)) {
+            for (int i = 1; i < retargetInterval && first.getParent() != null; i++) {
+                first = first.getParent();
+            }
+        }
+        return nextTarget(parent.getBlock(), parent.getHeight() + 1, first.getBlock());
+    }
+
+    private boolean isRetargetHeight(int height) {
+        return retargetInterval > 1 && height % retargetInterval == 0;
+    }
+
+    /**
+     * Calcular el objetivo de un bloque
+     *
+     * @param parent Bloque anterior
+     * @param height altura del bloque
+     * @param first  primer bloque de la ventana de reajuste (solo se usa en las alturas de reajuste)
+     * @return objetivo de 32 bytes
+     */
+    private byte[] nextTarget(Block parent, int height, Block first) {
+        byte[] target = parent.getTarget() != null ? parent.getTarget() : getInitialTarget();
+        if (!isRetargetHeight(height)) {
+            return target;
+        }
+        return DifficultyUtils.retarget(target, parent.getTimestamp() - first.getTimestamp(),
+                (retargetInterval - 1) * targetBlockTime);
+    }
+
+    /**
+     * Comprobar que el objetivo de un bloque es el que le corresponde segun su bloque anterior
+     *
+     * @param block Bloque cuyo bloque anterior esta en el arbol de bloques
+     */
+    private boolean validateTarget(Block block) {
+        if (!Arrays.equals(block.getTarget(), getNextTarget(this.blockTree.get(block.getPreviousHash())))) {
+            log.error("El objetivo del bloque no es el esperado: {}", block);
+            reject("unexpected_target");
             return false;
         }
+        return true;
+    }
+
+    /**
+     * Comprobar que el timestamp de un bloque es posterior a la mediana de los de sus bloques anteriores y no va por
+     * delante del reloj del nodo mas de maxFutureBlockTime. Sin el limite inferior un minero podria atrasar los
+     * timestamps para bajar la dificultad en el siguiente reajuste, y sin el superior adelantarlos
+     *
+     * @param block Bloque cuyo bloque anterior esta en el arbol de bloques
+     */
+    private boolean validateTimestamp(Block block) {
+        List<Block> previous = new ArrayList<>();
+        BlockTree.BlockNode node = this.blockTree.get(block.getPreviousHash());
+        for (; node != null && previous.size() < MEDIAN_TIME_SPAN; node = node.getParent()) {
+            previous.add(node.getBlock());
+        }
+        if (!isValidTimestamp(block, previous)) {
+            log.error("El timestamp del bloque no es valido: {}", block);
+            reject("invalid_timestamp");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isValidTimestamp(Block block, List<Block> previous) {
+        return block.getTimestamp() >= getMinTimestamp(previous)
+                && block.getTimestamp() <= System.currentTimeMillis() + maxFutureBlockTime;
+    }
+
+    /**
+     * Timestamp minimo del siguiente bloque de la cadena principal, segun la ultima vista publicada
+     *
+     * @return timestamp (ms)
+     */
+    public long getMinTimestamp() {
+        List<Block> blocks = this.chainView.getBlocks();
+        return getMinTimestamp(blocks.subList(Math.max(0, blocks.size() - MEDIAN_TIME_SPAN), blocks.size()));
+    }
+
+    /**
+     * Timestamp minimo de un bloque: uno mas que la mediana de los timestamps de sus bloques anteriores
+     *
+     * @param previous hasta MEDIAN_TIME_SPAN bloques anteriores, en cualquier orden
+     * @return timestamp (ms), 0 si no hay bloques anteriores
+     */
+    private static long getMinTimestamp(List<Block> previous) {
+        if (previous.isEmpty()) {
+            return 0;
+        }
+        long[] timestamps = previous.stream().mapToLong(Block::getTimestamp).sorted().toArray();
+        return timestamps[timestamps.length / 2] + 1;
+    }
 
-        //el hash de bloque anterior hace referencia al ultimo bloque en mi cadena
-        if(!this.blockchain.isEmpty()) {
-            byte[] lastBlockHash = this.blockchain.getLastBlock().getHash();
+    /**
+     * Validar un bloque a ser añadido a una cadena
+     *
+     * @param chain cadena a la que se añadira el bloque
+     * @param block Bloque a ser validado
+     */
+    private boolean validate(Blockchain chain, Block block) {
+        //el hash de bloque anterior hace referencia al ultimo bloque en la cadena
+        if(!chain.isEmpty()) {
+            byte[] lastBlockHash = chain.getLastBlock().getHash();
             if(!Arrays.equals(block.getPreviousHash(), lastBlockHash)) {
                 log.error("El bloque anterior no coincide con el ultimo bloque de la cadena: {}", block);
                 return false;
@@ -75,35 +576,261 @@ public class BlockService {
             }
         }
 
+        return validateStateless(block);
+    }
+
+    /**
+     * Validaciones de un bloque que no dependen del estado de la cadena: formato, prueba de trabajo, raiz de merkle y
+     * firmas de las transacciones. Se pueden hacer en paralelo y sin el bloqueo de la cadena.
+     *
+     * @param block Bloque a ser validado
+     */
+    public boolean validateStateless(Block block) {
+        Timer.Sample sample = Timer.start();
+        String reason = getStatelessRejection(block);
+        sample.stop(Metrics.timer(MetricName.BLOCK_VALIDATE));
+        if (reason != null) {
+            reject(reason);
+        }
+        return reason == null;
+    }
+
+    /**
+     * Motivo por el que un bloque no pasa las validaciones independientes del estado de la cadena
+     *
+     * @param block Bloque a ser validado
+     * @return motivo del rechazo o null si el bloque es valido
+     */
+    private String getStatelessRejection(Block block) {
+        // comprobar que el bloque tiene un formato valido
+        if(!block.isValid()) {
+            log.error("El bloque no es valido: {}", block);
+            return "invalid_format";
+        }
+
         //max numero de bloques en la cadena
         if(block.getTransactions().size() > maxTransactionsPerBlock + 1) {
             log.error("El bloque tiene mas transacciones de las permitidas: {}", block);
-            return false;
+            return "too_many_transactions";
         }
 
-        //verificar que todas las transacciones estaban en mi pool
-        if(!transactionService.contains(block.getTransactions().subList(1, block.getTransactions().size()))) {
-            log.error("Alguna de las transacciones del bloque no esta en el pool: {}", block);
-            return false;
+        //solo la primera transaccion puede ser coinbase: una coinbase no tiene firma y acredita su cantidad sin emisor
+        List<Transaction> transactions = block.getTransactions().subList(1, block.getTransactions().size());
+        if (transactions.stream().anyMatch(Transaction::isCoinbase)) {
+            log.error("El bloque tiene mas de una transaccion coinbase: {}", block);
+            return "extra_coinbase";
         }
 
-        //la dificultad coincide
-        if(block.getLeadingZeros() < difficulty) {
-            log.error("La dificultad del bloque no coincide: {}", block);
-            return false;
+        //verificar las transacciones: las que estan en mi pool ya fueron verificadas y del resto solo se verifican las
+        //firmas que no estan en SignatureCache
+        for (Transaction transaction : transactionService.getMissing(transactions)) {
+            if (transactionService.verify(transaction) != null) {
+                log.error("Alguna de las transacciones del bloque no es valida: {}", block);
+                return "invalid_transaction";
+            }
         }
 
-        return true;
+        //el hash cumple el objetivo de la prueba de trabajo
+        if(!block.meetsTarget()) {
+            log.error("El hash del bloque no cumple el objetivo: {}", block);
+            return "target_not_met";
+        }
+
+        return null;
+    }
+
+    /**
+     * Comprobar si la cadena no conserva el contenido de todos sus bloques (modo podado o sincronizacion rapida), en
+     * cuyo caso el nodo no puede servir la cadena completa
+     *
+     * @return true si el bloque genesis solo conserva su cabecera
+     */
+    public boolean isPruned() {
+        Block genesis = this.chainView.getBlock(0);
+        return genesis != null && genesis.getTransactions() == null;
     }
 
     /**
-     * Descargar la cadena de bloques de otro nodo
+     * Descargar la cadena de bloques completa de otro nodo. Los bloques se validan y se aplican uno a uno sobre una
+     * cadena vacia, igual que si se recibieran de la red; los saldos de la respuesta no se usan.
      *
      * @param nodeUrl      Url del nodo al que enviar la peticion
      * @param restTemplate RestTemplate a usar
      */
-    public void getBlockchain(URL nodeUrl, RestTemplate restTemplate) {
-        this.blockchain = restTemplate.getForObject(nodeUrl.toString() + Path.BLOCKCHAIN, Blockchain.class);
+    public void getBlockchain(URL nodeUrl, RestTemplate restTemplate) throws Exception {
+        Blockchain downloaded = restTemplate.getForObject(nodeUrl.toString() + Path.BLOCK, Blockchain.class);
+        List<Block> blocks = downloaded != null ? downloaded.getBlocks() : List.of();
+        if (!validateHeaders(blocks, 0)) {
+            throw new Exception("Cadena descargada invalida");
+        }
+        Blockchain synced = new Blockchain();
+        for (Block block : blocks) {
+            // los bloques sin contenido (de un nodo podado) no pasan la validacion
+            if (!validate(synced, block)) {
+                throw new Exception("Bloque descargado invalido");
+            }
+            synced.add(block);
+            synced.discardUndo(synced.getSize() - maxReorgDepth);
+            this.snapshotService.onBlockAdded(synced);
+        }
+
+        ChainView published;
+        long stamp = this.chainLock.writeLock();
+        try {
+            this.blockchain = synced;
+            this.blockTree.reset(this.blockchain.getBlocks(), this::getWork);
+            discardOldBranches();
+            prune();
+            published = publishView();
+        } finally {
+            this.chainLock.unlockWrite(stamp);
+        }
+        publishTip(published);
         log.info("Cadena de bloques descargada de nodo: {}", nodeUrl);
     }
+
+    /**
+     * Sincronizacion rapida: descargar las cabeceras de la cadena y la instantanea de estado mas reciente de otro
+     * nodo en lugar de toda la historia. Si el nodo no dispone de instantaneas se descarga la cadena completa.
+     * La instantanea solo se acepta si la cabecera de su bloque, cubierta por la prueba de trabajo, incluye su raiz de
+     * estado. Las cabeceras hasta la instantanea quedan en la cadena como bloques podados.
+     *
+     * @param nodeUrl      Url del nodo al que enviar la peticion
+     * @param restTemplate RestTemplate a usar
+     */
+    public void fastSync(URL nodeUrl, RestTemplate restTemplate) throws Exception {
+        SnapshotManifest manifest = restTemplate.getForObject(nodeUrl.toString() + Path.SNAPSHOT, SnapshotManifest.class);
+        if (manifest == null) {
+            log.info("El nodo {} no dispone de instantaneas, descargando cadena completa", nodeUrl);
+            getBlockchain(nodeUrl, restTemplate);
+            return;
+        }
+
+        int height = manifest.getHeight();
+        Block[] headers = restTemplate.getForObject(nodeUrl.toString() + Path.BLOCK + Path.BLOCK_HEADERS + "?to=" + height,
+                Block[].class);
+        if (headers == null || headers.length != height + 1 || !validateHeaders(Arrays.asList(headers), 0)) {
+            throw new Exception("Cabeceras de la cadena invalidas");
+        }
+        if (!Arrays.equals(headers[height].getHash(), manifest.getBlockHash())) {
+            throw new Exception("La instantanea no corresponde a la cadena de cabeceras");
+        }
+        // sin raiz de estado en la cabecera nada vincula la instantanea a la cadena
+        if (headers[height].getStateRoot() == null || !Arrays.equals(headers[height].getStateRoot(), manifest.getStateRoot())) {
+            throw new Exception("La raiz de estado de la instantanea no coincide con la cabecera");
+        }
+
+        RecordBalances balances = snapshotService.downloadSnapshot(nodeUrl, restTemplate, manifest);
+        Blockchain synced = new Blockchain();
+        synced.setBlocks(new ArrayList<>(Arrays.asList(headers)));
+        synced.setPrunedHeight(height + 1);
+        synced.setBalances(balances);
+
+        // aplicar los bloques completos posteriores a la instantanea
+        Block[] blocks = restTemplate.getForObject(nodeUrl.toString() + Path.BLOCK + Path.BLOCK_RANGE + "?from=" + (height + 1),
+                Block[].class);
+        if (blocks != null) {
+            List<Block> chain = new ArrayList<>(Arrays.asList(headers));
+            chain.addAll(Arrays.asList(blocks));
+            if (!validateHeaders(chain, height + 1)) {
+                throw new Exception("Bloque descargado invalido");
+            }
+            for (Block block : blocks) {
+                if (!validate(synced, block)) {
+                    throw new Exception("Bloque descargado invalido");
+                }
+                synced.add(block);
+            }
+        }
+
+        ChainView published;
+        long stamp = this.chainLock.writeLock();
+        try {
+            this.blockchain = synced;
+            this.blockTree.reset(synced.getBlocks(), this::getWork);
+            discardOldBranches();
+            published = publishView();
+        } finally {
+            this.chainLock.unlockWrite(stamp);
+        }
+        publishTip(published);
+        log.info("Sincronizacion rapida desde nodo {} completada a altura {}", nodeUrl, synced.getSize() - 1);
+    }
+
+    /**
+     * Obtener un bloque conocido por su hash, de la cadena principal o de una rama lateral
+     *
+     * @param hash hash del bloque
+     * @return Bloque o null si no es conocido
+     */
+    public Block getBlock(byte[] hash) {
+        Block block = this.chainView.getBlock(hash);
+        if (block == null) {
+            BlockTree.BlockNode node = this.blockTree.get(hash);
+            block = node != null ? node.getBlock() : null;
+        }
+        return block;
+    }
+
+    /**
+     * Obtener un bloque completo por su hash para enviarlo a otro nodo
+     *
+     * @param hash hash del bloque
+     * @return Bloque o null si no es conocido o solo se conserva su cabecera (modo podado o sincronizacion rapida)
+     */
+    public Block getFullBlock(byte[] hash) {
+        Block block = getBlock(hash);
+        return block != null && block.getTransactions() != null ? block : null;
+    }
+
+    /**
+     * Obtener las cabeceras de los bloques de la cadena
+     *
+     * @param to altura de la ultima cabecera (inclusive)
+     * @return cabeceras desde el bloque genesis
+     */
+    public List<Block> getHeaders(int to) {
+        List<Block> blocks = this.chainView.getBlocks();
+        return blocks.subList(0, Math.min(Math.max(to + 1, 0), blocks.size())).stream()
+                .map(Block::toHeader).collect(Collectors.toList());
+    }
+
+    /**
+     * Obtener los bloques completos a partir de una altura
+     *
+     * @param from altura del primer bloque (inclusive)
+     * @return bloques desde esa altura hasta el ultimo de la cadena, null si de alguno solo se conserva la cabecera
+     */
+    public List<Block> getBlocks(int from) {
+        List<Block> blocks = this.chainView.getBlocks().subList(Math.min(Math.max(from, 0), this.chainView.getSize()),
+                this.chainView.getSize());
+        // los bloques que conservan su contenido son siempre los ultimos de la cadena
+        if (!blocks.isEmpty() && blocks.get(0).getTransactions() == null) {
+            return null;
+        }
+        return new ArrayList<>(blocks);
+    }
+
+    /**
+     * Verificar una cadena de cabeceras: enlace con la cabecera anterior, hash, objetivo, timestamp y prueba de trabajo
+     *
+     * @param headers cabeceras desde el bloque genesis
+     * @param from    altura de la primera cabecera a verificar (las anteriores ya se han verificado)
+     * @return true si todas las cabeceras son validas
+     */
+    private boolean validateHeaders(List<Block> headers, int from) {
+        for (int height = from; height < headers.size(); height++) {
+            Block header = headers.get(height);
+            Block parent = height > 0 ? headers.get(height - 1) : null;
+            byte[] expectedTarget = parent == null ? getInitialTarget()
+                    : nextTarget(parent, height, headers.get(Math.max(0, height - retargetInterval)));
+            if (!header.isValidHeader() || !Arrays.equals(header.getPreviousHash(), parent != null ? parent.getHash() : null)
+                    || !Arrays.equals(header.getTarget(), expectedTarget) || !header.meetsTarget()
+                    || !isValidTimestamp(header, headers.subList(Math.max(0, height - MEDIAN_TIME_SPAN), height))) {
+                log.error("Cabecera invalida: {}", header);
+                return false;
+            }
+        }
+        return true;
+    }
 }
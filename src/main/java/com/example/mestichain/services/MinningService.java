@@ -1,27 +1,63 @@
 package com.example.mestichain.services;
 
 import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.ChainView;
+import com.example.mestichain.domain.BlockTemplate;
+import com.example.mestichain.domain.MiningShare;
+import com.example.mestichain.domain.MiningWork;
 import com.example.mestichain.domain.RecordBalances;
+import com.example.mestichain.domain.StateTree;
 import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.events.NewTipEvent;
+import com.example.mestichain.events.NewTransactionEvent;
+import com.example.mestichain.utils.DifficultyUtils;
+import com.example.mestichain.utils.constants.MetricName;
 import com.example.mestichain.utils.constants.Path;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 @Service
 public class MinningService implements Runnable {
 
+    private static final int MAX_TEMPLATES = 16;
+    //Nonces probados por el minero local entre comprobaciones de la plantilla actual
+    private static final long NONCE_BATCH = 1 << 12;
+    //Adelanto maximo (ms) del timestamp de una solucion externa respecto al reloj del nodo
+    private static final long MAX_TIMESTAMP_DRIFT = 60000;
+    //Espera (ms) del minero local cuando no se puede preparar una plantilla
+    private static final long IDLE_WAIT = 100;
+    //Duracion (ns) de cada ventana de muestras de la tasa de hash
+    private static final long HASH_RATE_WINDOW = TimeUnit.SECONDS.toNanos(10);
+
     @Value("${coinbaseAddress}")
     private String coinbaseAddress;
 
+    //Incluir la raiz de estado en la cabecera de los bloques minados
+    @Value("${stateRootInHeader}")
+    private boolean stateRootInHeader;
+
+    //Tiempo maximo (ms) que se usa una plantilla antes de reconstruirla con el pool completo y un timestamp nuevo
+    @Value("${templateRefreshInterval}")
+    private long templateRefreshInterval;
+
 
     private final TransactionService transactionService;
     private final NodeService nodeService;
@@ -32,10 +68,30 @@ public class MinningService implements Runnable {
         this.transactionService = transactionService;
         this.nodeService = nodeService;
         this.blockService = blockService;
+        FunctionCounter.builder(MetricName.MINING_HASHES, this.hashes, AtomicLong::get).register(Metrics.globalRegistry);
+        Metrics.gauge(MetricName.MINING_HASH_RATE, this, MinningService::sampleHashRate);
     }
 
     private AtomicBoolean isMining = new AtomicBoolean(false);
 
+    //Hashes calculados por el minero local y muestras al inicio de la ventana actual y de la anterior
+    private final AtomicLong hashes = new AtomicLong();
+    private long windowHashes;
+    private long windowAt = System.nanoTime();
+    private long previousHashes;
+    private long previousAt = this.windowAt;
+
+    //Plantillas repartidas a mineros externos, por identificador. Se guardan las ultimas para aceptar soluciones tardias
+    private final Map<Long, BlockTemplate> templates = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BlockTemplate> eldest) {
+            return size() > MAX_TEMPLATES;
+        }
+    };
+    private final AtomicLong templateIds = new AtomicLong();
+    //Plantilla actual: los mineros la leen entre rangos de nonces y cambian de trabajo en cuanto se sustituye
+    private final AtomicReference<BlockTemplate> currentTemplate = new AtomicReference<>();
+
     /**
      * Comenzar el servicio de minado
      */
@@ -88,59 +144,226 @@ public class MinningService implements Runnable {
     }
 
     /**
-     * Iterar nonce hasta que cumpla con la dificultad configurada
+     * Iterar nonce sobre la plantilla actual hasta que cumpla con el objetivo. Cada rango de nonces se prueba con un
+     * extra-nonce propio y el timestamp actual, modificando solo esos campos de la cabecera serializada, de modo que un
+     * cambio de plantilla se detecta al terminar el rango sin consultar la cadena en cada nonce.
      */
     private Block mineBlock() {
-        long nonce = 0;
-
-        Block lastBlock = this.blockService.getBlockchain().getLastBlock();
-        byte[] lastHash = lastBlock != null ? lastBlock.getHash() : null;
-
-//      Saldos temporales para ver si una transaccion hace doble gasto
-        RecordBalances tempBalances = new RecordBalances();
-        RecordBalances actualBalances = this.blockService.getBlockchain().getBalances();
-        Iterator<Transaction> iterator = this.transactionService.getTransactionPool().getPool().iterator();
-        while (iterator.hasNext()) {
-            Transaction transaction = iterator.next();
-            if (actualBalances.isValidAccount(transaction.getSender())) {
-                tempBalances.setAccountBalance(transaction.getSender(), actualBalances.getAccountBalance(transaction.getSender()));
+        BlockTemplate template = getTemplate();
+        if (template == null) {
+            try {
+                Thread.sleep(IDLE_WAIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            return null;
         }
 
-        List<Transaction> transactions = new ArrayList<>();
-        // iteramos las transacciones y las añadimos al bloque si el emisor tiene saldo
-        iterator = this.transactionService.getTransactionPool().getPool().iterator();
-        while (transactions.size() < this.blockService.getMaxTransactionsPerBlock() && iterator.hasNext()) {
-            Transaction transaction = iterator.next();
-            try {
-                if (tempBalances.isValidAccount(transaction.getSender())) {
-                    tempBalances.settleTransaction(transaction);
-                } else {
-                    throw new Exception("Invalid sender: " + Base64.encodeBase64String(transaction.getSender()));
+        MiningWork work = template.allocate(NONCE_BATCH);
+        long timestamp = Math.max(System.currentTimeMillis(), template.getTimestamp());
+        byte[] header = work.toHeader(timestamp, work.getNonceStart()).getHeaderBytes();
+        long nonce = work.getNonceStart();
+        try {
+            for (; nonce < work.getNonceEnd() && isMining.get(); nonce++) {
+                Block.setHeaderNonce(header, nonce);
+                if (DifficultyUtils.meetsTarget(DigestUtils.sha256(header), work.getTarget())) {
+                    return template.toBlock(work.getExtraNonce(), timestamp, nonce);
                 }
-            } catch (Exception e) {
-                log.error("Error validating transaction: {} - insufficient funds", Base64.encodeBase64String(transaction.getHash()), e);
             }
+            return null;
+        } finally {
+            this.hashes.addAndGet(nonce - work.getNonceStart());
         }
+    }
+
+    /**
+     * Tasa de hash del minero local desde el inicio de la ventana anterior. Las muestras solo avanzan al terminar cada
+     * ventana, de modo que leer la metrica varias veces seguidas no cambia el periodo medido
+     *
+     * @return hashes por segundo
+     */
+    private synchronized double sampleHashRate() {
+        long now = System.nanoTime();
+        long total = this.hashes.get();
+        if (now - this.windowAt >= HASH_RATE_WINDOW) {
+            this.previousHashes = this.windowHashes;
+            this.previousAt = this.windowAt;
+            this.windowHashes = total;
+            this.windowAt = now;
+        }
+        return now > this.previousAt ? (total - this.previousHashes) * 1e9 / (now - this.previousAt) : 0;
+    }
+
+    /**
+     * La cima de la cadena ha cambiado: reconstruir la plantilla sobre la nueva cima
+     *
+     * @param event evento con el nuevo ultimo bloque
+     */
+    @EventListener
+    public void onNewTip(NewTipEvent event) {
+        refreshTemplate();
+    }
+
+    /**
+     * Nueva transaccion en el pool: añadirla a la plantilla actual si cabe y el emisor tiene saldo, aplicando solo
+     * esa transaccion sobre los saldos de la plantilla
+     *
+     * @param event evento con la transaccion añadida
+     */
+    @EventListener
+    public synchronized void onNewTransaction(NewTransactionEvent event) {
+        BlockTemplate template = this.currentTemplate.get();
+        Transaction transaction = event.getTransaction();
+        if (template == null || template.getTransactions().size() > this.blockService.getMaxTransactionsPerBlock()
+                || template.contains(transaction)) {
+            return;
+        }
+        try {
+            publish(template.withTransaction(this.templateIds.incrementAndGet(), transaction));
+        } catch (Exception e) {
+            log.debug("Transaccion {} no incluida en la plantilla: {}", transaction, e.getMessage());
+        }
+    }
+
+    /**
+     * Obtener la plantilla actual, reconstruyendola si no existe o ha caducado
+     *
+     * @return plantilla o null si no se puede preparar
+     */
+    public BlockTemplate getTemplate() {
+        BlockTemplate template = this.currentTemplate.get();
+        if (template == null || System.currentTimeMillis() - template.getTimestamp() > this.templateRefreshInterval) {
+            template = refreshTemplate();
+        }
+        return template;
+    }
+
+    /**
+     * Reconstruir la plantilla actual sobre la cima de la cadena con las transacciones del pool
+     *
+     * @return plantilla o null si no se puede preparar
+     */
+    private synchronized BlockTemplate refreshTemplate() {
+        BlockTemplate template = createTemplate();
+        if (template != null) {
+            publish(template);
+        }
+        return template;
+    }
+
+    /**
+     * Sustituir la plantilla actual. Los mineros locales y externos pasan a trabajar sobre ella en su siguiente rango
+     *
+     * @param template nueva plantilla
+     */
+    private synchronized void publish(BlockTemplate template) {
+        this.templates.put(template.getId(), template);
+        this.currentTemplate.set(template);
+    }
+
+    /**
+     * Obtener trabajo para un minero externo: cabecera de la plantilla actual y un rango de nonces sin asignar
+     *
+     * @param size numero de nonces del rango
+     * @return trabajo a realizar o null si no se puede preparar una plantilla
+     */
+    public MiningWork getWork(long size) {
+        BlockTemplate template = getTemplate();
+        return template != null ? template.allocate(size) : null;
+    }
+
+    /**
+     * Procesar la solucion de un minero externo. Solo se comprueba el hash de la cabecera; el bloque completo se monta
+     * a partir de la plantilla guardada, se añade a la cadena y se propaga.
+     *
+     * @param share trabajo y nonce solucion
+     * @return true si el bloque es aceptado, false si la solucion no es valida o la cadena rechaza el bloque
+     */
+    public boolean submitShare(MiningShare share) {
+        BlockTemplate template;
+        synchronized (this) {
+            template = this.templates.get(share.getWorkId());
+        }
+        if (template == null) {
+            log.info("Trabajo desconocido o caducado: {}", share.getWorkId());
+            return false;
+        }
+        // el timestamp solo puede avanzar desde el de la plantilla y no puede ir por delante del reloj del nodo
+        if (share.getNonce() <= 0 || !template.isAllocated(share.getExtraNonce())
+                || share.getTimestamp() < template.getTimestamp()
+                || share.getTimestamp() > System.currentTimeMillis() + MAX_TIMESTAMP_DRIFT) {
+            log.info("Solucion fuera del trabajo asignado {}: {}", share.getWorkId(), share);
+            return false;
+        }
+        Block block = template.toBlock(share.getExtraNonce(), share.getTimestamp(), share.getNonce());
+        if (!block.meetsTarget()) {
+            log.info("Solucion inválida para el trabajo {}: {}", share.getWorkId(), share);
+            return false;
+        }
+
+        try {
+            if (!this.blockService.add(block)) {
+                return false;
+            }
+        } catch (Exception e) {
+            log.info("Bloque del trabajo {} rechazado por la cadena: {}", share.getWorkId(), block, e);
+            return false;
+        }
+        log.info("Block mined by remote worker: {}", block);
+        this.nodeService.broadcast(Path.BLOCK, block);
+        return true;
+    }
+
+    /**
+     * Preparar una plantilla de bloque sobre la cima actual con las transacciones del pool que se pueden liquidar
+     *
+     * @return plantilla o null si no se puede preparar
+     */
+    private BlockTemplate createTemplate() {
+        ChainView view = this.blockService.getChainView();
+        Block lastBlock = view.getLastBlock();
+        if (lastBlock == null && !this.nodeService.isGenesisNode()) {
+            // solo el nodo inicial mina el bloque genesis, el resto lo recibe al arrancar desde un vecino
+            return null;
+        }
+        byte[] lastHash = lastBlock != null ? lastBlock.getHash() : null;
 
         // añadir transaccion coinbase como recompensa por resolver la prueba de trabajo
         Transaction txCoinbase = new Transaction(Base64.decodeBase64(this.coinbaseAddress));
         txCoinbase.setTimestamp(System.currentTimeMillis());
         txCoinbase.setHash(txCoinbase.calculateHash());
 
-        transactions.add(0, txCoinbase);
+        List<Transaction> transactions = new ArrayList<>();
+        transactions.add(txCoinbase);
+        StateTree state;
+        try {
+            state = RecordBalances.settle(view.getBalanceView().getStateTree(), txCoinbase);
+        } catch (Exception e) {
+            log.error("Error applying coinbase transaction", e);
+            return null;
+        }
 
-        // iterar nonce hasta encontrar solucion
-        while (isMining.get()) {
-            if (lastBlock != blockService.getBlockchain().getLastBlock()) {
-                return null;
+        // iteramos las transacciones y las añadimos al bloque si el emisor tiene saldo. La unica coinbase del bloque es
+        // la del minero: settle no comprueba emisor ni saldo de una coinbase
+        Iterator<Transaction> iterator = this.transactionService.getTransactionPool().snapshot().iterator();
+        while (transactions.size() <= this.blockService.getMaxTransactionsPerBlock() && iterator.hasNext()) {
+            Transaction transaction = iterator.next();
+            if (transaction.isCoinbase()) {
+                log.warn("Transaccion coinbase en el pool, no se incluye en la plantilla: {}", transaction);
+                continue;
             }
-            Block block = new Block(lastHash, transactions, nonce);
-            if (block.getLeadingZeros() >= this.blockService.getDifficulty()) {
-                return block;
+            try {
+                state = RecordBalances.settle(state, transaction);
+                transactions.add(transaction);
+            } catch (Exception e) {
+                log.debug("Transaction not included in template: {} - insufficient funds", transaction);
             }
-            nonce++;
         }
-        return null;
+
+        // objetivo de la prueba de trabajo para el siguiente bloque
+        byte[] target = view.getNextTarget() != null ? view.getNextTarget() : this.blockService.getInitialTarget();
+
+        return new BlockTemplate(this.templateIds.incrementAndGet(), lastHash, transactions, state, this.stateRootInHeader,
+                target, this.blockService.getMinTimestamp());
     }
 }
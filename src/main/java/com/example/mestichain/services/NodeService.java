@@ -1,86 +1,251 @@
 package com.example.mestichain.services;
 
 import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.PeerMessageType;
 import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.events.TransactionsReceivedEvent;
+import com.example.mestichain.utils.BlockCodec;
+import com.example.mestichain.utils.constants.MetricName;
 import com.example.mestichain.utils.constants.Path;
-import lombok.Data;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.servlet.context.ServletWebServerInitializedEvent;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.PreDestroy;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashSet;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 
 @Slf4j
 @Service
-@Data
+@Getter
 public class NodeService implements ApplicationListener<ServletWebServerInitializedEvent> {
 
-    @Value("${masterNodeUrl}")
-    private String masterNodeUrl;
+    //Nodos a los que pedir la red al arrancar, ademas de los de la libreta de direcciones
+    @Value("${seedNodes}")
+    private String[] seedNodes;
+
+    //Cada cuanto (ms) se piden los vecinos de algunos vecinos al azar
+    @Value("${peerExchangeInterval}")
+    private long peerExchangeInterval;
+
+    //Arrancar una red nueva si ningun vecino responde al arrancar. El resto de nodos reintentan el arranque, salvo
+    //el que es su propia semilla
+    @Value("${genesisNode}")
+    @Setter
+    private boolean genesisNode;
+
+    //Cada cuanto (ms) se reintenta el arranque si ningun vecino responde
+    @Value("${bootstrapRetryInterval}")
+    private long bootstrapRetryInterval;
+
+    //Sincronizar a partir de la instantanea de estado de un vecino en lugar de la cadena completa
+    @Value("${fastSync}")
+    private boolean fastSync;
 
     //URL de mi nodo (host + port)
     private URL myUrlNode;
 
-    //Nodos en la red
-    private Set<URL> parentNodes = new HashSet<>();
+    //Puerto en el que se lanza el servicio y vecinos guardados en la libreta de direcciones al arrancar
+    private int port;
+    private List<URL> savedPeers = List.of();
+
+    //Mensajes entre nodos que pueden enviarse por el canal persistente, por endpoint HTTP equivalente
+    private static final Map<String, PeerMessageType> CHANNEL_MESSAGES = Map.of(
+            Path.BLOCK, PeerMessageType.BLOCK,
+            Path.TRANSACTION, PeerMessageType.TRANSACTION,
+            Path.TRANSACTION + Path.TRANSACTION_BATCH, PeerMessageType.TRANSACTIONS);
 
     private final BlockService blockService;
     private final TransactionService transactionService;
+    private final PeerChannelService peerChannelService;
+    //Nodos en la red y sus medidas
+    private final PeerService peerService;
+
+    //Vecinos a los que se piden sus listas de vecinos en cada intercambio
+    private static final int EXCHANGE_SAMPLE = 2;
 
     private RestTemplate restTemplate = new RestTemplate();
 
+    private final ScheduledExecutorService exchangeExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("peer-exchange-%d").setDaemon(true).build());
+
     @Autowired
-    public NodeService(BlockService blockService, TransactionService transactionService) {
+    public NodeService(BlockService blockService, TransactionService transactionService,
+                       PeerChannelService peerChannelService, PeerService peerService) {
         this.blockService = blockService;
         this.transactionService = transactionService;
+        this.peerChannelService = peerChannelService;
+        this.peerService = peerService;
+        // las respuestas comprimidas se descomprimen despues de contar sus bytes como servidos por el vecino
+        this.restTemplate.getInterceptors().add(BlockCodec.interceptor());
+        this.restTemplate.getInterceptors().add(peerService.interceptor());
     }
 
     /**
-     * Al iniciar el nodo tenemos que: - Obtener la lista de nodos en la red -
-     * Obtener la cadena de bloques - Obtener transactiones en el pool - Dar de alta
-     * mi nodo en el resto de nodos
+     * Al iniciar el nodo tenemos que: - Elegir al azar un vecino disponible entre la libreta de direcciones y los
+     * nodos semilla - Obtener la lista de nodos en la red - Obtener la cadena de bloques - Obtener transactiones en
+     * el pool - Dar de alta mi nodo en el resto de nodos - Empezar a intercambiar vecinos periodicamente.
+     * Si no hay ningun vecino disponible solo el nodo configurado como inicial, o el que es su propia semilla,
+     * arranca una red nueva; el resto reintentan el arranque periodicamente.
      *
      * @param servletWebServerInitializedEvent WebServer para obtener el puerto
      */
     @Override
     public void onApplicationEvent(ServletWebServerInitializedEvent servletWebServerInitializedEvent) {
+        this.port = servletWebServerInitializedEvent.getWebServer().getPort();
+        this.savedPeers = peerService.loadAddressBook();
+        bootstrap();
+    }
 
-        //Obtener la url del Nodo master
-        URL masterNodeUrl = this.getMasterNode();
-
-        //calcular mi url (host + port)
-        String host = getPublicIp(masterNodeUrl, restTemplate);
-        int port = servletWebServerInitializedEvent.getWebServer().getPort();
+    /**
+     * Arrancar el nodo desde el primer vecino que responda entre los vecinos conocidos y los nodos semilla
+     */
+    private void bootstrap() {
+        // el orden aleatorio reparte la carga del arranque entre los nodos conocidos, que incluyen los que se han
+        // dado de alta en este nodo mientras se reintentaba el arranque
+        Set<URL> known = new LinkedHashSet<>(savedPeers);
+        known.addAll(peerService.getPeers());
+        List<URL> candidates = new ArrayList<>(known);
+        Collections.shuffle(candidates);
+        List<URL> seeds = getSeedNodes();
+        Collections.shuffle(seeds);
+        candidates.addAll(seeds);
 
-        this.myUrlNode = getMyUrlNode(host, port);
+        //calcular mi url (host + port) con el primer nodo que responda que no sea el mio
+        URL bootstrapNode = null;
+        String host = null;
+        boolean ownSeed = false;
+        for (URL candidate : candidates) {
+            try {
+                String ip = getPublicIp(candidate, restTemplate);
+                host = host == null ? ip : host;
+                if (!candidate.equals(getMyUrlNode(ip, port))) {
+                    bootstrapNode = candidate;
+                    break;
+                }
+                ownSeed |= seeds.contains(candidate);
+            } catch (RestClientException e) {
+                log.info("Nodo {} no disponible: {}", candidate, e.getMessage());
+            }
+        }
+        this.myUrlNode = getMyUrlNode(host == null ? "localhost" : host, port);
+        this.peerChannelService.setLocalUrl(this.myUrlNode);
 
-        //obtener cadena de bloques y transacciones en pool si no soy nodo master
-        if (this.myUrlNode.equals(masterNodeUrl)) {
-            log.info("Ejecutando nodo master");
+        // un nodo que es su propia semilla es el primero de la red, como con la configuracion por defecto
+        if (bootstrapNode == null && ownSeed && !genesisNode) {
+            log.info("Mi nodo es uno de los nodos semilla, arrancando como nodo inicial");
+            this.genesisNode = true;
+        }
 
+        //obtener cadena de bloques y transacciones en pool si hay algun vecino disponible
+        if (bootstrapNode == null && !genesisNode) {
+            log.warn("Ningun vecino disponible, reintentando el arranque en {} ms. Para arrancar una red nueva "
+                    + "lanzar el nodo con genesisNode=true", bootstrapRetryInterval);
+            exchangeExecutor.schedule(this::bootstrap, bootstrapRetryInterval, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (bootstrapNode == null) {
+            log.info("Ningun vecino disponible, ejecutando nodo inicial");
 
         } else {
-            log.info("Ejecutando nodo normal");
-            parentNodes.add(masterNodeUrl);
+            log.info("Ejecutando nodo normal, arrancando desde {}", bootstrapNode);
+            peerService.add(bootstrapNode);
+
+            // obtener lista de nodos, bloques y transacciones del vecino que mas rapido sirve los datos
+            getParentNodes(bootstrapNode, restTemplate);
+            URL syncNode = peerService.selectSyncSource(bootstrapNode, false);
+            if (fastSync) {
+                try {
+                    log.info("Sincronizacion rapida desde el nodo {}", syncNode);
+                    blockService.fastSync(syncNode, restTemplate);
+                } catch (Exception e) {
+                    log.error("Error en la sincronizacion rapida, descargando cadena completa", e);
+                    getBlockchain(bootstrapNode);
+                }
+            } else {
+                getBlockchain(bootstrapNode);
+            }
+            transactionService.getTransactionPool(syncNode, restTemplate);
+
+            // dar de alta mi nodo en todos los nodos conocidos
+            register(peerService.getPeers());
 
-            // obtener lista de nodos, bloques y transacciones
-            getParentNodes(Objects.requireNonNull(masterNodeUrl), restTemplate);
-            blockService.getBlockchain(masterNodeUrl, restTemplate);
-            transactionService.getTransactionPool(masterNodeUrl, restTemplate);
+            // abrir el canal persistente con los vecinos para el resto del trafico entre nodos
+            this.peerService.getPeers().forEach(this.peerChannelService::connect);
+            peerService.saveAddressBook();
+        }
+
+        exchangeExecutor.scheduleWithFixedDelay(this::exchangePeers, peerExchangeInterval, peerExchangeInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Descargar la cadena completa del vecino que mas rapido sirve los datos entre los que no estan en modo podado
+     *
+     * @param bootstrapNode vecino a usar si ninguno ha servido datos todavia
+     */
+    private void getBlockchain(URL bootstrapNode) {
+        URL syncNode = peerService.selectSyncSource(bootstrapNode, true);
+        if (syncNode == null) {
+            log.error("Ningun vecino conserva la cadena completa");
+            return;
+        }
+        try {
+            log.info("Descargando la cadena completa desde el nodo {}", syncNode);
+            blockService.getBlockchain(syncNode, restTemplate);
+        } catch (Exception e) {
+            log.error("Error descargando la cadena completa del nodo {}", syncNode, e);
+        }
+    }
 
-            // dar de alta mi nodo en el resto de nodos en la red
-            this.broadcast(Path.NODE, myUrlNode);
+    /**
+     * Intercambio de vecinos: pedir la lista de vecinos a algunos vecinos al azar, darse de alta y abrir el canal
+     * con los que no se conocian y guardar la libreta de direcciones
+     */
+    public void exchangePeers() {
+        Set<URL> known = peerService.getPeers();
+        for (URL peer : peerService.sample(EXCHANGE_SAMPLE)) {
+            try {
+                getParentNodes(peer, restTemplate);
+            } catch (RestClientException e) {
+                log.info("Error pidiendo los vecinos del nodo {}: {}", peer, e.getMessage());
+            }
+        }
+        List<URL> learned = peerService.getPeers().stream()
+                .filter(peer -> !known.contains(peer))
+                .collect(Collectors.toList());
+        if (!learned.isEmpty()) {
+            log.info("Nuevos vecinos: {}", learned);
+            register(learned);
+            learned.forEach(this.peerChannelService::connect);
         }
+        peerService.saveAddressBook();
     }
 
     /**
@@ -101,22 +266,119 @@ public class NodeService implements ApplicationListener<ServletWebServerInitiali
     /**
      * Obtener la lista de nodos en la red
      *
-     * @param masterNodeUrl Nodo vecino al que hacer la peticion
+     * @param parentNodeUrl Nodo vecino al que hacer la peticion
      * @param restTemplate  RestTemplate a usar
      */
-    public void getParentNodes(URL masterNodeUrl, RestTemplate restTemplate) {
-        var nodes = restTemplate.getForObject(masterNodeUrl.toString() + Path.NODE, Set.class);
-        if (nodes != null) this.parentNodes.addAll(nodes);
+    public void getParentNodes(URL parentNodeUrl, RestTemplate restTemplate) {
+        var nodes = restTemplate.getForObject(parentNodeUrl.toString() + Path.NODE, URL[].class);
+        if (nodes != null) {
+            for (URL node : nodes) {
+                if (!node.equals(this.myUrlNode)) {
+                    this.peerService.add(node);
+                }
+            }
+        }
     }
 
     /**
-     * Enviar petición de tipo POST al resto de nodos en la red (nodos vecinos)
+     * Nodos vecinos conocidos
+     *
+     * @return urls de los vecinos
+     */
+    public Set<URL> getParentNodes() {
+        return this.peerService.getPeers();
+    }
+
+    /**
+     * Enviar un mensaje a los mejores vecinos (los peerFanout con menor coste esperado), o a todos los vecinos
+     * disponibles si es un bloque: un nodo al que no llega un bloque sigue minando sobre una cadena antigua. Se usa el
+     * canal persistente con cada vecino si esta abierto; si no, una petición de tipo POST que incluye la url de mi
+     * nodo para que los vecinos puedan pedirme los datos que les falten. Un vecino que falla no interrumpe el envio
+     * al resto. Los vecinos reenvian los bloques y transacciones la primera vez que los aceptan, de forma que llegan
+     * a toda la red aunque haya mas nodos que vecinos.
      *
      * @param endpoint el endpoint para esta petición
      * @param data     los datos que se quieren enviar con la peticion
      */
     public void broadcast(String endpoint, Object data) {
-        parentNodes.parallelStream().forEach(urlNode -> restTemplate.postForLocation(urlNode.toString() + endpoint, data));
+        relay(endpoint, data, null);
+    }
+
+    /**
+     * Reenviar a los mejores vecinos un mensaje recibido de otro nodo y aceptado por primera vez. Los mensajes ya
+     * conocidos no se aceptan de nuevo, por lo que cada nodo reenvia cada mensaje una sola vez
+     *
+     * @param endpoint el endpoint para esta petición
+     * @param data     los datos que se quieren enviar con la peticion
+     * @param sender   nodo que envio el mensaje, al que no se le reenvia (puede ser null)
+     */
+    public void relay(String endpoint, Object data, URL sender) {
+        send(Path.BLOCK.equals(endpoint) ? peerService.selectAvailable(sender) : peerService.selectFanout(sender),
+                endpoint, data);
+    }
+
+    /**
+     * Transacciones recibidas por el canal entre nodos: se añaden al pool y las nuevas se reenvian
+     *
+     * @param event evento con las transacciones y el nodo que las envia
+     */
+    @EventListener
+    public void onTransactionsReceived(TransactionsReceivedEvent event) {
+        List<Transaction> transactions = event.getTransactions();
+        if (transactions.size() == 1) {
+            if (transactionService.add(transactions.get(0))) {
+                relay(Path.TRANSACTION, transactions.get(0), event.getSender());
+            }
+            return;
+        }
+        List<Transaction> accepted = transactionService.getNew(transactions, transactionService.addAll(transactions));
+        if (!accepted.isEmpty()) {
+            relay(Path.TRANSACTION + Path.TRANSACTION_BATCH, accepted, event.getSender());
+        }
+    }
+
+    /**
+     * Dar de alta mi nodo en otros nodos
+     *
+     * @param nodes nodos en los que darse de alta
+     */
+    private void register(Collection<URL> nodes) {
+        send(nodes, Path.NODE, myUrlNode);
+    }
+
+    private void send(Collection<URL> nodes, String endpoint, Object data) {
+        HttpHeaders headers = new HttpHeaders();
+        if (myUrlNode != null) {
+            headers.set(Path.NODE_HEADER, myUrlNode.toString());
+        }
+        HttpEntity<Object> request = new HttpEntity<>(data, headers);
+        PeerMessageType type = CHANNEL_MESSAGES.get(endpoint);
+        nodes.parallelStream().forEach(urlNode -> {
+            Timer.Sample sample = Timer.start();
+            String transport = "channel";
+            String result = "error";
+            try {
+                if (type == null) {
+                    transport = "http";
+                    restTemplate.postForLocation(urlNode.toString() + endpoint, request);
+                } else if (!peerChannelService.send(urlNode, type, data)) {
+                    // el vecino reenvia el mensaje si es nuevo para el, igual que los recibidos por el canal
+                    transport = "http";
+                    restTemplate.postForLocation(urlNode.toString() + endpoint + "?propagate=true", request);
+                }
+                result = "ok";
+            } catch (RestClientException e) {
+                // el interceptor ya ha registrado el fallo del vecino
+                log.info("Error enviando {} al nodo {}: {}", endpoint, urlNode, e.getMessage());
+                if (!peerService.getPeers().contains(urlNode)) {
+                    peerChannelService.disconnect(urlNode);
+                }
+            } finally {
+                // sin etiqueta por vecino: cada nodo de la red crearia una serie nueva
+                sample.stop(Metrics.timer(MetricName.BROADCAST, MetricName.TAG_ENDPOINT, endpoint,
+                        MetricName.TAG_TRANSPORT, transport, MetricName.TAG_RESULT, result));
+            }
+        });
     }
 
     /**
@@ -124,6 +386,8 @@ public class NodeService implements ApplicationListener<ServletWebServerInitiali
      */
     @PreDestroy
     public void shutdown() {
+        exchangeExecutor.shutdownNow();
+        peerService.saveAddressBook();
         log.info("Dando de baja nodo {}", this.myUrlNode);
         sendDeleteRequestParentNodes("/node", this.myUrlNode);
     }
@@ -135,7 +399,13 @@ public class NodeService implements ApplicationListener<ServletWebServerInitiali
      * @param data     los datos que se quieren enviar con la peticion
      */
     public void sendDeleteRequestParentNodes(String endpoint, Object data) {
-        parentNodes.parallelStream().forEach(urlNode -> restTemplate.delete(urlNode + endpoint, data));
+        peerService.getPeers().parallelStream().forEach(urlNode -> {
+            try {
+                restTemplate.exchange(urlNode + endpoint, HttpMethod.DELETE, new HttpEntity<>(data), Void.class);
+            } catch (RestClientException e) {
+                log.info("Error dando de baja el nodo en {}: {}", urlNode, e.getMessage());
+            }
+        });
     }
 
     /**
@@ -149,30 +419,33 @@ public class NodeService implements ApplicationListener<ServletWebServerInitiali
     }
 
     /**
-     * Obtener URL del nodo master del archivo de configuracion
+     * Obtener las URL de los nodos semilla del archivo de configuracion
      */
-    private URL getMasterNode() {
-        try {
-
-            return new URL(masterNodeUrl);
-        } catch (MalformedURLException e) {
-            log.error("Error al obtener la URL del nodo master", e);
-            return null;
+    private List<URL> getSeedNodes() {
+        List<URL> seeds = new ArrayList<>();
+        for (String seed : seedNodes) {
+            try {
+                seeds.add(new URL(seed.trim()));
+            } catch (MalformedURLException e) {
+                log.error("URL de nodo semilla invalida: {}", seed, e);
+            }
         }
+        return seeds;
     }
 
     /**
      * Dar de alta un nodo
      */
     public synchronized void registerNode(URL nodeUrl) {
-        parentNodes.add(nodeUrl);
+        peerService.add(nodeUrl);
     }
 
     /**
      * Dar de baja un nodo
      */
     public synchronized void removeNode(URL nodeUrl) {
-        parentNodes.remove(nodeUrl);
+        peerService.remove(nodeUrl);
+        peerChannelService.disconnect(nodeUrl);
     }
 
 
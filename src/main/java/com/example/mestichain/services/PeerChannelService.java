@@ -0,0 +1,420 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.PeerMessageType;
+import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.events.BlockReceivedEvent;
+import com.example.mestichain.events.TransactionsReceivedEvent;
+import com.example.mestichain.utils.BlockCodec;
+import com.example.mestichain.utils.constants.MetricName;
+import com.example.mestichain.utils.constants.Path;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Canal persistente entre nodos sobre WebSocket. Cada vecino tiene una unica conexion bidireccional por la que
+ * viajan transacciones, bloques e inventarios, en lugar de abrir una peticion HTTP por mensaje:
+ * 	- El nodo que se une a la red abre la conexion con sus vecinos y se presenta con HELLO. Solo se acepta el HELLO
+ * 	  de un vecino dado de alta en PeerService y cuya url resuelve a la direccion desde la que se conecta; hasta
+ * 	  entonces la conexion no admite otros mensajes
+ * 	- Cada peerHeartbeatInterval se envia un PING por cada conexion; las conexiones sin trafico durante tres
+ * 	  intervalos se cierran y las salientes se vuelven a abrir. El tiempo hasta el PONG es el RTT del vecino
+ * 	- Al presentarse, el nodo que recibe la conexion envia su cima en un INVENTORY y el otro pide con GET_DATA los
+ * 	  bloques que no conoce
+ * 	- Tras HELLO cada extremo anuncia con COMPRESSION que admite bloques comprimidos; los bloques se envian
+ * 	  comprimidos solo por las conexiones en las que el otro extremo lo ha anunciado
+ * Si no hay conexion abierta con un vecino, NodeService envia el mensaje por HTTP.
+ */
+@Slf4j
+@Service
+public class PeerChannelService extends BinaryWebSocketHandler {
+
+    //Tamaño maximo de un mensaje (un bloque o un lote de transacciones)
+    private static final int MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+    //Tiempo maximo (ms) que un envio puede bloquear a otros envios por la misma conexion
+    private static final int SEND_TIME_LIMIT = 10000;
+    //Intervalos de latido sin trafico tras los que se cierra una conexion
+    private static final int MISSED_HEARTBEATS = 3;
+
+    private final TransactionService transactionService;
+    private final BlockService blockService;
+    private final PeerService peerService;
+    private final ObjectMapper objectMapper;
+    private final long heartbeatInterval;
+    //Usar el canal para el trafico entre nodos (si no, todo va por HTTP)
+    private final boolean enabled;
+
+    //Publicacion de los bloques y transacciones recibidos, para añadirlos y reenviarlos
+    private final ApplicationEventPublisher eventPublisher;
+
+    //Url de mi nodo, que se envia en el HELLO
+    private volatile URL localUrl;
+    //Vecinos a los que este nodo abre la conexion y la reabre si se cae
+    private final Set<URL> outboundPeers = ConcurrentHashMap.newKeySet();
+    private final Set<URL> connecting = ConcurrentHashMap.newKeySet();
+    //Conexion abierta con cada vecino y vecino y ultimo mensaje de cada conexion
+    private final Map<URL, WebSocketSession> peerSessions = new ConcurrentHashMap<>();
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, URL> sessionPeers = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+    //Momento en que se envio el ultimo PING por cada conexion
+    private final Map<String, Long> pingSent = new ConcurrentHashMap<>();
+    //Conexiones cuyo otro extremo admite bloques comprimidos
+    private final Set<String> compressedSessions = ConcurrentHashMap.newKeySet();
+
+    private final StandardWebSocketClient client = new StandardWebSocketClient();
+    private final ScheduledExecutorService heartbeatExecutor;
+
+    @Autowired
+    public PeerChannelService(TransactionService transactionService, BlockService blockService, PeerService peerService,
+                              ObjectMapper objectMapper, ApplicationEventPublisher eventPublisher,
+                              @Value("${peerChannel}") boolean enabled,
+                              @Value("${peerHeartbeatInterval}") long heartbeatInterval) {
+        this.transactionService = transactionService;
+        this.blockService = blockService;
+        this.peerService = peerService;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.heartbeatInterval = heartbeatInterval;
+        this.heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("peer-heartbeat-%d").build());
+        this.heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval, heartbeatInterval,
+                TimeUnit.MILLISECONDS);
+        Metrics.gauge(MetricName.PEER_CONNECTIONS, this.peerSessions, Map::size);
+    }
+
+    /**
+     * Url de mi nodo, necesaria para presentarse a los vecinos
+     *
+     * @param localUrl url de mi nodo
+     */
+    public void setLocalUrl(URL localUrl) {
+        this.localUrl = localUrl;
+    }
+
+    /**
+     * Abrir y mantener una conexion con un vecino
+     *
+     * @param peer url del vecino
+     */
+    public void connect(URL peer) {
+        if (!this.enabled || peer.equals(this.localUrl)) {
+            return;
+        }
+        this.outboundPeers.add(peer);
+        open(peer);
+    }
+
+    /**
+     * Cerrar la conexion con un vecino y dejar de mantenerla
+     *
+     * @param peer url del vecino
+     */
+    public void disconnect(URL peer) {
+        this.outboundPeers.remove(peer);
+        WebSocketSession session = this.peerSessions.remove(peer);
+        if (session != null) {
+            close(session, CloseStatus.NORMAL);
+        }
+    }
+
+    /**
+     * Comprobar si hay una conexion abierta con un vecino
+     *
+     * @param peer url del vecino
+     * @return true si los mensajes al vecino pueden ir por el canal
+     */
+    public boolean isConnected(URL peer) {
+        WebSocketSession session = this.peerSessions.get(peer);
+        return session != null && session.isOpen();
+    }
+
+    /**
+     * Enviar un mensaje a un vecino por su conexion
+     *
+     * @param peer    url del vecino
+     * @param type    tipo de mensaje
+     * @param payload contenido, que se envia en JSON (null si no tiene)
+     * @return true si se ha enviado, false si no hay conexion abierta o el envio falla
+     */
+    public boolean send(URL peer, PeerMessageType type, Object payload) {
+        WebSocketSession session = this.peerSessions.get(peer);
+        if (session == null || !session.isOpen()) {
+            return false;
+        }
+        try {
+            send(session, type, payload);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.info("Error enviando {} a {} por el canal: {}", type, peer, e.getMessage());
+            return false;
+        }
+    }
+
+    private void send(WebSocketSession session, PeerMessageType type, Object payload) throws IOException {
+        byte[] content = payload == null ? new byte[0]
+                : payload instanceof byte[] ? (byte[]) payload : this.objectMapper.writeValueAsBytes(payload);
+        if (type == PeerMessageType.BLOCK && this.compressedSessions.contains(session.getId())) {
+            content = BlockCodec.compress(content);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(1 + content.length).put(type.getCode()).put(content);
+        session.sendMessage(new BinaryMessage(frame.flip()));
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        session.setBinaryMessageSizeLimit(MAX_MESSAGE_SIZE);
+        this.sessions.put(session.getId(), new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT,
+                2 * MAX_MESSAGE_SIZE));
+        this.lastSeen.put(session.getId(), System.currentTimeMillis());
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        WebSocketSession channel = this.sessions.get(session.getId());
+        if (channel == null) {
+            return;
+        }
+        this.lastSeen.put(session.getId(), System.currentTimeMillis());
+        ByteBuffer frame = message.getPayload();
+        PeerMessageType type = frame.hasRemaining() ? PeerMessageType.of(frame.get()) : null;
+        if (type == null) {
+            log.info("Mensaje desconocido en el canal {}", session.getId());
+            return;
+        }
+        byte[] payload = new byte[frame.remaining()];
+        frame.get(payload);
+        Metrics.counter(MetricName.PEER_MESSAGES, MetricName.TAG_TYPE, type.name()).increment();
+
+        URL sender = this.sessionPeers.get(session.getId());
+        if (sender == null && type != PeerMessageType.HELLO) {
+            log.info("Mensaje {} en el canal {} antes de HELLO", type, session.getId());
+            return;
+        }
+        switch (type) {
+            case HELLO:
+                URL peer = new URL(new String(payload, StandardCharsets.UTF_8));
+                if (!this.peerService.getPeers().contains(peer) || !isRemoteAddress(session, peer)) {
+                    log.info("HELLO rechazado en el canal {}: {} no es un vecino conocido desde {}", session.getId(),
+                            peer, session.getRemoteAddress());
+                    close(channel, CloseStatus.POLICY_VIOLATION);
+                    return;
+                }
+                register(peer, channel);
+                log.info("Canal abierto por el nodo {}", peer);
+                send(channel, PeerMessageType.COMPRESSION, null);
+                send(channel, PeerMessageType.INVENTORY, getInventory());
+                break;
+            case COMPRESSION:
+                this.compressedSessions.add(session.getId());
+                break;
+            case PING:
+                send(channel, PeerMessageType.PONG, null);
+                break;
+            case PONG:
+                Long sent = this.pingSent.remove(session.getId());
+                if (sent != null && sender != null) {
+                    this.peerService.recordSuccess(sender, System.currentTimeMillis() - sent);
+                }
+                break;
+            case TRANSACTION:
+                this.eventPublisher.publishEvent(new TransactionsReceivedEvent(
+                        List.of(this.objectMapper.readValue(payload, Transaction.class)), sender));
+                break;
+            case TRANSACTIONS:
+                this.eventPublisher.publishEvent(new TransactionsReceivedEvent(
+                        this.objectMapper.readValue(payload, new TypeReference<List<Transaction>>() {
+                        }), sender));
+                break;
+            case BLOCK:
+                this.eventPublisher.publishEvent(new BlockReceivedEvent(payload, sender));
+                break;
+            case INVENTORY:
+                List<byte[]> missing = new ArrayList<>();
+                for (byte[] hash : this.objectMapper.readValue(payload, byte[][].class)) {
+                    if (this.blockService.getBlock(hash) == null) {
+                        missing.add(hash);
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    send(channel, PeerMessageType.GET_DATA, missing);
+                }
+                break;
+            case GET_DATA:
+                for (byte[] hash : this.objectMapper.readValue(payload, byte[][].class)) {
+                    // de los bloques podados solo queda la cabecera, que no se envia como bloque
+                    Block block = this.blockService.getFullBlock(hash);
+                    if (block != null) {
+                        send(channel, PeerMessageType.BLOCK, block);
+                    }
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.info("Error en el canal {}: {}", session.getId(), exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        WebSocketSession channel = this.sessions.remove(session.getId());
+        this.lastSeen.remove(session.getId());
+        this.pingSent.remove(session.getId());
+        this.compressedSessions.remove(session.getId());
+        URL peer = this.sessionPeers.remove(session.getId());
+        if (peer != null) {
+            this.peerSessions.remove(peer, channel);
+            log.info("Canal con el nodo {} cerrado: {}", peer, status);
+        }
+    }
+
+    /**
+     * Asociar una conexion a un vecino. Si ya habia otra conexion abierta se conserva la anterior
+     */
+    private void register(URL peer, WebSocketSession channel) {
+        this.sessionPeers.put(channel.getId(), peer);
+        this.peerSessions.compute(peer, (url, current) -> current != null && current.isOpen() ? current : channel);
+    }
+
+    /**
+     * Comprobar que la url con la que se presenta un vecino corresponde a la direccion desde la que se conecta. Las
+     * direcciones locales se consideran equivalentes entre si
+     */
+    private static boolean isRemoteAddress(WebSocketSession session, URL peer) {
+        InetSocketAddress remote = session.getRemoteAddress();
+        if (remote == null || remote.getAddress() == null) {
+            return false;
+        }
+        try {
+            for (InetAddress address : InetAddress.getAllByName(peer.getHost())) {
+                if (address.equals(remote.getAddress())
+                        || address.isLoopbackAddress() && remote.getAddress().isLoopbackAddress()) {
+                    return true;
+                }
+            }
+        } catch (UnknownHostException e) {
+            log.info("No se puede resolver el nodo {}: {}", peer, e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Abrir la conexion con un vecino en segundo plano y presentarse
+     */
+    private void open(URL peer) {
+        if (this.localUrl == null || isConnected(peer) || !this.connecting.add(peer)) {
+            return;
+        }
+        String uri = "ws://" + peer.getHost() + ":" + peer.getPort() + Path.PEER;
+        this.client.doHandshake(this, uri).addCallback(session -> {
+            this.connecting.remove(peer);
+            WebSocketSession channel = this.sessions.get(session.getId());
+            if (channel == null) {
+                return;
+            }
+            register(peer, channel);
+            try {
+                send(channel, PeerMessageType.HELLO, this.localUrl.toString().getBytes(StandardCharsets.UTF_8));
+                send(channel, PeerMessageType.COMPRESSION, null);
+                log.info("Canal abierto con el nodo {}", peer);
+            } catch (IOException e) {
+                close(channel, CloseStatus.SERVER_ERROR);
+            }
+        }, e -> {
+            this.connecting.remove(peer);
+            log.info("No se puede abrir el canal con el nodo {}: {}", peer, e.getMessage());
+        });
+    }
+
+    /**
+     * Latido: enviar PING por cada conexion, cerrar las que no tienen trafico y reabrir las salientes caidas. Las
+     * conexiones con vecinos olvidados por PeerService se cierran
+     */
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (WebSocketSession channel : this.sessions.values()) {
+            Long seen = this.lastSeen.get(channel.getId());
+            if (seen == null || now - seen > MISSED_HEARTBEATS * this.heartbeatInterval) {
+                log.info("Canal {} sin respuesta, cerrando", channel.getId());
+                URL peer = this.sessionPeers.get(channel.getId());
+                if (peer != null) {
+                    this.peerService.recordFailure(peer);
+                }
+                close(channel, CloseStatus.SESSION_NOT_RELIABLE);
+                continue;
+            }
+            try {
+                this.pingSent.put(channel.getId(), now);
+                send(channel, PeerMessageType.PING, null);
+            } catch (IOException | RuntimeException e) {
+                close(channel, CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        }
+        Set<URL> known = this.peerService.getPeers();
+        for (URL peer : this.outboundPeers) {
+            if (known.contains(peer)) {
+                open(peer);
+            } else {
+                disconnect(peer);
+            }
+        }
+    }
+
+    /**
+     * Hash del ultimo bloque de la cadena principal
+     */
+    private List<byte[]> getInventory() {
+        Block tip = this.blockService.getChainView().getLastBlock();
+        return tip != null ? List.of(tip.getHash()) : List.of();
+    }
+
+    private void close(WebSocketSession session, CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            log.debug("Error cerrando el canal {}", session.getId(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.heartbeatExecutor.shutdownNow();
+        this.outboundPeers.clear();
+        for (WebSocketSession session : this.sessions.values()) {
+            close(session, CloseStatus.GOING_AWAY);
+        }
+    }
+}
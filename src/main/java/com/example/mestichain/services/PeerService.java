@@ -0,0 +1,397 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.PeerStats;
+import com.example.mestichain.utils.constants.MetricName;
+import com.example.mestichain.utils.constants.Path;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Gestion de los nodos vecinos conocidos y de sus medidas (RTT, fallos, bytes servidos):
+ * 	- El numero de vecinos conocidos esta acotado por maxPeers
+ * 	- Las transacciones se envian solo a los peerFanout vecinos con menor coste esperado y los bloques a todos los
+ * 	  vecinos disponibles; cada nodo reenvia los bloques y transacciones la primera vez que los acepta. Los vecinos
+ * 	  que fallan quedan en espera y tras peerMaxFailures fallos consecutivos se olvidan
+ * 	- Las sincronizaciones se hacen desde el vecino con mayor caudal medido; la cadena completa solo se descarga de
+ * 	  vecinos que no anuncian el modo podado
+ * Las medidas de las peticiones HTTP se toman con el interceptor del RestTemplate de los nodos; las del canal
+ * persistente, con sus latidos.
+ * Los vecinos conocidos se guardan en la libreta de direcciones (addressBook, vacio para no guardarla) para arrancar
+ * desde ellos sin depender de los nodos semilla.
+ */
+@Slf4j
+@Service
+public class PeerService {
+
+    private final int maxPeers;
+    private final int fanout;
+    private final long backoff;
+    private final int maxFailures;
+    private final String addressBook;
+
+    private final Map<URL, PeerStats> peers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PeerService(@Value("${maxPeers}") int maxPeers, @Value("${peerFanout}") int fanout,
+                       @Value("${peerBackoff}") long backoff, @Value("${peerMaxFailures}") int maxFailures,
+                       @Value("${addressBook}") String addressBook) {
+        this.maxPeers = maxPeers;
+        this.fanout = fanout;
+        this.backoff = backoff;
+        this.maxFailures = maxFailures;
+        this.addressBook = addressBook;
+        Metrics.gauge(MetricName.PEERS, this.peers, Map::size);
+    }
+
+    /**
+     * Añadir un vecino conocido si queda sitio
+     *
+     * @param url url del vecino
+     * @return true si el vecino es conocido tras la llamada
+     */
+    public synchronized boolean add(URL url) {
+        if (this.peers.containsKey(url)) {
+            return true;
+        }
+        if (this.peers.size() >= this.maxPeers) {
+            log.debug("Maximo de vecinos alcanzado, nodo {} descartado", url);
+            return false;
+        }
+        this.peers.put(url, new PeerStats(url));
+        return true;
+    }
+
+    /**
+     * Olvidar un vecino
+     *
+     * @param url url del vecino
+     */
+    public void remove(URL url) {
+        this.peers.remove(url);
+    }
+
+    /**
+     * Vecinos conocidos
+     *
+     * @return urls de los vecinos
+     */
+    public Set<URL> getPeers() {
+        return Set.copyOf(this.peers.keySet());
+    }
+
+    /**
+     * Comprobar si un nodo esta dado de alta como vecino
+     *
+     * @param url url del nodo
+     * @return true si es un vecino conocido
+     */
+    public boolean contains(URL url) {
+        return url != null && this.peers.containsKey(url);
+    }
+
+    /**
+     * Muestra aleatoria de vecinos disponibles, para repartir entre ellos las peticiones de arranque y de intercambio
+     * de vecinos
+     *
+     * @param count numero maximo de vecinos
+     * @return urls de los vecinos elegidos
+     */
+    public List<URL> sample(int count) {
+        long now = System.currentTimeMillis();
+        List<URL> available = this.peers.values().stream()
+                .filter(stats -> stats.isAvailable(now))
+                .map(PeerStats::getUrl)
+                .collect(Collectors.toCollection(ArrayList::new));
+        Collections.shuffle(available);
+        return available.subList(0, Math.min(count, available.size()));
+    }
+
+    /**
+     * Leer los vecinos guardados en la libreta de direcciones
+     *
+     * @return urls guardadas, vacia si no hay libreta
+     */
+    public List<URL> loadAddressBook() {
+        if (this.addressBook.isEmpty() || !new File(this.addressBook).isFile()) {
+            return List.of();
+        }
+        try {
+            return List.of(new ObjectMapper().readValue(new File(this.addressBook), URL[].class));
+        } catch (IOException e) {
+            log.error("Error leyendo la libreta de direcciones {}", this.addressBook, e);
+            return List.of();
+        }
+    }
+
+    /**
+     * Guardar los vecinos conocidos en la libreta de direcciones. Si no se conoce ninguno se conserva la anterior
+     */
+    public void saveAddressBook() {
+        Set<URL> known = getPeers();
+        if (this.addressBook.isEmpty() || known.isEmpty()) {
+            return;
+        }
+        try {
+            File file = new File(this.addressBook);
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            new ObjectMapper().writeValue(file, known);
+        } catch (IOException e) {
+            log.error("Error guardando la libreta de direcciones {}", this.addressBook, e);
+        }
+    }
+
+    /**
+     * Medidas de los vecinos conocidos
+     *
+     * @return medidas de cada vecino
+     */
+    public Collection<PeerStats> getStats() {
+        return List.copyOf(this.peers.values());
+    }
+
+    /**
+     * Vecinos a los que enviar un mensaje: los peerFanout disponibles con menor coste esperado
+     *
+     * @return urls de los vecinos elegidos
+     */
+    public List<URL> selectFanout() {
+        return selectFanout(null);
+    }
+
+    /**
+     * Vecinos a los que reenviar un mensaje recibido: los peerFanout disponibles con menor coste esperado, sin
+     * contar al que lo envio
+     *
+     * @param sender vecino que envio el mensaje (puede ser null)
+     * @return urls de los vecinos elegidos
+     */
+    public List<URL> selectFanout(URL sender) {
+        long now = System.currentTimeMillis();
+        return this.peers.values().stream()
+                .filter(stats -> stats.isAvailable(now) && !stats.getUrl().equals(sender))
+                .sorted(Comparator.comparingDouble(PeerStats::getScore))
+                .limit(this.fanout)
+                .map(PeerStats::getUrl)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Todos los vecinos disponibles salvo el que envio un mensaje
+     *
+     * @param sender vecino que envio el mensaje (puede ser null)
+     * @return urls de los vecinos
+     */
+    public List<URL> selectAvailable(URL sender) {
+        long now = System.currentTimeMillis();
+        return this.peers.values().stream()
+                .filter(stats -> stats.isAvailable(now) && !stats.getUrl().equals(sender))
+                .map(PeerStats::getUrl)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Vecino desde el que sincronizar: el disponible con mayor caudal medido. Para descargar la cadena completa no se
+     * usan los vecinos que anuncian el modo podado
+     *
+     * @param preferred vecino a usar si ninguno ha servido datos todavia
+     * @param fullChain true si se va a descargar la cadena completa
+     * @return url del vecino, null si ningun vecino puede servir la cadena completa
+     */
+    public URL selectSyncSource(URL preferred, boolean fullChain) {
+        long now = System.currentTimeMillis();
+        List<PeerStats> candidates = this.peers.values().stream()
+                .filter(stats -> stats.isAvailable(now) && !(fullChain && stats.isPruned()))
+                .collect(Collectors.toList());
+        return candidates.stream()
+                .filter(stats -> stats.getThroughput() > 0)
+                .max(Comparator.comparingDouble(PeerStats::getThroughput))
+                .or(() -> candidates.stream().filter(stats -> stats.getUrl().equals(preferred)).findFirst())
+                .or(() -> candidates.stream().findFirst())
+                .map(PeerStats::getUrl)
+                .orElse(null);
+    }
+
+    /**
+     * Registrar una respuesta correcta de un vecino
+     *
+     * @param url url del vecino
+     * @param rtt tiempo de respuesta en ms
+     */
+    public void recordSuccess(URL url, long rtt) {
+        PeerStats stats = this.peers.get(url);
+        if (stats != null) {
+            stats.recordSuccess(rtt);
+        }
+    }
+
+    /**
+     * Registrar un fallo de un vecino. Tras peerMaxFailures fallos consecutivos el vecino se olvida
+     *
+     * @param url url del vecino
+     * @return true si el vecino se ha olvidado
+     */
+    public boolean recordFailure(URL url) {
+        PeerStats stats = this.peers.get(url);
+        if (stats == null) {
+            return false;
+        }
+        stats.recordFailure(System.currentTimeMillis(), this.backoff);
+        if (stats.getConsecutiveFailures() >= this.maxFailures) {
+            log.info("Nodo {} olvidado tras {} fallos consecutivos", url, stats.getConsecutiveFailures());
+            this.peers.remove(url, stats);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registrar datos servidos por un vecino
+     *
+     * @param url      url del vecino
+     * @param bytes    bytes recibidos
+     * @param duration tiempo de la descarga en ms
+     */
+    public void recordServed(URL url, long bytes, long duration) {
+        PeerStats stats = this.peers.get(url);
+        if (stats != null) {
+            stats.recordServed(bytes, duration);
+        }
+    }
+
+    /**
+     * Interceptor para el RestTemplate de las peticiones a otros nodos: mide el tiempo hasta la respuesta, cuenta los
+     * errores y los bytes del cuerpo de la respuesta
+     *
+     * @return interceptor
+     */
+    public ClientHttpRequestInterceptor interceptor() {
+        return (request, body, execution) -> {
+            URL peer = toPeer(request.getURI());
+            if (peer == null || !this.peers.containsKey(peer)) {
+                return execution.execute(request, body);
+            }
+            long start = System.currentTimeMillis();
+            ClientHttpResponse response;
+            try {
+                response = execution.execute(request, body);
+            } catch (IOException e) {
+                recordFailure(peer);
+                throw e;
+            }
+            if (response.getStatusCode().is5xxServerError()) {
+                recordFailure(peer);
+                return response;
+            }
+            recordSuccess(peer, System.currentTimeMillis() - start);
+            String pruned = response.getHeaders().getFirst(Path.NODE_PRUNED_HEADER);
+            PeerStats stats = this.peers.get(peer);
+            if (pruned != null && stats != null) {
+                stats.setPruned(Boolean.parseBoolean(pruned));
+            }
+            return new MeasuredResponse(response, peer, start);
+        };
+    }
+
+    private static URL toPeer(URI uri) {
+        try {
+            return new URL(uri.getScheme(), uri.getHost(), uri.getPort(), "");
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Respuesta que cuenta los bytes leidos del cuerpo y los registra como servidos por el vecino al cerrarla
+     */
+    private class MeasuredResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+        private final URL peer;
+        private final long start;
+        private long bytes;
+
+        MeasuredResponse(ClientHttpResponse response, URL peer, long start) {
+            this.response = response;
+            this.peer = peer;
+            this.start = start;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return new FilterInputStream(this.response.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read >= 0) {
+                        bytes++;
+                    }
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) {
+                        bytes += read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return this.response.getHeaders();
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return this.response.getStatusCode();
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return this.response.getRawStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return this.response.getStatusText();
+        }
+
+        @Override
+        public void close() {
+            if (this.bytes > 0) {
+                recordServed(this.peer, this.bytes, System.currentTimeMillis() - this.start);
+            }
+            this.response.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.Blockchain;
+import com.example.mestichain.domain.RecordBalances;
+import com.example.mestichain.domain.SnapshotChunk;
+import com.example.mestichain.domain.SnapshotManifest;
+import com.example.mestichain.domain.StateSnapshot;
+import org.apache.commons.codec.binary.Base64;
+import com.example.mestichain.utils.constants.Path;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+@Slf4j
+@Service
+@Data
+public class SnapshotService {
+
+    //Instantaneas disponibles ordenadas por altura
+    private final ConcurrentNavigableMap<Integer, StateSnapshot> snapshots = new ConcurrentSkipListMap<>();
+
+    @Value("${snapshotInterval}")
+    private int snapshotInterval;
+    @Value("${snapshotChunkSize}")
+    private int snapshotChunkSize;
+    @Value("${snapshotRetention}")
+    private int snapshotRetention;
+
+    /**
+     * Tomar una instantanea del estado si la altura del ultimo bloque es multiplo del intervalo configurado
+     *
+     * @param blockchain cadena tras añadir un bloque
+     */
+    public void onBlockAdded(Blockchain blockchain) {
+        int height = blockchain.getSize() - 1;
+        if (snapshotInterval <= 0 || height <= 0 || height % snapshotInterval != 0) {
+            return;
+        }
+        snapshots.put(height, new StateSnapshot(height, blockchain.getLastBlock().getHash(), blockchain.getBalances(), snapshotChunkSize));
+        while (snapshots.size() > snapshotRetention) {
+            snapshots.pollFirstEntry();
+        }
+        log.info("Instantanea de estado tomada a altura {}", height);
+    }
+
+    /**
+     * Descartar las instantaneas a partir de una altura (bloques deshechos en una reorganizacion)
+     *
+     * @param height altura de la primera instantanea a descartar
+     */
+    public void discardFrom(int height) {
+        snapshots.tailMap(height, true).clear();
+    }
+
+    /**
+     * Obtener el manifiesto de la instantanea mas reciente
+     *
+     * @return manifiesto o null si no hay instantaneas
+     */
+    public SnapshotManifest getLatestManifest() {
+        Map.Entry<Integer, StateSnapshot> entry = snapshots.lastEntry();
+        return entry != null ? entry.getValue().getManifest() : null;
+    }
+
+    /**
+     * Obtener el manifiesto de la instantanea a una altura dada
+     *
+     * @param height altura de la instantanea
+     * @return manifiesto o null si no hay instantanea a esa altura
+     */
+    public SnapshotManifest getManifest(int height) {
+        StateSnapshot snapshot = snapshots.get(height);
+        return snapshot != null ? snapshot.getManifest() : null;
+    }
+
+    /**
+     * Obtener un fragmento de la instantanea a una altura dada
+     *
+     * @param height altura de la instantanea
+     * @param index  indice del fragmento
+     * @return fragmento o null si no existe
+     */
+    public SnapshotChunk getChunk(int height, int index) {
+        StateSnapshot snapshot = snapshots.get(height);
+        return snapshot != null ? snapshot.getChunk(index) : null;
+    }
+
+    /**
+     * Descargar de otro nodo los fragmentos de una instantanea y verificarlos contra su manifiesto. Cada fragmento
+     * se verifica con su hash y el estado completo con la raiz de estado del manifiesto.
+     *
+     * @param nodeUrl      Nodo al que pedir los fragmentos
+     * @param restTemplate RestTemplate a usar
+     * @param manifest     manifiesto de la instantanea
+     * @return saldos de la instantanea
+     */
+    public RecordBalances downloadSnapshot(URL nodeUrl, RestTemplate restTemplate, SnapshotManifest manifest) throws Exception {
+        List<byte[]> chunkHashes = manifest.getChunkHashes();
+        RecordBalances balances = new RecordBalances();
+        for (int i = 0; i < chunkHashes.size(); i++) {
+            SnapshotChunk chunk = restTemplate.getForObject(nodeUrl.toString() + Path.SNAPSHOT + "/" + manifest.getHeight()
+                    + Path.SNAPSHOT_CHUNK + "/" + i, SnapshotChunk.class);
+            if (chunk == null || !Arrays.equals(chunk.calculateHash(), chunkHashes.get(i))) {
+                throw new Exception("Fragmento " + i + " de la instantanea invalido");
+            }
+            chunk.getAccounts().forEach((address, balance) -> balances.setAccountBalance(Base64.decodeBase64(address), balance));
+        }
+
+        if (balances.getBalances().size() != manifest.getAccounts()) {
+            throw new Exception("Numero de cuentas de la instantanea invalido");
+        }
+        if (!Arrays.equals(balances.getStateRoot(), manifest.getStateRoot())) {
+            throw new Exception("La raiz de estado de la instantanea no coincide con sus fragmentos");
+        }
+        log.info("Instantanea de altura {} descargada de nodo: {}", manifest.getHeight(), nodeUrl);
+        return balances;
+    }
+}
@@ -1,41 +1,179 @@
 package com.example.mestichain.services;
 
+import com.example.mestichain.domain.SignatureCache;
 import com.example.mestichain.domain.Transaction;
 import com.example.mestichain.domain.TransactionPool;
+import com.example.mestichain.domain.TransactionResult;
+import com.example.mestichain.events.NewTransactionEvent;
+import com.example.mestichain.utils.constants.MetricName;
 import com.example.mestichain.utils.constants.Path;
+import io.micrometer.core.instrument.Metrics;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 @Slf4j
 @Service
 @Data
 public class TransactionService {
 
+    //Cada cuantas transacciones añadidas se traza un resumen del pool
+    private static final long LOG_SAMPLE = 1000;
+
+    //Numero maximo de transacciones en un envio por lotes
+    @Value("${maxTransactionsPerBatch}")
+    private int maxTransactionsPerBatch;
+
     // Pool de transacciones con transacciones pendientes de ser incluidas en un bloque
     private TransactionPool transactionPool = new TransactionPool();
+    //Publicacion de eventos del pool (nueva transaccion)
+    private final ApplicationEventPublisher eventPublisher;
+    //Firmas ya verificadas, compartidas con la validacion de bloques
+    private final SignatureCache signatureCache;
+    //Transacciones añadidas al pool desde el arranque
+    private final AtomicLong added = new AtomicLong();
+    //Siguiente nonce de cada cuenta segun la cadena principal, lo proporciona BlockService
+    private Function<byte[], Long> accountNonces = address -> 0L;
 
     @Autowired
-    public TransactionService() {
+    public TransactionService(ApplicationEventPublisher eventPublisher, SignatureCache signatureCache) {
+        this.eventPublisher = eventPublisher;
+        this.signatureCache = signatureCache;
+        Metrics.gauge(MetricName.POOL_SIZE, this, service -> service.getTransactionPool().getPool().size());
+        Metrics.gauge(MetricName.POOL_BYTES, this, service -> service.getTransactionPool().getBytes());
     }
 
     /**
-     * Añadir transaccion al pool
+     * Añadir transaccion al pool. Las transacciones repetidas o con un nonce ya usado se rechazan antes de verificar
+     * la firma
      *
      * @param transaction Transaccion a ser añadida
-     * @return true si la transaccion es valida y es añadida al pool
+     * @return true si la transaccion es valida y nueva en el pool
      */
     public boolean add(Transaction transaction) {
-        return transactionPool.add(transaction);
+        String conflict = getConflict(transaction);
+        if (conflict != null) {
+            log.debug("Transaccion no añadida al pool ({}): {}", conflict, transaction);
+            return false;
+        }
+        if (transactionPool.add(transaction, signatureCache)) {
+            if (this.added.incrementAndGet() % LOG_SAMPLE == 0) {
+                log.info("{} transacciones añadidas al pool desde el arranque: {}", this.added.get(), this.transactionPool);
+            }
+            eventPublisher.publishEvent(new NewTransactionEvent(transaction));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Añadir un lote de transacciones al pool. Las firmas se verifican en paralelo y las transacciones validas se
+     * insertan en el pool en una sola operacion.
+     *
+     * @param transactions Transacciones a ser añadidas
+     * @return resultado de cada transaccion, en el mismo orden que el lote
+     */
+    public List<TransactionResult> addAll(List<Transaction> transactions) {
+        // solo se verifican las firmas de las transacciones que pueden entrar en el pool
+        String[] rejections = new String[transactions.size()];
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = getConflict(transactions.get(i));
+        }
+        IntStream.range(0, rejections.length).parallel()
+                .filter(i -> rejections[i] == null)
+                .forEach(i -> rejections[i] = verify(transactions.get(i)));
+
+        List<Transaction> valid = new ArrayList<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            if (rejections[i] == null) {
+                valid.add(transactions.get(i));
+            }
+        }
+        Iterator<Boolean> added = transactionPool.addAll(valid).iterator();
+
+        List<TransactionResult> results = new ArrayList<>(transactions.size());
+        List<Transaction> accepted = new ArrayList<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction transaction = transactions.get(i);
+            String reason = rejections[i];
+            if (TransactionResult.DUPLICATE.equals(reason)) {
+                results.add(new TransactionResult(transaction.getHash(), true, TransactionResult.DUPLICATE));
+            } else if (reason != null) {
+                results.add(new TransactionResult(transaction.getHash(), false, reason));
+            } else if (added.next()) {
+                results.add(new TransactionResult(transaction.getHash(), true, null));
+                accepted.add(transaction);
+            } else {
+                results.add(new TransactionResult(transaction.getHash(), true, TransactionResult.DUPLICATE));
+            }
+        }
+
+        log.info("Lote de {} transacciones: {} nuevas en el pool, {} rechazadas", transactions.size(), accepted.size(),
+                transactions.size() - valid.size());
+        for (Transaction transaction : accepted) {
+            eventPublisher.publishEvent(new NewTransactionEvent(transaction));
+        }
+        return results;
+    }
+
+    /**
+     * Transacciones de un lote que han entrado nuevas en el pool, las unicas que se propagan para no reenviar lo que
+     * ya circula por la red
+     *
+     * @param transactions Transacciones del lote
+     * @param results      resultado de cada transaccion, devuelto por addAll
+     * @return transacciones nuevas en el pool, en el orden del lote
+     */
+    public List<Transaction> getNew(List<Transaction> transactions, List<TransactionResult> results) {
+        List<Transaction> added = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).isAccepted() && results.get(i).getReason() == null) {
+                added.add(transactions.get(i));
+            }
+        }
+        return added;
     }
 
     /**
-     * Eliminar una transacción del pool
+     * Motivo por el que una transaccion no puede entrar en el pool sin llegar a verificar su firma: coinbase,
+     * repetida, con un nonce ya usado en la cadena o con el mismo nonce que otra transaccion del pool
+     *
+     * @param transaction Transaccion a comprobar
+     * @return motivo o null si la transaccion puede añadirse
+     */
+    private String getConflict(Transaction transaction) {
+        if (transaction.isCoinbase()) {
+            Metrics.counter(MetricName.TRANSACTION_REJECTED, MetricName.TAG_REASON, TransactionResult.COINBASE)
+                    .increment();
+            return TransactionResult.COINBASE;
+        }
+        if (transaction.getSender() == null) {
+            // la verificacion la rechaza como invalid_sender
+            return null;
+        }
+        String conflict = transactionPool.getConflict(transaction, accountNonces.apply(transaction.getSender()));
+        if (conflict != null) {
+            Metrics.counter(MetricName.TRANSACTION_REJECTED, MetricName.TAG_REASON, conflict).increment();
+        }
+        return conflict;
+    }
+
+    /**
+     * Eliminar una transacción del pool al incluirse en un bloque, junto con las del mismo emisor que ya no pueden
+     * incluirse
      *
      * @param transaction Transaccion a ser eliminada
      */
@@ -54,14 +192,38 @@ public class TransactionService {
     }
 
     /**
-     * Descargar pool de transacciones desde otro nodo
+     * Transacciones de una lista que no estan en el pool
+     *
+     * @param transactions Transacciones a ser verificadas
+     * @return transacciones que no están en el pool, en el mismo orden
+     */
+    public List<Transaction> getMissing(Collection<Transaction> transactions) {
+        return transactionPool.getMissing(transactions);
+    }
+
+    /**
+     * Verificar el hash y la firma de una transaccion, reutilizando las firmas ya verificadas
+     *
+     * @param transaction Transaccion a ser verificada
+     * @return motivo del rechazo o null si la transaccion es valida
+     */
+    public String verify(Transaction transaction) {
+        return transaction.verify(signatureCache);
+    }
+
+    /**
+     * Descargar pool de transacciones desde otro nodo. Las transacciones descargadas se verifican como cualquier
+     * otro lote antes de entrar en el pool
      *
      * @param nodeUrl Nodo al que pedir las transacciones
      * @param restTemplate RestTemplate a usar
      */
     public void getTransactionPool(URL nodeUrl, RestTemplate restTemplate) {
-        this.transactionPool = restTemplate.getForObject(nodeUrl.toString() + Path.TRANSACTION,
+        TransactionPool downloaded = restTemplate.getForObject(nodeUrl.toString() + Path.TRANSACTION,
                 TransactionPool.class);
+        if (downloaded != null) {
+            addAll(new ArrayList<>(downloaded.getPool()));
+        }
     }
 
 
@@ -0,0 +1,228 @@
+package com.example.mestichain.utils;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresion de bloques y cadenas en JSON para enviarlos entre nodos. Se usa deflate con un diccionario predefinido
+ * que contiene los nombres de los campos y los parametros de dominio DSA, que se repiten en la codificacion X.509 de
+ * todas las claves publicas: asi incluso un bloque con una sola transaccion se comprime bien.
+ * El formato es un byte MAGIC seguido de los datos en deflate sin cabecera; como el JSON nunca empieza por ese byte,
+ * el receptor distingue los datos comprimidos de los que no lo estan.
+ * Cada nodo anuncia que admite el formato (COMPRESSION en el canal entre nodos, Accept-Encoding en HTTP), de forma
+ * que solo se envian datos comprimidos a los vecinos que los entienden.
+ */
+public class BlockCodec {
+
+    //Valor de Accept-Encoding / Content-Encoding para el formato
+    public static final String ENCODING = "x-block-deflate";
+    //Tamaño maximo de un bloque descomprimido, igual que el de un mensaje del canal entre nodos. Limita la memoria
+    //que puede ocupar un bloque comprimido enviado por cualquiera (POST /block)
+    public static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+    //Tamaño maximo de una cadena o rango de bloques descomprimido, solo para respuestas pedidas por este nodo
+    public static final int MAX_CHAIN_SIZE = 256 * 1024 * 1024;
+
+    private static final byte MAGIC = 1;
+    private static final int BUFFER_SIZE = 8192;
+
+    //Parametros de dominio DSA (p, q, g) de las claves publicas en Base64, alineados a partir del byte 6 de la clave
+    private static final String DSA_PARAMETERS = "ASwGByqGSM44BAEwggEfAoGBAP1/U4EddRIpUt9KnC7s5Of2EbdSPO9EAMMeP4C2USZpRV1AIl"
+            + "H7WT2NWPq/xfW6MPbLm1Vs14E7gB00b/JmYLdrmVClpJ+f6AR7ECLCT7up1/63xhv4O1fnxqimFQ8E+4P208UewwI1VBNaFpEy9nXzrith1yr"
+            + "v8iIDGZ3RSAHHAhUAl2BQjxUjC8yykrmCouuEC/BYHPUCgYEA9+GghdabPd7LvKtcNrhXuXmUr7v6OuqC+VdMCz0HgmdRWVeOutRZT+ZxBxCB"
+            + "gLRJFnEj6EwoFhO3zwkyjMim4TwWeotUfI0o4KOuHiuzpnWRbqN/C/ohNWLx+2J6ASQ7zKTxvqhRkImog9/hWuWfBpKLZl6Ae1UlZAFMO/7P";
+
+    //Un bloque con una coinbase y una transaccion de plantilla; lo mas frecuente va al final, donde las referencias
+    //son mas cortas
+    private static final byte[] DICTIONARY = ("{\"hash\":\"\",\"previousHash\":\"\",\"timestamp\":,\"nonce\":,"
+            + "\"merkleRoot\":\"\",\"stateRoot\":\"\",\"target\":\"AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=\","
+            + "\"transactions\":[{\"coinbaseAmount\":0,\"hash\":\"\",\"sender\":null,\"recipient\":\"\",\"amount\":10,"
+            + "\"signature\":null,\"timestamp\":,\"nonce\":0,\"extraNonce\":0,\"coinbase\":true},"
+            + "{\"coinbaseAmount\":0,\"hash\":\"\",\"sender\":\"MIIBtzCC" + DSA_PARAMETERS + "\",\"recipient\":\"MIIBtzCC\","
+            + "\"amount\":,\"signature\":\"MC0CF\",\"timestamp\":,\"nonce\":,\"extraNonce\":0,\"coinbase\":false}],"
+            + "\"leadingZeros\":0}")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private BlockCodec() {
+    }
+
+    /**
+     * Comprimir datos en JSON
+     *
+     * @param data datos a comprimir
+     * @return datos comprimidos, empezando por MAGIC
+     */
+    public static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            out.write(MAGIC);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Comprobar si unos datos estan comprimidos
+     *
+     * @param data datos recibidos
+     * @return true si empiezan por MAGIC
+     */
+    public static boolean isCompressed(byte[] data) {
+        return data.length > 0 && data[0] == MAGIC;
+    }
+
+    /**
+     * Descomprimir datos si estan comprimidos
+     *
+     * @param data    datos recibidos, comprimidos o en JSON
+     * @param maxSize tamaño maximo de los datos descomprimidos
+     * @return datos en JSON
+     */
+    public static byte[] decode(byte[] data, int maxSize) throws IOException {
+        return isCompressed(data) ? decompress(data, maxSize) : data;
+    }
+
+    /**
+     * Descomprimir datos
+     *
+     * @param data    datos comprimidos, empezando por MAGIC
+     * @param maxSize tamaño maximo de los datos descomprimidos
+     * @return datos descomprimidos
+     */
+    public static byte[] decompress(byte[] data, int maxSize) throws IOException {
+        if (!isCompressed(data)) {
+            throw new IOException("Los datos no estan comprimidos");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY);
+            // sin cabecera zlib el inflater necesita un byte adicional al final de los datos
+            inflater.setInput(Arrays.copyOfRange(data, 1, data.length + 1));
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(data.length * 3L, maxSize));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsInput()) {
+                    throw new IOException("Datos comprimidos incompletos");
+                }
+                if (out.size() + length > maxSize) {
+                    throw new IOException("Datos descomprimidos demasiado grandes");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Datos comprimidos invalidos", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Comprobar si una peticion HTTP admite el formato
+     *
+     * @param acceptEncoding valor de la cabecera Accept-Encoding (puede ser null)
+     * @return true si incluye ENCODING
+     */
+    public static boolean isAccepted(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String encoding : acceptEncoding.split(",")) {
+            if (encoding.trim().split(";")[0].equalsIgnoreCase(ENCODING)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Interceptor para el RestTemplate de las peticiones a otros nodos: anuncia que se admite el formato y
+     * descomprime las respuestas que llegan comprimidas
+     *
+     * @return interceptor
+     */
+    public static ClientHttpRequestInterceptor interceptor() {
+        return (request, body, execution) -> {
+            request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, ENCODING);
+            ClientHttpResponse response = execution.execute(request, body);
+            if (!ENCODING.equalsIgnoreCase(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))) {
+                return response;
+            }
+            byte[] decoded;
+            try (InputStream in = response.getBody()) {
+                decoded = decompress(in.readAllBytes(), MAX_CHAIN_SIZE);
+            } finally {
+                response.close();
+            }
+            return new DecodedResponse(response, decoded);
+        };
+    }
+
+    /**
+     * Respuesta con el cuerpo ya descomprimido
+     */
+    private static class DecodedResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+        private final HttpHeaders headers = new HttpHeaders();
+        private final byte[] body;
+
+        DecodedResponse(ClientHttpResponse response, byte[] body) {
+            this.response = response;
+            this.body = body;
+            this.headers.putAll(response.getHeaders());
+            this.headers.remove(HttpHeaders.CONTENT_ENCODING);
+            this.headers.setContentLength(body.length);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(this.body);
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return this.headers;
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return this.response.getStatusCode();
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return this.response.getRawStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return this.response.getStatusText();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
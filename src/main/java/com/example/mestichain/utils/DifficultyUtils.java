@@ -0,0 +1,73 @@
+package com.example.mestichain.utils;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+public class DifficultyUtils {
+
+    //Objetivo maximo (dificultad minima): cualquier hash lo cumple
+    private static final BigInteger MAX_TARGET = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+    //Factor maximo de ajuste del objetivo en cada reajuste
+    private static final int MAX_ADJUSTMENT = 4;
+
+    private DifficultyUtils() {
+    }
+
+    /**
+     * Objetivo equivalente a exigir un numero de bytes a cero al principio del hash
+     *
+     * @param leadingZeroBytes numero de bytes a cero
+     * @return objetivo de 32 bytes
+     */
+    public static byte[] initialTarget(int leadingZeroBytes) {
+        return toBytes(MAX_TARGET.shiftRight(8 * leadingZeroBytes));
+    }
+
+    /**
+     * Reajustar el objetivo en funcion del tiempo que han tardado en minarse los ultimos bloques
+     *
+     * @param target   objetivo actual
+     * @param actual   tiempo real entre el primer y el ultimo bloque de la ventana (ms)
+     * @param expected tiempo esperado entre el primer y el ultimo bloque de la ventana (ms)
+     * @return nuevo objetivo de 32 bytes
+     */
+    public static byte[] retarget(byte[] target, long actual, long expected) {
+        if (expected <= 0) {
+            return target;
+        }
+        // limitar el ajuste para evitar cambios bruscos
+        actual = Math.max(expected / MAX_ADJUSTMENT, Math.min(expected * MAX_ADJUSTMENT, actual));
+        BigInteger newTarget = new BigInteger(1, target).multiply(BigInteger.valueOf(actual)).divide(BigInteger.valueOf(expected));
+        return toBytes(newTarget.max(BigInteger.ONE).min(MAX_TARGET));
+    }
+
+    /**
+     * Trabajo esperado para encontrar un hash que cumpla un objetivo: 2^256 / (objetivo + 1)
+     *
+     * @param target objetivo de 32 bytes
+     * @return numero esperado de hashes
+     */
+    public static BigInteger getWork(byte[] target) {
+        return BigInteger.ONE.shiftLeft(256).divide(new BigInteger(1, target).add(BigInteger.ONE));
+    }
+
+    /**
+     * Comprobar si un hash cumple un objetivo, comparando ambos como enteros sin signo de 256 bits
+     *
+     * @param hash   hash de 32 bytes
+     * @param target objetivo de 32 bytes
+     * @return true si hash <= objetivo
+     */
+    public static boolean meetsTarget(byte[] hash, byte[] target) {
+        return Arrays.compareUnsigned(hash, target) <= 0;
+    }
+
+    private static byte[] toBytes(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] result = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, result, 32 - length, length);
+        return result;
+    }
+}
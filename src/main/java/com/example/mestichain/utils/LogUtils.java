@@ -0,0 +1,41 @@
+package com.example.mestichain.utils;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Utilidades para trazas: identificadores cortos en lugar de volcar hashes y claves completos
+ */
+public class LogUtils {
+
+    //Bytes del hash que se muestran en las trazas
+    private static final int SHORT_HASH_BYTES = 4;
+
+    /**
+     * Prefijo hexadecimal de un hash o clave, suficiente para identificarlo en las trazas
+     *
+     * @param hash hash o clave publica
+     * @return primeros bytes en hexadecimal o "null"
+     */
+    public static String shortHash(byte[] hash) {
+        if (hash == null) {
+            return "null";
+        }
+        char[] chars = Hex.encodeHex(hash, 0, Math.min(hash.length, SHORT_HASH_BYTES), true);
+        return new String(chars);
+    }
+
+    /**
+     * Sufijo hexadecimal de una clave publica. Las claves codificadas comparten la cabecera, por lo que se muestran
+     * sus ultimos bytes
+     *
+     * @param key clave publica codificada
+     * @return ultimos bytes en hexadecimal o "null"
+     */
+    public static String shortKey(byte[] key) {
+        if (key == null) {
+            return "null";
+        }
+        int length = Math.min(key.length, SHORT_HASH_BYTES);
+        return new String(Hex.encodeHex(key, key.length - length, length, true));
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.mestichain.utils;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+public class MerkleUtils {
+
+    private MerkleUtils() {
+    }
+
+    /**
+     * Calcular la raiz del arbol de merkle formado por una lista de hashes
+     *
+     * @param hashes hashes de las hojas del arbol, en orden
+     * @return Hash SHA256 raiz, o null si la lista esta vacia
+     */
+    public static byte[] calculateRoot(List<byte[]> hashes) {
+        Queue<byte[]> hashesQueue = new LinkedList<>(hashes);
+        while (hashesQueue.size() > 1) {
+            // calcular hash a partir de dos hashes previos
+            byte[] info = ArrayUtils.addAll(hashesQueue.poll(), hashesQueue.poll());
+            // añadir hash calculado a la cola
+            hashesQueue.add(DigestUtils.sha256(info));
+        }
+        return hashesQueue.poll();
+    }
+}
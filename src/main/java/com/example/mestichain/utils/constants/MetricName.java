@@ -0,0 +1,28 @@
+package com.example.mestichain.utils.constants;
+
+public class MetricName {
+
+    public static final String BLOCK_ADD = "mestichain.block.add";
+    public static final String BLOCK_VALIDATE = "mestichain.block.validate";
+    public static final String BLOCK_REJECTED = "mestichain.block.rejected";
+    public static final String BLOCK_QUEUED = "mestichain.block.queued";
+    public static final String CHAIN_HEIGHT = "mestichain.chain.height";
+    public static final String TRANSACTION_VERIFY = "mestichain.transaction.verify";
+    public static final String TRANSACTION_REJECTED = "mestichain.transaction.rejected";
+    public static final String SIGNATURE_CACHE = "mestichain.signature.cache";
+    public static final String POOL_SIZE = "mestichain.pool.size";
+    public static final String POOL_BYTES = "mestichain.pool.bytes";
+    public static final String MINING_HASHES = "mestichain.mining.hashes";
+    public static final String MINING_HASH_RATE = "mestichain.mining.hashrate";
+    public static final String BROADCAST = "mestichain.broadcast";
+    public static final String PEERS = "mestichain.peers";
+    public static final String PEER_CONNECTIONS = "mestichain.peer.connections";
+    public static final String PEER_MESSAGES = "mestichain.peer.messages";
+
+    //Etiquetas
+    public static final String TAG_REASON = "reason";
+    public static final String TAG_RESULT = "result";
+    public static final String TAG_ENDPOINT = "endpoint";
+    public static final String TAG_TRANSPORT = "transport";
+    public static final String TAG_TYPE = "type";
+}
@@ -5,8 +5,29 @@ public class Path {
     public static final String ROOT = "/";
     public static final String NODE = "/node";
     public static final String NODE_IP = "/ip";
+    public static final String NODE_PEERS = "/peers";
     public static final String BLOCK = "/block";
+    public static final String BLOCK_HEADERS = "/headers";
+    public static final String BLOCK_RANGE = "/range";
+    public static final String BLOCK_HEIGHT = "/height";
     public static final String TRANSACTION = "/transaction";
+    public static final String TRANSACTION_ADDRESS = "/address";
+    public static final String TRANSACTION_BATCH = "/batch";
+    public static final String SNAPSHOT = "/snapshot";
+    public static final String SNAPSHOT_CHUNK = "/chunk";
+    public static final String BALANCE = "/balance";
+    public static final String STATE = "/state";
+    public static final String STATE_PROOF = "/proof";
+    public static final String MINING = "/mining";
+    public static final String MINING_WORK = "/work";
+    public static final String MINING_SHARE = "/share";
+    public static final String DEBUG = "/debug";
+    public static final String PEER = "/peer";
 
     public static final String BLOCKCHAIN = "/blockChain";
+
+    //Cabecera con la url del nodo que envia una peticion a otro nodo
+    public static final String NODE_HEADER = "X-Node-Url";
+    //Cabecera con la que un nodo indica en sus respuestas si esta en modo podado (no conserva toda la historia)
+    public static final String NODE_PRUNED_HEADER = "X-Node-Pruned";
 }
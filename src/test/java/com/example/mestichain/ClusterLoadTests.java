@@ -0,0 +1,271 @@
+package com.example.mestichain;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.utils.SignatureUtils;
+import com.example.mestichain.utils.constants.Path;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueba de carga de extremo a extremo sobre una red local de nodos (LocalCluster). Se envian transacciones firmadas
+ * a un ritmo fijo, repartidas entre los nodos, y se mide:
+ * 	- Latencia de confirmacion: desde el envio hasta que se mina el bloque que incluye la transaccion en la cadena del
+ * 	  primer nodo
+ * 	- Bloques por minuto en la cadena del primer nodo
+ * 	- Retardo de propagacion: desde que se mina un bloque hasta que lo ve cada uno del resto de nodos
+ * 	- CPU de cada nodo durante la carga
+ * Se configura con propiedades del sistema, por ejemplo:
+ * mvn test -Pbenchmark -Dtest=ClusterLoadTests -Dcluster.nodes=5 -Dcluster.rate=50 -Dcluster.duration=120
+ * 	-Dcluster.properties=maxTransactionsPerBlock=500,targetBlockTime=10000
+ */
+@Tag("benchmark")
+class ClusterLoadTests {
+
+	private static final int NODES = Integer.getInteger("cluster.nodes", 3);
+	//Transacciones por segundo
+	private static final int RATE = Integer.getInteger("cluster.rate", 20);
+	//Duracion de la carga en segundos
+	private static final int DURATION = Integer.getInteger("cluster.duration", 60);
+	private static final int SENDERS = Integer.getInteger("cluster.senders", 20);
+	//Configuracion de los nodos, separada por comas
+	private static final String[] NODE_PROPERTIES = System.getProperty("cluster.properties",
+			"maxTransactionsPerBlock=100,targetBlockTime=5000,difficulty=2").split(",");
+	//Espera maxima (ms) tras la carga para que se confirmen las ultimas transacciones
+	private static final long DRAIN = Long.getLong("cluster.drain", 30000);
+	//Resolucion (ms) de las consultas de nuevos bloques
+	private static final long POLL_INTERVAL = 20;
+
+	private final RestTemplate restTemplate = new RestTemplate();
+
+	//Momento de envio de cada transaccion, por hash en Base64
+	private final Map<String, Long> submitted = new ConcurrentHashMap<>();
+	//Momento en que se mino cada bloque, por hash en Base64
+	private final Map<String, Long> blocksMined = new ConcurrentHashMap<>();
+	//Momento en que cada nodo ve cada bloque, por hash en Base64
+	private final List<Map<String, Long>> blocksSeen = new ArrayList<>();
+
+	private volatile boolean polling = true;
+
+	@Test
+	public void clusterThroughput() throws Exception {
+		List<Transaction> transactions = signedTransactions(RATE * DURATION);
+
+		try (LocalCluster cluster = new LocalCluster(NODES, NODE_PROPERTIES)) {
+			long pollStart = System.currentTimeMillis();
+			List<Thread> pollers = new ArrayList<>();
+			for (int node = 0; node < NODES; node++) {
+				Map<String, Long> seen = new ConcurrentHashMap<>();
+				blocksSeen.add(seen);
+				pollers.add(poll(cluster.getUrl(node), seen));
+			}
+			int startHeight = restTemplate.getForObject(cluster.getUrl(0) + Path.BLOCK + Path.BLOCK_HEADERS,
+					Block[].class).length;
+			long[] cpuStart = new long[NODES];
+			for (int node = 0; node < NODES; node++) {
+				cpuStart[node] = cluster.getCpuTime(node).toMillis();
+			}
+
+			long start = System.currentTimeMillis();
+			Map<String, Integer> rejected = send(cluster, transactions);
+			long end = System.currentTimeMillis();
+			long[] cpu = new long[NODES];
+			for (int node = 0; node < NODES; node++) {
+				cpu[node] = cluster.getCpuTime(node).toMillis() - cpuStart[node];
+			}
+
+			// dar tiempo a que se confirmen las ultimas transacciones enviadas
+			long deadline = end + DRAIN;
+			List<Block> blocks = blocks(cluster.getUrl(0), startHeight);
+			while (confirmations(blocks).size() < submitted.size() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1000);
+				blocks = blocks(cluster.getUrl(0), startHeight);
+			}
+			polling = false;
+			for (Thread poller : pollers) {
+				poller.join();
+			}
+
+			Map<String, Long> confirmed = confirmations(blocks);
+			List<Long> latencies = new ArrayList<>();
+			confirmed.forEach((hash, time) -> latencies.add(time - submitted.get(hash)));
+			long blocksDuringLoad = blocks.stream()
+					.filter(block -> block.getTimestamp() >= start && block.getTimestamp() <= end)
+					.count();
+			long elapsed = end - start;
+			System.out.printf("Red de %d nodos, %d tx/s durante %d s: %d enviadas, %d confirmadas, rechazadas %s%n",
+					NODES, RATE, elapsed / 1000, submitted.size(), confirmed.size(), rejected);
+			System.out.printf("Latencia de confirmacion (ms): %s%n", percentiles(latencies));
+			System.out.printf("Bloques por minuto: %.1f%n", blocksDuringLoad * 60000.0 / elapsed);
+			System.out.printf("Retardo de propagacion de bloques (ms): %s%n", percentiles(propagationDelays(pollStart)));
+			for (int node = 0; node < NODES; node++) {
+				System.out.printf("CPU nodo %d (%s): %.0f%%%n", node, cluster.getUrl(node), cpu[node] * 100.0 / elapsed);
+			}
+			assertTrue(confirmed.size() > 0);
+		}
+	}
+
+	/**
+	 * Bloques de la cadena de un nodo a partir de una altura
+	 */
+	private List<Block> blocks(String url, int from) {
+		return List.of(restTemplate.getForObject(url + Path.BLOCK + Path.BLOCK_RANGE + "?from=" + from, Block[].class));
+	}
+
+	/**
+	 * Momento de confirmacion de las transacciones enviadas: el momento en que se mino el bloque que las incluye.
+	 * Todos los nodos comparten el reloj de la maquina
+	 */
+	private Map<String, Long> confirmations(List<Block> blocks) {
+		Map<String, Long> confirmed = new HashMap<>();
+		for (Block block : blocks) {
+			for (Transaction transaction : block.getTransactions()) {
+				String hash = Base64.encodeBase64String(transaction.getHash());
+				if (submitted.containsKey(hash)) {
+					confirmed.putIfAbsent(hash, block.getTimestamp());
+				}
+			}
+		}
+		return confirmed;
+	}
+
+	/**
+	 * Enviar las transacciones al ritmo configurado, cada una a un nodo distinto
+	 *
+	 * @return numero de transacciones rechazadas por los nodos, por error
+	 */
+	private Map<String, Integer> send(LocalCluster cluster, List<Transaction> transactions) throws InterruptedException {
+		Map<String, Integer> rejected = new ConcurrentHashMap<>();
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService senders = Executors.newFixedThreadPool(16);
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+		ticker.scheduleAtFixedRate(() -> {
+			int index = next.getAndIncrement();
+			if (index >= transactions.size()) {
+				return;
+			}
+			senders.execute(() -> {
+				Transaction transaction = transactions.get(index);
+				String hash = Base64.encodeBase64String(transaction.getHash());
+				submitted.put(hash, System.currentTimeMillis());
+				try {
+					restTemplate.postForLocation(cluster.getUrl(index % cluster.size()) + Path.TRANSACTION + "?propagate=true",
+							transaction);
+				} catch (RestClientException e) {
+					submitted.remove(hash);
+					rejected.merge(e.getMessage(), 1, Integer::sum);
+				}
+			});
+		}, 0, 1000000 / RATE, TimeUnit.MICROSECONDS);
+		while (next.get() < transactions.size()) {
+			Thread.sleep(100);
+		}
+		ticker.shutdown();
+		senders.shutdown();
+		senders.awaitTermination(1, TimeUnit.MINUTES);
+		return rejected;
+	}
+
+	/**
+	 * Consultar los bloques nuevos de un nodo por altura y anotar cuando se ven
+	 */
+	private Thread poll(String url, Map<String, Long> seen) {
+		Thread poller = new Thread(() -> {
+			int height = 0;
+			while (polling) {
+				try {
+					Block block = restTemplate.getForObject(url + Path.BLOCK + Path.BLOCK_HEIGHT + "/" + height, Block.class);
+					String hash = Base64.encodeBase64String(block.getHash());
+					seen.putIfAbsent(hash, System.currentTimeMillis());
+					blocksMined.putIfAbsent(hash, block.getTimestamp());
+					height++;
+				} catch (RestClientException e) {
+					// aun no hay bloque a esa altura
+					sleep();
+				}
+			}
+		});
+		poller.start();
+		return poller;
+	}
+
+	/**
+	 * Para cada bloque minado durante la prueba y visto por todos los nodos, tiempo desde que se mino hasta que lo ve
+	 * cada uno de los nodos salvo el que lo mino
+	 */
+	private List<Long> propagationDelays(long from) {
+		List<Long> delays = new ArrayList<>();
+		blocksMined.forEach((hash, mined) -> {
+			if (mined < from) {
+				return;
+			}
+			List<Long> times = new ArrayList<>();
+			for (Map<String, Long> seen : blocksSeen) {
+				if (seen.containsKey(hash)) {
+					times.add(seen.get(hash) - mined);
+				}
+			}
+			if (times.size() == NODES) {
+				Collections.sort(times);
+				delays.addAll(times.subList(1, NODES));
+			}
+		});
+		return delays;
+	}
+
+	private static String percentiles(List<Long> values) {
+		if (values.isEmpty()) {
+			return "sin datos";
+		}
+		Collections.sort(values);
+		return String.format("p50 %d, p90 %d, p99 %d, max %d", percentile(values, 50), percentile(values, 90),
+				percentile(values, 99), values.get(values.size() - 1));
+	}
+
+	private static long percentile(List<Long> sorted, int percentile) {
+		return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100));
+	}
+
+	private static List<Transaction> signedTransactions(int count) throws Exception {
+		List<KeyPair> senders = new ArrayList<>();
+		for (int i = 0; i < SENDERS; i++) {
+			senders.add(SignatureUtils.generateKeyPair());
+		}
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		List<Transaction> transactions = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			KeyPair sender = senders.get(i % SENDERS);
+			// las cuentas nuevas no tienen saldo: transacciones de importe 0 con nonces consecutivos por emisor
+			Transaction transaction = new Transaction(sender.getPublic().getEncoded(), recipient, 0, i / SENDERS);
+			transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+			transactions.add(transaction);
+		}
+		return transactions;
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(POLL_INTERVAL);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
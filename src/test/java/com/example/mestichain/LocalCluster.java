@@ -0,0 +1,135 @@
+package com.example.mestichain;
+
+import com.example.mestichain.utils.constants.Path;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Red de prueba: N nodos lanzados como procesos independientes en puertos locales, todos con el primero como nodo
+ * semilla (masterNodeUrl). Al ser procesos independientes se puede medir el uso de CPU de cada nodo.
+ * Las trazas de cada nodo se escriben en target/cluster/node-N.log
+ */
+public class LocalCluster implements AutoCloseable {
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<String> urls = new ArrayList<>();
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    /**
+     * Lanzar los nodos y esperar a que todos conozcan al resto
+     *
+     * @param nodes      numero de nodos
+     * @param properties propiedades de configuracion de los nodos (clave=valor)
+     */
+    public LocalCluster(int nodes, String... properties) throws Exception {
+        try {
+            start(nodes, properties);
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void start(int nodes, String... properties) throws Exception {
+        File logs = new File("target", "cluster");
+        logs.mkdirs();
+        int seedPort = freePort();
+        String seed = "http://localhost:" + seedPort;
+        for (int i = 0; i < nodes; i++) {
+            int port = i == 0 ? seedPort : freePort();
+            List<String> command = new ArrayList<>(List.of(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-Dspring.devtools.restart.enabled=false", "-cp", System.getProperty("java.class.path"),
+                    MestichainApplication.class.getName(),
+                    "--server.port=" + port, "--masterNodeUrl=" + seed, "--addressBook=", "--genesisNode=" + (i == 0),
+                    "--spring.output.ansi.console-available=false", "--spring.devtools.livereload.enabled=false"));
+            for (String property : properties) {
+                command.add("--" + property);
+            }
+            this.processes.add(new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(new File(logs, "node-" + i + ".log")).start());
+            this.urls.add("http://localhost:" + port);
+            // el resto de nodos arranca desde el nodo semilla
+            awaitUp(this.urls.get(i));
+        }
+        for (String url : this.urls) {
+            long deadline = System.currentTimeMillis() + 60000;
+            while (restTemplate.getForObject(url + Path.NODE, String[].class).length < nodes - 1) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new Exception("El nodo " + url + " no conoce al resto de nodos");
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * URL de un nodo
+     *
+     * @param node indice del nodo
+     * @return url (host + port)
+     */
+    public String getUrl(int node) {
+        return this.urls.get(node);
+    }
+
+    /**
+     * Numero de nodos
+     */
+    public int size() {
+        return this.urls.size();
+    }
+
+    /**
+     * Tiempo de CPU consumido por un nodo desde que se lanzo
+     *
+     * @param node indice del nodo
+     * @return tiempo de CPU, cero si el sistema no lo proporciona
+     */
+    public Duration getCpuTime(int node) {
+        return this.processes.get(node).info().totalCpuDuration().orElse(Duration.ZERO);
+    }
+
+    /**
+     * Parar los nodos dejando que se den de baja
+     */
+    @Override
+    public void close() throws InterruptedException {
+        this.processes.forEach(Process::destroy);
+        for (Process process : this.processes) {
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private void awaitUp(String url) throws Exception {
+        long deadline = System.currentTimeMillis() + 120000;
+        while (true) {
+            try {
+                restTemplate.getForObject(url + Path.NODE + Path.NODE_IP, String.class);
+                return;
+            } catch (RestClientException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new Exception("El nodo " + url + " no ha arrancado", e);
+                }
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
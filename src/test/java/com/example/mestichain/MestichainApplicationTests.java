@@ -1,7 +1,9 @@
 package com.example.mestichain;
 
 import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.utils.BlockCodec;
 import com.example.mestichain.utils.SignatureUtils;
+import com.example.mestichain.utils.constants.MetricName;
 import com.example.mestichain.utils.constants.Path;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
@@ -10,17 +12,24 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.net.URL;
 import java.security.KeyPair;
+import java.util.List;
 
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @Slf4j
-@SpringBootTest
+@SpringBootTest(properties = {"genesisNode=true", "addressBook="})
 @AutoConfigureMockMvc
 class MestichainApplicationTests {
 
@@ -93,5 +102,111 @@ class MestichainApplicationTests {
 				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
 	}
 
+	@Test
+	public void getSnapshot() throws Exception {
+		mvc.perform(MockMvcRequestBuilders.get(Path.BLOCK + Path.BLOCK_HEADERS).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(header().string(Path.NODE_PRUNED_HEADER, "false"));
+
+		mvc.perform(MockMvcRequestBuilders.get(Path.SNAPSHOT + "/-1").contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void getCompressedBlocks() throws Exception {
+		mvc.perform(MockMvcRequestBuilders.get(Path.BLOCK + Path.BLOCK_RANGE))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+
+		byte[] body = mvc.perform(MockMvcRequestBuilders.get(Path.BLOCK + Path.BLOCK_RANGE)
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip, " + BlockCodec.ENCODING))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, BlockCodec.ENCODING))
+				.andReturn().getResponse().getContentAsByteArray();
+		assertTrue(new ObjectMapper().readTree(BlockCodec.decompress(body, BlockCodec.MAX_CHAIN_SIZE)).isArray());
+	}
+
+	@Test
+	public void getStateProof() throws Exception {
+		KeyPair key = SignatureUtils.generateKeyPair();
+		mvc.perform(MockMvcRequestBuilders.get(Path.STATE + Path.STATE_PROOF + "/"
+				+ Base64.encodeBase64URLSafeString(key.getPublic().getEncoded())).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	public void getUnknownBlockAndTransaction() throws Exception {
+		String unknownHash = Base64.encodeBase64URLSafeString(new byte[32]);
+		mvc.perform(MockMvcRequestBuilders.get(Path.BLOCK + "/" + unknownHash).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotFound());
+		mvc.perform(MockMvcRequestBuilders.get(Path.BLOCK + Path.BLOCK_HEIGHT + "/-1").contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotFound());
+		mvc.perform(MockMvcRequestBuilders.get(Path.TRANSACTION + "/" + unknownHash).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void getBalance() throws Exception {
+		KeyPair key = SignatureUtils.generateKeyPair();
+		mvc.perform(MockMvcRequestBuilders.get(Path.BALANCE + "/" + Base64.encodeBase64URLSafeString(key.getPublic().getEncoded()))
+				.contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.balance").value(0));
+	}
+
+	@Test
+	public void getMetrics() throws Exception {
+		// transaccion sin firma: rechazada y contabilizada por motivo
+		KeyPair key = SignatureUtils.generateKeyPair();
+		Transaction transaction = new Transaction(key.getPublic().getEncoded(), key.getPublic().getEncoded(), 1);
+		mvc.perform(MockMvcRequestBuilders.post(Path.TRANSACTION).content(asJsonString(transaction))
+				.contentType(MediaType.APPLICATION_JSON)).andExpect(status().isNotAcceptable());
+
+		mvc.perform(MockMvcRequestBuilders.get("/actuator/metrics/" + MetricName.TRANSACTION_REJECTED)
+				.param("tag", MetricName.TAG_REASON + ":missing_signature"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.measurements[0].value").value(greaterThanOrEqualTo(1.0)));
+	}
+
+	@Test
+	public void dumpBalancesAndUnknownBlock() throws Exception {
+		mvc.perform(MockMvcRequestBuilders.get(Path.DEBUG + Path.BALANCE))
+				.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN));
+		mvc.perform(MockMvcRequestBuilders.get(Path.DEBUG + Path.BLOCK + "/" + Base64.encodeBase64URLSafeString(new byte[32])))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void addTransactionBatch() throws Exception {
+		KeyPair senderKey = SignatureUtils.generateKeyPair();
+		KeyPair recipientKey = SignatureUtils.generateKeyPair();
+		Transaction signed = new Transaction(senderKey.getPublic().getEncoded(), recipientKey.getPublic().getEncoded(), 3);
+		signed.setSignature(SignatureUtils.sign(signed.getContent(), senderKey.getPrivate().getEncoded()));
+		Transaction unsigned = new Transaction(senderKey.getPublic().getEncoded(), recipientKey.getPublic().getEncoded(), 4);
+
+		// resultado por transaccion: aceptada, rechazada y repetida dentro del lote
+		mvc.perform(MockMvcRequestBuilders.post(Path.TRANSACTION + Path.TRANSACTION_BATCH)
+				.content(asJsonString(List.of(signed, unsigned, signed))).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(status().isAccepted())
+				.andExpect(jsonPath("$[0].accepted").value(true))
+				.andExpect(jsonPath("$[0].reason").doesNotExist())
+				.andExpect(jsonPath("$[1].accepted").value(false))
+				.andExpect(jsonPath("$[1].reason").value("missing_signature"))
+				.andExpect(jsonPath("$[2].accepted").value(true))
+				.andExpect(jsonPath("$[2].reason").value("duplicate"));
+
+		// el mismo lote en NDJSON ya no aporta transacciones nuevas
+		String stream = asJsonString(signed) + "\n" + asJsonString(unsigned) + "\n";
+		mvc.perform(MockMvcRequestBuilders.post(Path.TRANSACTION + Path.TRANSACTION_BATCH)
+				.content(stream).contentType(MediaType.APPLICATION_NDJSON))
+				.andExpect(status().isNotAcceptable())
+				.andExpect(jsonPath("$.length()").value(2))
+				.andExpect(jsonPath("$[0].reason").value("duplicate"));
+
+		mvc.perform(MockMvcRequestBuilders.post(Path.TRANSACTION + Path.TRANSACTION_BATCH)
+				.content("{\"amount\":").contentType(MediaType.APPLICATION_NDJSON))
+				.andExpect(status().isBadRequest());
+	}
 
 }
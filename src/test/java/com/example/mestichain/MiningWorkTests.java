@@ -0,0 +1,57 @@
+package com.example.mestichain;
+
+import com.example.mestichain.services.BlockService;
+import com.example.mestichain.services.MinningService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+		properties = {"difficulty=1", "retargetInterval=1000000", "genesisNode=true", "addressBook="})
+class MiningWorkTests {
+
+	private static final int PORT = freePort();
+
+	@Autowired
+	private BlockService blockService;
+
+	@Autowired
+	private MinningService minningService;
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("server.port", () -> PORT);
+	}
+
+	@Test
+	public void remoteWorkerMinesBlocks() throws Exception {
+		// el minado se hace fuera del nodo
+		minningService.stop();
+		Thread.sleep(500);
+		int height = blockService.getBlockchain().getSize();
+
+		Process worker = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+				"-cp", System.getProperty("java.class.path"), RemoteMiner.class.getName(), "http://localhost:" + PORT, "3")
+				.inheritIO().start();
+		assertTrue(worker.waitFor(60, TimeUnit.SECONDS));
+		assertEquals(0, worker.exitValue());
+		assertEquals(height + 3, blockService.getBlockchain().getSize());
+	}
+
+	private static int freePort() {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package com.example.mestichain;
+
+import com.example.mestichain.domain.PeerMessageType;
+import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.services.MinningService;
+import com.example.mestichain.services.PeerService;
+import com.example.mestichain.services.TransactionService;
+import com.example.mestichain.utils.SignatureUtils;
+import com.example.mestichain.utils.constants.Path;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT, properties = {"genesisNode=true", "addressBook="})
+class PeerChannelTests {
+
+	private static final int PORT = freePort();
+
+	@Autowired
+	private TransactionService transactionService;
+
+	@Autowired
+	private MinningService minningService;
+
+	@Autowired
+	private PeerService peerService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	//Tipos de los mensajes que el nodo envia al cliente de prueba
+	private final BlockingQueue<PeerMessageType> received = new LinkedBlockingQueue<>();
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("server.port", () -> PORT);
+	}
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		// las transacciones deben quedarse en el pool
+		minningService.stop();
+		peerService.add(new URL("http://localhost:1"));
+	}
+
+	@Test
+	public void channelCarriesTransactionsAndHeartbeats() throws Exception {
+		WebSocketSession session = connect();
+		send(session, PeerMessageType.HELLO, "http://localhost:1".getBytes(StandardCharsets.UTF_8));
+		assertEquals(PeerMessageType.COMPRESSION, received.poll(10, TimeUnit.SECONDS));
+		assertEquals(PeerMessageType.INVENTORY, received.poll(10, TimeUnit.SECONDS));
+
+		send(session, PeerMessageType.PING, new byte[0]);
+		assertEquals(PeerMessageType.PONG, received.poll(10, TimeUnit.SECONDS));
+
+		List<Transaction> transactions = signedTransactions(3);
+		send(session, PeerMessageType.TRANSACTION, objectMapper.writeValueAsBytes(transactions.get(0)));
+		send(session, PeerMessageType.TRANSACTIONS, objectMapper.writeValueAsBytes(transactions.subList(1, 3)));
+		awaitPool(transactions);
+		session.close();
+	}
+
+	@Test
+	public void helloFromUnknownPeerClosesTheChannel() throws Exception {
+		WebSocketSession session = connect();
+		send(session, PeerMessageType.PING, new byte[0]);
+		send(session, PeerMessageType.HELLO, "http://localhost:2".getBytes(StandardCharsets.UTF_8));
+		long deadline = System.currentTimeMillis() + 10000;
+		while (session.isOpen() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertFalse(session.isOpen());
+		assertTrue(received.isEmpty());
+	}
+
+	/**
+	 * Mensajes por segundo de un nodo a otro: una peticion HTTP por transaccion frente al canal persistente
+	 */
+	@Test
+	@Tag("benchmark")
+	public void channelThroughputAgainstHttp() throws Exception {
+		int messages = 2000;
+		RestTemplate restTemplate = new RestTemplate();
+		List<Transaction> overHttp = signedTransactions(messages);
+		long start = System.nanoTime();
+		for (Transaction transaction : overHttp) {
+			restTemplate.postForLocation("http://localhost:" + PORT + Path.TRANSACTION, transaction);
+		}
+		awaitPool(overHttp);
+		double httpRate = messages * 1e9 / (System.nanoTime() - start);
+
+		WebSocketSession session = connect();
+		send(session, PeerMessageType.HELLO, "http://localhost:1".getBytes(StandardCharsets.UTF_8));
+		List<Transaction> overChannel = signedTransactions(messages);
+		start = System.nanoTime();
+		for (Transaction transaction : overChannel) {
+			send(session, PeerMessageType.TRANSACTION, objectMapper.writeValueAsBytes(transaction));
+		}
+		awaitPool(overChannel);
+		double channelRate = messages * 1e9 / (System.nanoTime() - start);
+		session.close();
+
+		System.out.printf("Transacciones por segundo entre nodos: HTTP %.0f, canal %.0f%n", httpRate, channelRate);
+	}
+
+	private WebSocketSession connect() throws Exception {
+		return new StandardWebSocketClient().doHandshake(new BinaryWebSocketHandler() {
+			@Override
+			protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+				PeerMessageType type = PeerMessageType.of(message.getPayload().get());
+				// los latidos del nodo no forman parte de las comprobaciones
+				if (type != PeerMessageType.PING) {
+					received.add(type);
+				}
+			}
+		}, "ws://localhost:" + PORT + Path.PEER).get(10, TimeUnit.SECONDS);
+	}
+
+	private static void send(WebSocketSession session, PeerMessageType type, byte[] payload) throws Exception {
+		ByteBuffer frame = ByteBuffer.allocate(1 + payload.length).put(type.getCode()).put(payload);
+		session.sendMessage(new BinaryMessage(frame.flip()));
+	}
+
+	private void awaitPool(List<Transaction> transactions) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 60000;
+		while (!transactionService.contains(transactions) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(transactionService.contains(transactions));
+	}
+
+	private static List<Transaction> signedTransactions(int count) throws Exception {
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		List<Transaction> transactions = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Transaction transaction = new Transaction(sender.getPublic().getEncoded(), recipient, i + 1, i);
+			transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+			transactions.add(transaction);
+		}
+		return transactions;
+	}
+
+	private static int freePort() {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.example.mestichain;
+
+import com.example.mestichain.services.MinningService;
+import com.example.mestichain.services.NodeService;
+import com.example.mestichain.utils.constants.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Varios nodos en puertos locales que se descubren sin un nodo master
+ */
+class PeerDiscoveryTests {
+
+	@TempDir
+	File dir;
+
+	private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+	@AfterEach
+	public void tearDown() {
+		nodes.forEach(ConfigurableApplicationContext::close);
+	}
+
+	@Test
+	public void nodesDiscoverEachOtherAndRestartFromAddressBook() throws Exception {
+		// A es su propia semilla: arranca la red sin configurarlo como nodo inicial
+		int portA = freePort();
+		ConfigurableApplicationContext a = start(portA, "http://localhost:" + portA, "a");
+		assertTrue(a.getBean(NodeService.class).isGenesisNode());
+		ConfigurableApplicationContext b = start(freePort(), "http://localhost:" + portA, "b");
+		ConfigurableApplicationContext c = start(freePort(), "http://localhost:" + portA, "c");
+		URL urlA = url(a), urlB = url(b), urlC = url(c);
+
+		await(() -> peers(a).containsAll(Set.of(urlB, urlC)));
+		await(() -> peers(b).containsAll(Set.of(urlA, urlC)));
+		await(() -> peers(c).containsAll(Set.of(urlA, urlB)));
+
+		// un nodo que solo conoce A: el resto lo descubre intercambiando vecinos con A
+		ConfigurableApplicationContext e = start(freePort(), "http://localhost:1", "e");
+		URL urlE = url(e);
+		new RestTemplate().postForLocation(urlA + Path.NODE, urlE);
+		await(() -> peers(b).contains(urlE) && peers(c).contains(urlE));
+		await(() -> peers(e).containsAll(Set.of(urlB, urlC)));
+
+		// sin el nodo semilla, un nodo nuevo arranca desde la libreta de direcciones
+		a.close();
+		await(() -> !peers(b).contains(urlA));
+		File book = new File(dir, "f.json");
+		Files.copy(new File(dir, "b.json").toPath(), book.toPath());
+		ConfigurableApplicationContext f = start(freePort(), "http://localhost:" + portA, "f");
+		URL urlF = url(f);
+		await(() -> !peers(f).isEmpty());
+		await(() -> peers(b).contains(urlF) || peers(c).contains(urlF) || peers(e).contains(urlF));
+	}
+
+	private ConfigurableApplicationContext start(int port, String seeds, String name) {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(MestichainApplication.class)
+				.run("--server.port=" + port, "--seedNodes=" + seeds,
+						"--addressBook=" + new File(dir, name + ".json").getPath(), "--genesisNode=false",
+						"--peerExchangeInterval=500", "--bootstrapRetryInterval=500", "--spring.devtools.restart.enabled=false");
+		nodes.add(context);
+		// el minado no forma parte de la prueba
+		context.getBean(MinningService.class).stop();
+		return context;
+	}
+
+	private static URL url(ConfigurableApplicationContext context) {
+		return context.getBean(NodeService.class).getMyUrlNode();
+	}
+
+	private static Set<URL> peers(ConfigurableApplicationContext context) {
+		return context.getBean(NodeService.class).getParentNodes();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 30000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	private static int freePort() {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
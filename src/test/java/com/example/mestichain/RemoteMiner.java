@@ -0,0 +1,46 @@
+package com.example.mestichain;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.MiningShare;
+import com.example.mestichain.domain.MiningWork;
+import com.example.mestichain.utils.DifficultyUtils;
+import com.example.mestichain.utils.constants.Path;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Minero externo de prueba: pide trabajo a un nodo, prueba el rango de nonces y envia las soluciones.
+ * Se lanza como un proceso independiente: RemoteMiner <url del nodo> <numero de bloques>
+ */
+public class RemoteMiner {
+
+    public static void main(String[] args) {
+        String nodeUrl = args[0];
+        int blocks = Integer.parseInt(args[1]);
+        RestTemplate restTemplate = new RestTemplate();
+
+        int accepted = 0;
+        while (accepted < blocks) {
+            MiningWork work = restTemplate.getForObject(nodeUrl + Path.MINING + Path.MINING_WORK, MiningWork.class);
+            byte[] header = work.toHeader(work.getNonceStart()).getHeaderBytes();
+            for (long nonce = work.getNonceStart(); nonce < work.getNonceEnd(); nonce++) {
+                Block.setHeaderNonce(header, nonce);
+                if (DifficultyUtils.meetsTarget(DigestUtils.sha256(header), work.getTarget())) {
+                    MiningShare share = new MiningShare();
+                    share.setWorkId(work.getWorkId());
+                    share.setExtraNonce(work.getExtraNonce());
+                    share.setTimestamp(work.getTimestamp());
+                    share.setNonce(nonce);
+                    HttpStatus status = restTemplate.postForEntity(nodeUrl + Path.MINING + Path.MINING_SHARE, share,
+                            Void.class).getStatusCode();
+                    System.out.println("Share " + work.getWorkId() + "/" + nonce + ": " + status);
+                    if (status == HttpStatus.ACCEPTED) {
+                        accepted++;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+}
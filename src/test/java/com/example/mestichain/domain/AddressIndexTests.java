@@ -0,0 +1,44 @@
+package com.example.mestichain.domain;
+
+import com.google.common.primitives.Ints;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AddressIndexTests {
+
+	@Test
+	public void pagesAreReturnedNewestFirst() {
+		byte[] miner = Ints.toByteArray(1);
+		AddressIndex index = new AddressIndex();
+		for (int height = 0; height < 300; height++) {
+			Block block = new Block();
+			block.setTransactions(List.of(new Transaction(miner)));
+			// alturas no consecutivas para comprobar la codificacion por diferencias
+			index.add(block, height * 1000);
+		}
+
+		assertEquals(300, index.count(miner, Integer.MAX_VALUE));
+		List<TransactionLocation> first = index.getPage(miner, 0, 10, Integer.MAX_VALUE);
+		assertEquals(10, first.size());
+		assertEquals(299000, first.get(0).getHeight());
+		assertEquals(290000, first.get(9).getHeight());
+
+		List<TransactionLocation> last = index.getPage(miner, 29, 10, Integer.MAX_VALUE);
+		assertEquals(9000, last.get(0).getHeight());
+		assertEquals(0, last.get(9).getHeight());
+
+		assertTrue(index.getPage(miner, 30, 10, Integer.MAX_VALUE).isEmpty());
+		assertTrue(index.getPage(Ints.toByteArray(2), 0, 10, Integer.MAX_VALUE).isEmpty());
+
+		// una vista de la cadena solo ve las posiciones por debajo de su altura
+		assertEquals(150, index.count(miner, 149001));
+		List<TransactionLocation> view = index.getPage(miner, 0, 10, 149001);
+		assertEquals(149000, view.get(0).getHeight());
+		assertEquals(140000, view.get(9).getHeight());
+		assertEquals(0, index.count(miner, 0));
+	}
+}
@@ -0,0 +1,44 @@
+package com.example.mestichain.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BlockListTests {
+
+	@Test
+	public void derivedListsLeaveTheOriginalUntouched() {
+		// mas de un tramo para cubrir los cambios de tramo al añadir y quitar
+		List<Block> expected = new ArrayList<>();
+		BlockList list = BlockList.EMPTY;
+		for (int i = 0; i < 2500; i++) {
+			Block block = new Block();
+			block.setNonce(i);
+			expected.add(block);
+			list = list.with(block);
+		}
+		assertEquals(expected, list);
+		assertEquals(expected, BlockList.of(expected));
+
+		BlockList shorter = list;
+		while (shorter.size() > 1000) {
+			shorter = shorter.withoutLast();
+		}
+		assertEquals(expected.subList(0, 1000), shorter);
+		assertEquals(2500, list.size());
+
+		Block header = expected.get(1024).toHeader();
+		BlockList replaced = list.with(1024, header);
+		assertSame(header, replaced.get(1024));
+		assertSame(expected.get(1024), list.get(1024));
+
+		// lo que se añade a una lista derivada no aparece en la original
+		BlockList appended = shorter.with(header);
+		assertSame(header, appended.get(1000));
+		assertSame(expected.get(1000), list.get(1000));
+	}
+}
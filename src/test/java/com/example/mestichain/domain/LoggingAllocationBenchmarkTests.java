@@ -0,0 +1,74 @@
+package com.example.mestichain.domain;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Memoria reservada por las trazas de un bloque aceptado: volcado completo (saldos y bloque en Base64, lo que se
+ * trazaba antes en cada bloque) frente a los resumenes con hashes cortos. Se ejecuta con el perfil benchmark:
+ * mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class LoggingAllocationBenchmarkTests {
+
+	private static final int ACCOUNTS = 1000;
+	private static final int ITERATIONS = 2000;
+
+	@Test
+	public void summariesAllocateLessThanDumps() throws Exception {
+		Random random = new Random(1);
+		RecordBalances balances = new RecordBalances();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			balances.settleTransaction(new Transaction(randomKey(random)));
+		}
+		List<Transaction> transactions = new ArrayList<>();
+		transactions.add(new Transaction(randomKey(random)));
+		for (int i = 0; i < 10; i++) {
+			Transaction transaction = new Transaction(randomKey(random), randomKey(random), i + 1);
+			byte[] signature = new byte[71];
+			random.nextBytes(signature);
+			transaction.setSignature(signature);
+			transactions.add(transaction);
+		}
+		Block block = new Block(new byte[32], transactions, null, new byte[32], 1);
+
+		long dump = allocatedPerCall(() -> balances.dump() + block.dump());
+		long summary = allocatedPerCall(() -> balances.toString() + block.toString());
+		System.out.printf("Trazas por bloque (%d cuentas, %d transacciones): volcado %d bytes, resumen %d bytes%n",
+				ACCOUNTS, transactions.size(), dump, summary);
+
+		assertTrue(summary * 100 < dump);
+	}
+
+	private static byte[] randomKey(Random random) {
+		byte[] key = new byte[91];
+		random.nextBytes(key);
+		return key;
+	}
+
+	/**
+	 * Bytes reservados por el hilo actual en cada llamada, tras un calentamiento
+	 */
+	private static long allocatedPerCall(Supplier<String> trace) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long length = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			length += trace.get().length();
+		}
+		long start = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < ITERATIONS; i++) {
+			length += trace.get().length();
+		}
+		long allocated = threads.getCurrentThreadAllocatedBytes() - start;
+		assertTrue(length > 0);
+		return allocated / ITERATIONS;
+	}
+}
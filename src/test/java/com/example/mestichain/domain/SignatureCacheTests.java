@@ -0,0 +1,50 @@
+package com.example.mestichain.domain;
+
+import com.example.mestichain.utils.SignatureUtils;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SignatureCacheTests {
+
+	@Test
+	public void verifiedSignaturesAreReusedOnlyForTheSameTransaction() throws Exception {
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		KeyPair other = SignatureUtils.generateKeyPair();
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		SignatureCache signatureCache = new SignatureCache(100);
+		Transaction transaction = new Transaction(sender.getPublic().getEncoded(), recipient, 5);
+		transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+
+		assertFalse(signatureCache.contains(transaction.getHash(), transaction.getSignature()));
+		assertNull(transaction.verify(signatureCache));
+		assertTrue(signatureCache.contains(transaction.getHash(), transaction.getSignature()));
+
+		// una firma distinta para el mismo hash se verifica y se rechaza
+		Transaction forged = new Transaction(sender.getPublic().getEncoded(), recipient, 5);
+		forged.setTimestamp(transaction.getTimestamp());
+		forged.setHash(forged.calculateHash());
+		forged.setSignature(SignatureUtils.sign(forged.getContent(), other.getPrivate().getEncoded()));
+		assertEquals("invalid_signature", forged.verify(signatureCache));
+
+		// con el hash de una transaccion verificada pero otro contenido, falla la comprobacion del hash
+		Transaction tampered = new Transaction(sender.getPublic().getEncoded(), recipient, 50);
+		tampered.setHash(transaction.getHash());
+		tampered.setSignature(transaction.getSignature());
+		assertEquals("invalid_hash", tampered.verify(signatureCache));
+	}
+
+	@Test
+	public void sizeIsBounded() {
+		SignatureCache signatureCache = new SignatureCache(10);
+		for (int i = 0; i < 100; i++) {
+			signatureCache.add(new byte[]{(byte) i}, new byte[]{1});
+		}
+		assertTrue(signatureCache.size() <= 10);
+	}
+}
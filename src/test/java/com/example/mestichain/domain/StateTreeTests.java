@@ -0,0 +1,59 @@
+package com.example.mestichain.domain;
+
+import com.google.common.primitives.Ints;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateTreeTests {
+
+	@Test
+	public void rootIsIndependentOfUpdateOrder() {
+		StateTree forward = StateTree.EMPTY;
+		StateTree backward = StateTree.EMPTY;
+		for (int i = 0; i < 200; i++) {
+			forward = forward.put(Ints.toByteArray(i), i);
+			backward = backward.put(Ints.toByteArray(199 - i), 199 - i);
+		}
+		assertEquals(200, forward.size());
+		assertArrayEquals(forward.getRootHash(), backward.getRootHash());
+
+		// eliminar las cuentas añadidas deja el arbol como estaba
+		StateTree removed = forward;
+		for (int i = 100; i < 200; i++) {
+			removed = removed.remove(Ints.toByteArray(i));
+		}
+		StateTree rebuilt = StateTree.EMPTY;
+		for (int i = 0; i < 100; i++) {
+			rebuilt = rebuilt.put(Ints.toByteArray(i), i);
+		}
+		assertArrayEquals(rebuilt.getRootHash(), removed.getRootHash());
+		assertEquals(199L, forward.get(Ints.toByteArray(199)));
+		assertNull(removed.get(Ints.toByteArray(199)));
+	}
+
+	@Test
+	public void proofsVerifyAgainstRoot() {
+		StateTree tree = StateTree.EMPTY;
+		for (int i = 0; i < 50; i++) {
+			tree = tree.put(Ints.toByteArray(i), i * 10L);
+		}
+		byte[] root = tree.getRootHash();
+
+		StateProof inclusion = tree.getProof(Ints.toByteArray(7));
+		assertEquals(70L, inclusion.getBalance());
+		assertTrue(inclusion.verify(root));
+
+		StateProof exclusion = tree.getProof(Ints.toByteArray(1000));
+		assertNull(exclusion.getBalance());
+		assertTrue(exclusion.verify(root));
+
+		// un saldo alterado no verifica
+		inclusion.setBalance(71L);
+		assertFalse(inclusion.verify(root));
+	}
+}
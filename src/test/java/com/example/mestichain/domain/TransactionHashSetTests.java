@@ -0,0 +1,48 @@
+package com.example.mestichain.domain;
+
+import com.example.mestichain.utils.SignatureUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionHashSetTests {
+
+	@Test
+	public void membershipIsKeptThroughGrowthAndRemoval() throws Exception {
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		TransactionHashSet set = new TransactionHashSet();
+		List<Transaction> transactions = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			Transaction transaction = new Transaction(miner);
+			transaction.setExtraNonce(i);
+			transaction.setHash(transaction.calculateHash());
+			transactions.add(transaction);
+			assertTrue(set.add(transaction));
+		}
+		assertFalse(set.add(transactions.get(0)));
+		assertEquals(1000, set.size());
+
+		// eliminar una de cada dos no deja inaccesibles al resto
+		for (int i = 0; i < 1000; i += 2) {
+			assertTrue(set.remove(transactions.get(i)));
+		}
+		assertEquals(500, set.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i % 2 == 1, set.contains(transactions.get(i)));
+		}
+		assertSame(transactions.get(1), set.get(transactions.get(1).getHash()));
+		assertNull(set.get(transactions.get(0).getHash()));
+
+		// una transaccion distinta con el hash de otra no se da por contenida
+		Transaction copy = new Transaction(miner);
+		copy.setHash(transactions.get(1).getHash());
+		assertFalse(set.contains(copy));
+	}
+}
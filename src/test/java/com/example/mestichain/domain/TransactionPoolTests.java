@@ -0,0 +1,56 @@
+package com.example.mestichain.domain;
+
+import com.example.mestichain.utils.SignatureUtils;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionPoolTests {
+
+	@Test
+	public void transactionsAreKeptByNoncePerSender() throws Exception {
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		TransactionPool pool = new TransactionPool();
+		SignatureCache signatureCache = new SignatureCache(100);
+
+		Transaction second = signed(sender, recipient, 1, 1);
+		Transaction first = signed(sender, recipient, 1, 0);
+		Transaction third = signed(sender, recipient, 1, 2);
+		assertTrue(pool.add(second, signatureCache));
+		assertTrue(pool.add(third, signatureCache));
+		assertTrue(pool.add(first, signatureCache));
+		assertEquals(List.of(first, second, third), pool.snapshot());
+
+		// la misma transaccion es un duplicado y otra con el mismo nonce un conflicto
+		assertEquals(TransactionResult.DUPLICATE, pool.getConflict(second, 0));
+		Transaction conflicting = signed(sender, recipient, 2, 1);
+		assertEquals(TransactionResult.NONCE_CONFLICT, pool.getConflict(conflicting, 0));
+		assertFalse(pool.add(conflicting, signatureCache));
+		assertEquals(TransactionResult.STALE_NONCE, pool.getConflict(conflicting, 2));
+		assertNull(pool.getConflict(signed(sender, recipient, 1, 3), 0));
+
+		// al incluirse la segunda en la cadena la primera ya no puede incluirse
+		pool.remove(second);
+		assertEquals(List.of(third), pool.snapshot());
+		assertNull(pool.getConflict(first, 0));
+
+		// una coinbase nunca entra en el pool y retirarla al incluirse un bloque no afecta al pool
+		Transaction coinbase = new Transaction(recipient);
+		assertEquals(List.of(false), pool.addAll(List.of(coinbase)));
+		pool.remove(coinbase);
+		assertEquals(List.of(third), pool.snapshot());
+	}
+
+	private static Transaction signed(KeyPair sender, byte[] recipient, long amount, long nonce) throws Exception {
+		Transaction transaction = new Transaction(sender.getPublic().getEncoded(), recipient, amount, nonce);
+		transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+		return transaction;
+	}
+}
@@ -0,0 +1,117 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.utils.SignatureUtils;
+import com.example.mestichain.utils.constants.MetricName;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockPipelineServiceTests {
+
+	private final CountDownLatch applyReleased = new CountDownLatch(1);
+	private volatile boolean validationFails;
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+	private BlockService blockService;
+	private BlockPipelineService pipeline;
+
+	@BeforeEach
+	public void setUp() {
+		// la etapa de aplicacion queda bloqueada hasta que el test la libera
+		TestNode node = new TestNode(8, (transactionService, snapshotService, peerService, eventPublisher,
+				maxOrphanBlocks) -> new BlockService(transactionService, snapshotService, peerService, eventPublisher,
+				maxOrphanBlocks) {
+					@Override
+					public boolean validateStateless(Block block) {
+						if (validationFails) {
+							throw new IllegalStateException("fallo de validacion");
+						}
+						return super.validateStateless(block);
+					}
+
+					@Override
+					public boolean add(Block block, URL sender, boolean verified) throws Exception {
+						applyReleased.await();
+						return super.add(block, sender, verified);
+					}
+				});
+		blockService = node.blockService;
+		pipeline = new BlockPipelineService(blockService, node.nodeService, objectMapper, 1, 1);
+	}
+
+	private byte[] block(byte[] previousHash, List<Block> blocks) throws Exception {
+		List<Transaction> transactions = new ArrayList<>();
+		transactions.add(new Transaction(SignatureUtils.generateKeyPair().getPublic().getEncoded()));
+		Block block = new Block(previousHash, transactions, null, blockService.getInitialTarget(), 1);
+		// cada bloque posterior al anterior aunque se creen en el mismo milisegundo
+		block.rollTimestamp(block.getTimestamp() + blocks.size());
+		blocks.add(block);
+		return objectMapper.writeValueAsBytes(block);
+	}
+
+	@Test
+	public void saturatedPipelineRejectsBlocks() throws Exception {
+		List<Block> blocks = new ArrayList<>();
+		byte[] genesis = block(null, blocks);
+		byte[] first = block(blocks.get(0).getHash(), blocks);
+		byte[] second = block(blocks.get(1).getHash(), blocks);
+
+		assertTrue(pipeline.submit(genesis, null, false));
+		// esperar a que la etapa de aplicacion tome el primer bloque
+		while (pipeline.getQueuedBlocks() > 0) {
+			Thread.sleep(10);
+		}
+		assertTrue(pipeline.submit(first, null, false));
+		assertFalse(pipeline.submit(second, null, false));
+
+		applyReleased.countDown();
+		while (blockService.getChainView().getSize() < 2) {
+			Thread.sleep(10);
+		}
+		assertArrayEquals(blocks.get(1).getHash(), blockService.getChainView().getLastBlock().getHash());
+		assertEquals(0, pipeline.getQueuedBlocks());
+		pipeline.shutdown();
+	}
+
+	@Test
+	public void validationErrorsAreCountedAndDoNotStopThePipeline() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		Metrics.addRegistry(registry);
+		try {
+			applyReleased.countDown();
+			List<Block> blocks = new ArrayList<>();
+			byte[] genesis = block(null, blocks);
+
+			validationFails = true;
+			assertTrue(pipeline.submit(genesis, null, false));
+			while (registry.find(MetricName.BLOCK_REJECTED).tag(MetricName.TAG_REASON, "validation_error")
+					.counter() == null) {
+				Thread.sleep(10);
+			}
+
+			validationFails = false;
+			assertTrue(pipeline.submit(genesis, null, false));
+			while (blockService.getChainView().getSize() < 1) {
+				Thread.sleep(10);
+			}
+			assertArrayEquals(blocks.get(0).getHash(), blockService.getChainView().getLastBlock().getHash());
+		} finally {
+			Metrics.removeRegistry(registry);
+			pipeline.shutdown();
+		}
+	}
+}
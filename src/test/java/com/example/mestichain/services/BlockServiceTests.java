@@ -0,0 +1,421 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.ChainView;
+import com.example.mestichain.domain.RecordBalances;
+import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.utils.SignatureUtils;
+import com.example.mestichain.utils.constants.Path;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+
+import java.math.BigInteger;
+import java.net.URL;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class BlockServiceTests {
+
+	private TestNode node;
+	private BlockService blockService;
+	private TransactionService transactionService;
+	//Timestamp del ultimo bloque creado: cada bloque es posterior al anterior aunque se creen en el mismo milisegundo
+	private long clock = System.currentTimeMillis();
+
+	@BeforeEach
+	public void setUp() {
+		node = new TestNode();
+		transactionService = node.transactionService;
+		blockService = node.blockService;
+		blockService.setRetargetInterval(4);
+		blockService.setTargetBlockTime(1000);
+	}
+
+	private Block block(byte[] previousHash, byte[] miner, Transaction... transactions) {
+		List<Transaction> list = new ArrayList<>();
+		list.add(new Transaction(miner));
+		list.addAll(List.of(transactions));
+		Block block = new Block(previousHash, list, null, blockService.getInitialTarget(), 1);
+		block.rollTimestamp(++clock);
+		return block;
+	}
+
+	@Test
+	public void heavierBranchReorganizesChain() throws Exception {
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		KeyPair recipient = SignatureUtils.generateKeyPair();
+		byte[] minerA = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		byte[] minerB = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+
+		Block genesis = block(null, sender.getPublic().getEncoded());
+		assertTrue(blockService.add(genesis));
+
+		Transaction transaction = new Transaction(sender.getPublic().getEncoded(), recipient.getPublic().getEncoded(), 5);
+		transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+		assertTrue(transactionService.add(transaction));
+
+		Block a1 = block(genesis.getHash(), minerA, transaction);
+		assertTrue(blockService.add(a1));
+		assertEquals(5L, blockService.getBlockchain().getBalanceView().getBalance(recipient.getPublic().getEncoded()));
+
+		ChainView before = blockService.getChainView();
+
+		// rama lateral con el mismo trabajo: no hay reorganizacion
+		Block b1 = block(genesis.getHash(), minerB);
+		assertTrue(blockService.add(b1));
+		assertArrayEquals(a1.getHash(), blockService.getBlockchain().getLastBlock().getHash());
+
+		// la rama lateral pasa a tener mas trabajo
+		Block b2 = block(b1.getHash(), minerB);
+		assertTrue(blockService.add(b2));
+		assertArrayEquals(b2.getHash(), blockService.getBlockchain().getLastBlock().getHash());
+		assertEquals(3, blockService.getBlockchain().getSize());
+		assertEquals(0L, blockService.getBlockchain().getBalanceView().getBalance(recipient.getPublic().getEncoded()));
+		assertEquals(20L, blockService.getBlockchain().getBalanceView().getBalance(minerB));
+		assertEquals(0L, blockService.getBlockchain().getBalanceView().getBalance(minerA));
+
+		// la vista anterior no devuelve como historial de B la coinbase de A que ocupaba su posicion
+		assertTrue(before.getAddressHistory(minerB, 0, 10).getTransactions().isEmpty());
+		assertEquals(2, blockService.getChainView().getAddressHistory(minerB, 0, 10).getTransactions().size());
+
+		// la transaccion de la rama abandonada vuelve al pool
+		assertTrue(transactionService.contains(List.of(transaction)));
+		assertNull(blockService.getBlockchain().getTransactionLocation(transaction.getHash()));
+	}
+
+	@Test
+	public void invalidBranchLeavesChainAndSnapshotsUntouched() throws Exception {
+		blockService.getSnapshotService().setSnapshotInterval(2);
+		blockService.getSnapshotService().setSnapshotRetention(3);
+		blockService.getSnapshotService().setSnapshotChunkSize(10);
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+
+		Block genesis = block(null, sender.getPublic().getEncoded());
+		assertTrue(blockService.add(genesis));
+		Block a1 = block(genesis.getHash(), miner);
+		assertTrue(blockService.add(a1));
+		Block a2 = block(a1.getHash(), miner);
+		assertTrue(blockService.add(a2));
+		assertEquals(2, blockService.getSnapshotService().getLatestManifest().getHeight());
+
+		// rama con mas trabajo cuyo segundo bloque gasta mas de lo que tiene el emisor
+		Transaction overspend = new Transaction(sender.getPublic().getEncoded(), miner, 100);
+		overspend.setSignature(SignatureUtils.sign(overspend.getContent(), sender.getPrivate().getEncoded()));
+		Block b1 = block(genesis.getHash(), miner);
+		Block b2 = block(b1.getHash(), miner, overspend);
+		Block b3 = block(b2.getHash(), miner);
+		assertTrue(blockService.add(b1));
+		assertTrue(blockService.add(b2));
+		assertTrue(blockService.add(b3));
+
+		assertArrayEquals(a2.getHash(), blockService.getChainView().getLastBlock().getHash());
+		assertEquals(20L, blockService.getChainView().getBalanceView().getBalance(miner));
+		assertEquals(2, blockService.getSnapshotService().getLatestManifest().getHeight());
+		assertTrue(blockService.getBlockTree().get(b2.getHash()).isInvalid());
+
+		// la cadena original sigue pudiendo crecer
+		assertTrue(blockService.add(block(a2.getHash(), miner)));
+	}
+
+	@Test
+	public void oldBranchesAreDiscardedFromTheBlockTree() throws Exception {
+		blockService.setMaxReorgDepth(1);
+		blockService.setRetargetInterval(1);
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+
+		Block genesis = block(null, miner);
+		assertTrue(blockService.add(genesis));
+		Block main = block(genesis.getHash(), miner);
+		assertTrue(blockService.add(main));
+		Block side = block(genesis.getHash(), miner);
+		assertTrue(blockService.add(side));
+		byte[] previousHash = main.getHash();
+		for (int height = 2; height <= 14; height++) {
+			Block block = block(previousHash, miner);
+			assertTrue(blockService.add(block));
+			previousHash = block.getHash();
+		}
+
+		// solo quedan los bloques a los que puede llegar una reorganizacion y los anteriores necesarios para validarlos
+		assertArrayEquals(previousHash, blockService.getChainView().getLastBlock().getHash());
+		assertNull(blockService.getBlockTree().get(side.getHash()));
+		assertEquals(13, blockService.getBlockTree().size());
+		assertFalse(blockService.add(genesis));
+	}
+
+	@Test
+	public void appliedTransactionCannotBeReplayed() throws Exception {
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+
+		Block genesis = block(null, sender.getPublic().getEncoded());
+		assertTrue(blockService.add(genesis));
+
+		Transaction transaction = new Transaction(sender.getPublic().getEncoded(), recipient, 5);
+		transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+		assertTrue(transactionService.add(transaction));
+		Block b1 = block(genesis.getHash(), miner, transaction);
+		assertTrue(blockService.add(b1));
+		assertEquals(1L, blockService.getBlockchain().getBalanceView().getNonce(sender.getPublic().getEncoded()));
+
+		// la misma transaccion ya no entra en el pool ni en un bloque posterior
+		assertFalse(transactionService.add(transaction));
+		Block b2 = block(b1.getHash(), miner, transaction);
+		assertThrows(Exception.class, () -> blockService.add(b2));
+		assertArrayEquals(b1.getHash(), blockService.getBlockchain().getLastBlock().getHash());
+		assertEquals(5L, blockService.getBlockchain().getBalanceView().getBalance(recipient));
+
+		// la siguiente transaccion del emisor usa el nonce siguiente
+		Transaction next = new Transaction(sender.getPublic().getEncoded(), recipient, 5, 1);
+		next.setSignature(SignatureUtils.sign(next.getContent(), sender.getPrivate().getEncoded()));
+		assertTrue(transactionService.add(next));
+	}
+
+	@Test
+	public void nonceEntriesCannotReceiveCoins() throws Exception {
+		KeyPair attacker = SignatureUtils.generateKeyPair();
+		KeyPair victim = SignatureUtils.generateKeyPair();
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		byte[] victimNonce = RecordBalances.nonceAddress(victim.getPublic().getEncoded());
+
+		Block genesis = block(null, attacker.getPublic().getEncoded());
+		assertTrue(blockService.add(genesis));
+		Block b1 = block(genesis.getHash(), victim.getPublic().getEncoded());
+		assertTrue(blockService.add(b1));
+		Transaction pending = new Transaction(victim.getPublic().getEncoded(), recipient, 5);
+		pending.setSignature(SignatureUtils.sign(pending.getContent(), victim.getPrivate().getEncoded()));
+		assertTrue(transactionService.add(pending));
+
+		// una transferencia a la entrada de nonces de la victima no entra en el pool ni en un bloque
+		Transaction attack = new Transaction(attacker.getPublic().getEncoded(), victimNonce, 1);
+		attack.setSignature(SignatureUtils.sign(attack.getContent(), attacker.getPrivate().getEncoded()));
+		assertEquals("invalid_recipient", transactionService.verify(attack));
+		assertFalse(transactionService.add(attack));
+		assertThrows(Exception.class, () -> blockService.add(block(b1.getHash(), recipient, attack)));
+		assertThrows(Exception.class, () -> blockService.add(block(b1.getHash(), victimNonce)));
+		assertEquals(0L, blockService.getChainView().getBalanceView().getNonce(victim.getPublic().getEncoded()));
+
+		// la transaccion pendiente de la victima sigue siendo valida
+		assertTrue(blockService.add(block(b1.getHash(), recipient, pending)));
+		assertEquals(15L, blockService.getChainView().getBalanceView().getBalance(recipient));
+	}
+
+	@Test
+	public void prunedNodeKeepsHeadersAndState() throws Exception {
+		blockService.setPruneDepth(2);
+		blockService.setMaxReorgDepth(2);
+		blockService.setRetargetInterval(100);
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+
+		Block genesis = block(null, sender.getPublic().getEncoded());
+		assertTrue(blockService.add(genesis));
+		List<Transaction> transactions = new ArrayList<>();
+		byte[] previousHash = genesis.getHash();
+		for (int nonce = 0; nonce < 5; nonce++) {
+			Transaction transaction = new Transaction(sender.getPublic().getEncoded(), recipient, 1, nonce);
+			transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+			transactions.add(transaction);
+			Block block = block(previousHash, recipient, transaction);
+			assertTrue(blockService.add(block));
+			previousHash = block.getHash();
+		}
+
+		// solo los dos ultimos bloques conservan sus transacciones
+		ChainView view = blockService.getChainView();
+		assertEquals(6, view.getSize());
+		for (int height = 0; height < 4; height++) {
+			assertNull(view.getBlock(height).getTransactions());
+			assertNull(blockService.getBlockTree().get(view.getBlock(height).getHash()).getBlock().getTransactions());
+		}
+		assertEquals(2, view.getBlock(5).getTransactions().size());
+		assertNull(view.getTransaction(transactions.get(0).getHash()));
+		assertArrayEquals(transactions.get(4).getHash(), view.getTransaction(transactions.get(4).getHash()).getHash());
+		assertEquals(2, blockService.getBlocks(4).size());
+
+		// los bloques podados no se sirven como bloques completos
+		assertNull(blockService.getFullBlock(view.getBlock(1).getHash()));
+		assertNull(blockService.getBlocks(0));
+		assertArrayEquals(view.getBlock(5).getHash(), blockService.getFullBlock(view.getBlock(5).getHash()).getHash());
+
+		// el estado de las cuentas no se ve afectado
+		assertEquals(55L, view.getBalanceView().getBalance(recipient));
+		assertEquals(5L, view.getBalanceView().getNonce(sender.getPublic().getEncoded()));
+		assertTrue(blockService.add(block(previousHash, recipient)));
+	}
+
+	@Test
+	public void fastSyncRequiresSnapshotStateRootInHeader() throws Exception {
+		blockService.getSnapshotService().setSnapshotInterval(2);
+		blockService.getSnapshotService().setSnapshotRetention(3);
+		blockService.getSnapshotService().setSnapshotChunkSize(10);
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Block genesis = block(null, miner);
+		assertTrue(blockService.add(genesis));
+		Block b1 = block(genesis.getHash(), miner);
+		assertTrue(blockService.add(b1));
+		assertTrue(blockService.add(block(b1.getHash(), miner)));
+
+		// las cabeceras de la cadena no incluyen raiz de estado: nada vincula la instantanea a la prueba de trabajo
+		String url = "http://localhost:8081";
+		TestNode joining = new TestNode();
+		MockRestServiceServer server = MockRestServiceServer.bindTo(joining.blockService.getRestTemplate()).build();
+		server.expect(requestTo(url + Path.SNAPSHOT)).andRespond(withSuccess(
+				node.objectMapper.writeValueAsString(blockService.getSnapshotService().getLatestManifest()),
+				MediaType.APPLICATION_JSON));
+		server.expect(requestTo(url + Path.BLOCK + Path.BLOCK_HEADERS + "?to=2")).andRespond(withSuccess(
+				node.objectMapper.writeValueAsString(blockService.getHeaders(2)), MediaType.APPLICATION_JSON));
+
+		assertThrows(Exception.class, () -> joining.blockService.fastSync(new URL(url), joining.blockService.getRestTemplate()));
+		assertTrue(joining.blockService.getChainView().isEmpty());
+		server.verify();
+	}
+
+	@Test
+	public void orphanBlockConnectsWhenParentArrives() throws Exception {
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Block genesis = block(null, miner);
+		Block b1 = block(genesis.getHash(), miner);
+		Block b2 = block(b1.getHash(), miner);
+		assertTrue(blockService.add(genesis));
+
+		// el bloque hijo llega antes que su padre
+		assertTrue(blockService.add(b2));
+		assertEquals(1, blockService.getOrphanPool().size());
+		assertEquals(1, blockService.getBlockchain().getSize());
+
+		assertTrue(blockService.add(b1));
+		assertEquals(0, blockService.getOrphanPool().size());
+		assertArrayEquals(b2.getHash(), blockService.getBlockchain().getLastBlock().getHash());
+	}
+
+	@Test
+	public void parentIsOnlyRequestedFromKnownPeers() throws Exception {
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Block genesis = block(null, miner);
+		Block b1 = block(genesis.getHash(), miner);
+		assertTrue(blockService.add(genesis));
+
+		URL peer = new URL("http://localhost:8081");
+		node.peerService.add(peer);
+		MockRestServiceServer server = MockRestServiceServer.bindTo(blockService.getRestTemplate()).build();
+		server.expect(ExpectedCount.once(), requestTo(peer + Path.BLOCK + "/" + Base64.encodeBase64URLSafeString(b1.getHash())))
+				.andRespond(withSuccess(node.objectMapper.writeValueAsString(b1), MediaType.APPLICATION_JSON));
+
+		// un nodo desconocido no puede hacer que se pidan bloques a la url que indique
+		assertTrue(blockService.add(block(b1.getHash(), miner), new URL("http://localhost:9")));
+		assertTrue(blockService.add(block(b1.getHash(), miner), peer));
+		long deadline = System.currentTimeMillis() + 10000;
+		while (blockService.getOrphanPool().size() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, blockService.getOrphanPool().size());
+		server.verify();
+	}
+
+	@Test
+	public void targetIsAdjustedFromBlockTimestamps() throws Exception {
+		blockService.setDifficulty(1);
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		byte[] initialTarget = blockService.getInitialTarget();
+
+		// bloques minados el doble de rapido de lo esperado
+		byte[] previousHash = null;
+		long timestamp = 0;
+		for (int height = 0; height < 4; height++) {
+			Block block = new Block();
+			block.setPreviousHash(previousHash);
+			block.setTransactions(List.of(new Transaction(miner)));
+			block.setMerkleRoot(block.calculateMerkleRoot());
+			block.setTarget(blockService.getNextTarget());
+			block.setTimestamp(timestamp);
+			timestamp += 500;
+			do {
+				block.setNonce(block.getNonce() + 1);
+				block.setHash(block.calculateHash());
+			} while (!block.meetsTarget());
+			assertTrue(blockService.add(block));
+			previousHash = block.getHash();
+		}
+
+		// el objetivo se reduce a la mitad (la dificultad se duplica)
+		assertEquals(new BigInteger(1, initialTarget).shiftRight(1), new BigInteger(1, blockService.getNextTarget()));
+	}
+
+	@Test
+	public void blockTimestampsMustFollowMedianAndNotRunAhead() throws Exception {
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Block genesis = block(null, miner);
+		assertTrue(blockService.add(genesis));
+		Block b1 = block(genesis.getHash(), miner);
+		assertTrue(blockService.add(b1));
+
+		// no posterior a la mediana de los bloques anteriores
+		Block early = block(b1.getHash(), miner);
+		early.rollTimestamp(genesis.getTimestamp());
+		assertThrows(Exception.class, () -> blockService.add(early));
+
+		// demasiado adelantado respecto al reloj del nodo
+		Block ahead = block(b1.getHash(), miner);
+		ahead.rollTimestamp(System.currentTimeMillis() + 10 * 60000);
+		assertThrows(Exception.class, () -> blockService.add(ahead));
+
+		assertTrue(blockService.add(block(b1.getHash(), miner)));
+	}
+
+	@Test
+	public void publishedViewIsNotModifiedByLaterBlocks() throws Exception {
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Block genesis = block(null, miner);
+		assertTrue(blockService.add(genesis));
+		ChainView view = blockService.getChainView();
+
+		Block next = block(genesis.getHash(), miner);
+		assertTrue(blockService.add(next));
+
+		// la vista anterior sigue mostrando la cadena y los saldos tal y como estaban
+		assertEquals(1, view.getSize());
+		assertArrayEquals(genesis.getHash(), view.getLastBlock().getHash());
+		assertNull(view.getBlock(next.getHash()));
+		assertEquals(10L, view.getBalanceView().getBalance(miner));
+
+		ChainView current = blockService.getChainView();
+		assertEquals(2, current.getSize());
+		assertArrayEquals(next.getHash(), current.getBlock(next.getHash()).getHash());
+		assertEquals(20L, current.getBalanceView().getBalance(miner));
+	}
+
+	@Test
+	public void blocksWithExtraCoinbaseAreRejected() throws Exception {
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Block genesis = block(null, miner);
+		assertTrue(blockService.add(genesis));
+
+		// una coinbase detras de la del minero no tiene firma que verificar y acreditaria su cantidad sin emisor
+		byte[] attacker = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Transaction minted = new Transaction(attacker);
+		minted.setAmount(1000);
+		minted.setHash(minted.calculateHash());
+		Block block = block(genesis.getHash(), miner, minted);
+		assertFalse(blockService.validateStateless(block));
+		assertThrows(Exception.class, () -> blockService.add(block));
+		assertEquals(1, blockService.getChainView().getSize());
+		assertEquals(0L, blockService.getChainView().getBalanceView().getBalance(attacker));
+	}
+}
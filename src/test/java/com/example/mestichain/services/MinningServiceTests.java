@@ -0,0 +1,169 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.BlockTemplate;
+import com.example.mestichain.domain.MiningShare;
+import com.example.mestichain.domain.MiningWork;
+import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.domain.TransactionResult;
+import com.example.mestichain.events.NewTipEvent;
+import com.example.mestichain.events.NewTransactionEvent;
+import com.example.mestichain.utils.SignatureUtils;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URL;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MinningServiceTests {
+
+	private BlockService blockService;
+	private TransactionService transactionService;
+	private MinningService minningService;
+	private NodeService nodeService;
+	private KeyPair miner;
+	private volatile boolean addFails;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		TestNode node = new TestNode(8, (transactionService, snapshotService, peerService, eventPublisher,
+				maxOrphanBlocks) -> new BlockService(transactionService, snapshotService, peerService, eventPublisher,
+				maxOrphanBlocks) {
+					@Override
+					public boolean add(Block block, URL sender, boolean verified) throws Exception {
+						if (addFails) {
+							throw new Exception("fallo al añadir el bloque");
+						}
+						return super.add(block, sender, verified);
+					}
+				});
+		transactionService = node.transactionService;
+		blockService = node.blockService;
+		nodeService = node.nodeService;
+		minningService = new MinningService(transactionService, nodeService, blockService);
+
+		miner = SignatureUtils.generateKeyPair();
+		ReflectionTestUtils.setField(minningService, "coinbaseAddress", Base64.encodeBase64String(miner.getPublic().getEncoded()));
+		ReflectionTestUtils.setField(minningService, "stateRootInHeader", true);
+		ReflectionTestUtils.setField(minningService, "templateRefreshInterval", 60000L);
+
+		node.onEvent(event -> {
+			if (event instanceof NewTipEvent) {
+				minningService.onNewTip((NewTipEvent) event);
+			} else if (event instanceof NewTransactionEvent) {
+				minningService.onNewTransaction((NewTransactionEvent) event);
+			}
+		});
+	}
+
+	private void mine() throws Exception {
+		assertTrue(minningService.submitShare(share()));
+	}
+
+	private MiningShare share() {
+		MiningWork work = minningService.getWork(1);
+		MiningShare share = new MiningShare();
+		share.setWorkId(work.getWorkId());
+		share.setExtraNonce(work.getExtraNonce());
+		share.setTimestamp(work.getTimestamp());
+		share.setNonce(work.getNonceStart());
+		return share;
+	}
+
+	@Test
+	public void templateFollowsTipAndTransactions() throws Exception {
+		mine();
+		BlockTemplate template = minningService.getTemplate();
+		assertArrayEquals(blockService.getBlockchain().getLastBlock().getHash(), template.getPreviousHash());
+
+		// una transaccion nueva se incorpora a la plantilla sin reconstruirla desde el pool
+		KeyPair recipient = SignatureUtils.generateKeyPair();
+		Transaction transaction = new Transaction(miner.getPublic().getEncoded(), recipient.getPublic().getEncoded(), 5);
+		transaction.setSignature(SignatureUtils.sign(transaction.getContent(), miner.getPrivate().getEncoded()));
+		assertTrue(transactionService.add(transaction));
+
+		BlockTemplate updated = minningService.getTemplate();
+		assertNotEquals(template.getId(), updated.getId());
+		assertEquals(2, updated.getTransactions().size());
+		assertArrayEquals(template.getTransactions().get(0).getHash(), updated.getTransactions().get(0).getHash());
+
+		// el bloque minado sobre la plantilla actualizada incluye la transaccion
+		mine();
+		assertEquals(2, blockService.getBlockchain().getSize());
+		assertEquals(5L, blockService.getBlockchain().getBalanceView().getBalance(recipient.getPublic().getEncoded()));
+		assertEquals(1, minningService.getTemplate().getTransactions().size());
+	}
+
+	@Test
+	public void workersGetDisjointSearchSpaces() {
+		MiningWork first = minningService.getWork(1000);
+		MiningWork second = minningService.getWork(1000);
+		assertEquals(first.getWorkId(), second.getWorkId());
+		assertNotEquals(first.getExtraNonce(), second.getExtraNonce());
+		assertFalse(Arrays.equals(first.getMerkleRoot(), second.getMerkleRoot()));
+
+		// avanzar el timestamp solo cambia la cabecera: la raiz de merkle se mantiene
+		Block header = first.toHeader(first.getNonceStart());
+		byte[] merkleRoot = header.getMerkleRoot();
+		header.rollTimestamp(header.getTimestamp() + 1000);
+		assertArrayEquals(merkleRoot, header.getMerkleRoot());
+		assertArrayEquals(header.getHash(), first.toHeader(first.getTimestamp() + 1000, first.getNonceStart()).getHash());
+		assertEquals(Block.HEADER_SIZE, header.getHeaderBytes().length);
+	}
+
+	@Test
+	public void onlyTheGenesisNodeMinesTheGenesisBlock() throws Exception {
+		nodeService.setGenesisNode(false);
+		assertNull(minningService.getWork(1));
+
+		nodeService.setGenesisNode(true);
+		mine();
+		nodeService.setGenesisNode(false);
+		assertNotNull(minningService.getWork(1));
+	}
+
+	@Test
+	public void shareRejectedByTheChainIsNotAccepted() throws Exception {
+		addFails = true;
+		assertFalse(minningService.submitShare(share()));
+		assertEquals(0, blockService.getChainView().getSize());
+
+		addFails = false;
+		mine();
+		assertEquals(1, blockService.getChainView().getSize());
+	}
+
+	@Test
+	public void submittedCoinbaseIsNeitherPooledNorMined() throws Exception {
+		mine();
+		byte[] attacker = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Transaction minted = new Transaction(attacker);
+		minted.setAmount(1000);
+		minted.setHash(minted.calculateHash());
+		minted.setSignature(new byte[]{1});
+		assertFalse(transactionService.add(minted));
+		TransactionResult result = transactionService.addAll(List.of(minted)).get(0);
+		assertFalse(result.isAccepted());
+		assertEquals(TransactionResult.COINBASE, result.getReason());
+		assertFalse(transactionService.contains(List.of(minted)));
+
+		// aunque llegue al pool por otra via, la plantilla no la incluye
+		transactionService.getTransactionPool().addAll(List.of(minted));
+		minningService.onNewTip(new NewTipEvent(blockService.getChainView().getLastBlock()));
+		assertEquals(1, minningService.getTemplate().getTransactions().size());
+		mine();
+		assertEquals(0L, blockService.getChainView().getBalanceView().getBalance(attacker));
+	}
+}
@@ -0,0 +1,154 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.Transaction;
+import com.example.mestichain.domain.TransactionPool;
+import com.example.mestichain.rest.controllers.TransactionRestController;
+import com.example.mestichain.utils.SignatureUtils;
+import com.example.mestichain.utils.constants.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class NodeServiceTests {
+
+	private static final int NODES = 5;
+
+	private final List<TestNode> nodes = new ArrayList<>();
+	private final List<BlockPipelineService> pipelines = new ArrayList<>();
+
+	@AfterEach
+	public void tearDown() {
+		pipelines.forEach(BlockPipelineService::shutdown);
+	}
+
+	@Test
+	public void messagesReachNodesBeyondFanout() throws Exception {
+		// nodos en linea, cada uno con sus dos vecinos y un solo vecino por envio
+		for (int i = 0; i < NODES; i++) {
+			TestNode node = new TestNode(1, BlockService::new);
+			ReflectionTestUtils.setField(node.nodeService, "myUrlNode", url(i));
+			node.nodeService.getRestTemplate().setRequestFactory(this::deliver);
+			nodes.add(node);
+			pipelines.add(new BlockPipelineService(node.blockService, node.nodeService, node.objectMapper, 1, 10));
+		}
+		for (int i = 0; i < NODES; i++) {
+			if (i > 0) {
+				nodes.get(i).peerService.add(url(i - 1));
+			}
+			if (i < NODES - 1) {
+				nodes.get(i).peerService.add(url(i + 1));
+			}
+		}
+
+		// un bloque recibido en el nodo central llega a los dos extremos
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		Block genesis = new Block(null, new ArrayList<>(List.of(new Transaction(sender.getPublic().getEncoded()))), null,
+				nodes.get(0).blockService.getInitialTarget(), 1);
+		assertTrue(pipelines.get(NODES / 2).submit(nodes.get(0).objectMapper.writeValueAsBytes(genesis), null, true));
+		for (TestNode node : nodes) {
+			await(() -> node.blockService.getChainView().getSize() == 1);
+			assertArrayEquals(genesis.getHash(), node.blockService.getChainView().getLastBlock().getHash());
+		}
+
+		// una transaccion recibida en un extremo llega al otro
+		Transaction transaction = new Transaction(sender.getPublic().getEncoded(),
+				SignatureUtils.generateKeyPair().getPublic().getEncoded(), 5);
+		transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+		controller(0).addTransaction(transaction, true, null, new MockHttpServletResponse());
+		for (TestNode node : nodes) {
+			await(() -> node.transactionService.contains(List.of(transaction)));
+		}
+	}
+
+	@Test
+	public void downloadedPoolIsVerifiedBeforeEnteringThePool() throws Exception {
+		TestNode node = new TestNode(1, BlockService::new);
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		KeyPair other = SignatureUtils.generateKeyPair();
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		Transaction valid = new Transaction(sender.getPublic().getEncoded(), recipient, 5);
+		valid.setSignature(SignatureUtils.sign(valid.getContent(), sender.getPrivate().getEncoded()));
+		// firmada con una clave que no es la del emisor
+		Transaction forged = new Transaction(other.getPublic().getEncoded(), recipient, 5);
+		forged.setSignature(SignatureUtils.sign(forged.getContent(), sender.getPrivate().getEncoded()));
+		TransactionPool downloaded = new TransactionPool();
+		downloaded.addAll(List.of(valid, forged));
+
+		RestTemplate restTemplate = new RestTemplate();
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+		server.expect(requestTo(url(0) + Path.TRANSACTION)).andRespond(
+				withSuccess(node.objectMapper.writeValueAsString(downloaded), MediaType.APPLICATION_JSON));
+		node.transactionService.getTransactionPool(url(0), restTemplate);
+
+		assertTrue(node.transactionService.contains(List.of(valid)));
+		assertFalse(node.transactionService.contains(List.of(forged)));
+		assertEquals(1, node.transactionService.getTransactionPool().getPool().size());
+	}
+
+	private static URL url(int node) throws IOException {
+		return new URL("http", "localhost", 9000 + node, "");
+	}
+
+	private TransactionRestController controller(int node) {
+		TestNode target = nodes.get(node);
+		return new TransactionRestController(target.transactionService, target.nodeService, target.blockService,
+				target.objectMapper);
+	}
+
+	/**
+	 * Entregar las peticiones HTTP entre nodos directamente al nodo de destino
+	 */
+	private MockClientHttpRequest deliver(URI uri, HttpMethod method) {
+		return new MockClientHttpRequest(method, uri) {
+			@Override
+			protected ClientHttpResponse executeInternal() throws IOException {
+				int node = uri.getPort() - 9000;
+				URL from = new URL(getHeaders().getFirst(Path.NODE_HEADER));
+				boolean propagate = "propagate=true".equals(uri.getQuery());
+				if (uri.getPath().equals(Path.BLOCK)) {
+					pipelines.get(node).submit(getBodyAsBytes(), from, propagate);
+				} else if (uri.getPath().equals(Path.TRANSACTION)) {
+					controller(node).addTransaction(nodes.get(node).objectMapper.readValue(getBodyAsBytes(),
+							Transaction.class), propagate, from, new MockHttpServletResponse());
+				}
+				return new MockClientHttpResponse(new byte[0], HttpStatus.ACCEPTED);
+			}
+		};
+	}
+
+	private static void await(Condition condition) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!condition.isMet()) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private interface Condition {
+		boolean isMet();
+	}
+}
@@ -0,0 +1,71 @@
+package com.example.mestichain.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeerServiceTests {
+
+	private PeerService peerService;
+	private URL fast;
+	private URL slow;
+	private URL dead;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		peerService = new PeerService(3, 2, 60000, 3, "");
+		fast = new URL("http://localhost:8081");
+		slow = new URL("http://localhost:8082");
+		dead = new URL("http://localhost:8083");
+		assertTrue(peerService.add(fast));
+		assertTrue(peerService.add(slow));
+		assertTrue(peerService.add(dead));
+	}
+
+	@Test
+	public void fanoutPrefersFastPeersAndSkipsFailingOnes() throws Exception {
+		// el numero de vecinos esta acotado
+		assertFalse(peerService.add(new URL("http://localhost:8084")));
+
+		for (int i = 0; i < 5; i++) {
+			peerService.recordSuccess(fast, 5);
+			peerService.recordSuccess(slow, 500);
+		}
+		// el vecino sin medidas se supone con un RTT medio
+		assertEquals(List.of(fast, dead), peerService.selectFanout());
+
+		// un vecino que falla queda en espera y deja sitio en el envio
+		peerService.recordFailure(fast);
+		assertEquals(List.of(dead, slow), peerService.selectFanout());
+
+		// tras los fallos consecutivos permitidos el vecino se olvida
+		assertFalse(peerService.recordFailure(dead));
+		assertFalse(peerService.recordFailure(dead));
+		assertTrue(peerService.recordFailure(dead));
+		assertFalse(peerService.getPeers().contains(dead));
+		assertTrue(peerService.add(new URL("http://localhost:8084")));
+	}
+
+	@Test
+	public void syncSourceHasHighestThroughput() {
+		assertEquals(dead, peerService.selectSyncSource(dead, true));
+
+		peerService.recordServed(slow, 1000, 100);
+		peerService.recordServed(fast, 100000, 100);
+		assertEquals(fast, peerService.selectSyncSource(dead, true));
+
+		peerService.recordFailure(fast);
+		assertEquals(slow, peerService.selectSyncSource(dead, true));
+
+		// un vecino podado no sirve la cadena completa, pero si una instantanea
+		peerService.getStats().stream().filter(stats -> stats.getUrl().equals(slow)).forEach(stats -> stats.setPruned(true));
+		assertEquals(slow, peerService.selectSyncSource(dead, false));
+		assertEquals(dead, peerService.selectSyncSource(slow, true));
+	}
+}
@@ -0,0 +1,67 @@
+package com.example.mestichain.services;
+
+import com.example.mestichain.domain.SignatureCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Servicios de un nodo construidos sin contexto de Spring para las pruebas de los servicios: dificultad 0, nodo inicial, canal
+ * entre nodos desactivado y sin libreta de direcciones. Los eventos que publican los servicios se entregan a los
+ * oyentes registrados con onEvent, igual que haria el contexto.
+ */
+class TestNode {
+
+	final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+	final TransactionService transactionService;
+	final BlockService blockService;
+	final PeerService peerService;
+	final PeerChannelService peerChannelService;
+	final NodeService nodeService;
+
+	private final List<Consumer<Object>> listeners = new CopyOnWriteArrayList<>();
+
+	TestNode() {
+		this(8, BlockService::new);
+	}
+
+	/**
+	 * @param fanout       vecinos a los que se envia cada mensaje
+	 * @param blockService construccion del servicio de bloques, para sustituirlo por una variante del test
+	 */
+	TestNode(int fanout, BlockServiceFactory blockService) {
+		this.transactionService = new TransactionService(this::publish, new SignatureCache(1000));
+		this.peerService = new PeerService(64, fanout, 1000, 5, "");
+		this.blockService = blockService.create(this.transactionService, new SnapshotService(), this.peerService,
+				this::publish, 10);
+		this.blockService.setDifficulty(0);
+		this.blockService.setMaxTransactionsPerBlock(10);
+		this.blockService.setMaxReorgDepth(10);
+		this.blockService.setMaxFutureBlockTime(120000);
+		this.peerChannelService = new PeerChannelService(this.transactionService, this.blockService, this.peerService,
+				this.objectMapper, this::publish, false, 60000);
+		this.nodeService = new NodeService(this.blockService, this.transactionService, this.peerChannelService,
+				this.peerService);
+		this.nodeService.setGenesisNode(true);
+	}
+
+	/**
+	 * Registrar un oyente de los eventos publicados por los servicios
+	 */
+	void onEvent(Consumer<Object> listener) {
+		this.listeners.add(listener);
+	}
+
+	private void publish(Object event) {
+		this.listeners.forEach(listener -> listener.accept(event));
+	}
+
+	interface BlockServiceFactory {
+		BlockService create(TransactionService transactionService, SnapshotService snapshotService,
+				PeerService peerService, ApplicationEventPublisher eventPublisher, int maxOrphanBlocks);
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.mestichain.utils;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.Transaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCodecTests {
+
+	@Test
+	public void blocksAreRestoredAfterCompression() throws Exception {
+		KeyPair sender = SignatureUtils.generateKeyPair();
+		byte[] recipient = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		List<Transaction> transactions = new ArrayList<>();
+		transactions.add(new Transaction(recipient));
+		Transaction transaction = new Transaction(sender.getPublic().getEncoded(), recipient, 5, 0);
+		transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+		transactions.add(transaction);
+		Block block = new Block(new byte[32], transactions, new byte[32], new byte[32], 1);
+
+		ObjectMapper mapper = new ObjectMapper();
+		byte[] json = mapper.writeValueAsBytes(block);
+		byte[] compressed = BlockCodec.compress(json);
+		assertTrue(BlockCodec.isCompressed(compressed));
+		assertFalse(BlockCodec.isCompressed(json));
+		assertTrue(compressed.length * 2 < json.length);
+
+		assertArrayEquals(json, BlockCodec.decode(compressed, BlockCodec.MAX_BLOCK_SIZE));
+		assertEquals(mapper.readTree(json), mapper.readTree(BlockCodec.decode(compressed, BlockCodec.MAX_BLOCK_SIZE)));
+		// los datos sin comprimir pasan sin cambios
+		assertSame(json, BlockCodec.decode(json, BlockCodec.MAX_BLOCK_SIZE));
+
+		// datos incompletos o que superan el tamaño maximo se rechazan
+		assertThrows(IOException.class, () -> BlockCodec.decompress(Arrays.copyOf(compressed, compressed.length / 2), BlockCodec.MAX_BLOCK_SIZE));
+		assertThrows(IOException.class, () -> BlockCodec.decompress(compressed, json.length - 1));
+	}
+
+	@Test
+	public void blocksLargerThanTheLimitAreNotInflated() {
+		// unos pocos KB que se descomprimen en mas del tamaño maximo de un bloque
+		byte[] bomb = BlockCodec.compress(new byte[BlockCodec.MAX_BLOCK_SIZE + 1]);
+		assertTrue(bomb.length < 16 * 1024);
+		assertThrows(IOException.class, () -> BlockCodec.decode(bomb, BlockCodec.MAX_BLOCK_SIZE));
+	}
+
+	@Test
+	public void acceptEncodingIsParsed() {
+		assertTrue(BlockCodec.isAccepted(BlockCodec.ENCODING));
+		assertTrue(BlockCodec.isAccepted("gzip, " + BlockCodec.ENCODING + ";q=0.5"));
+		assertFalse(BlockCodec.isAccepted("gzip, deflate"));
+		assertFalse(BlockCodec.isAccepted(null));
+	}
+}
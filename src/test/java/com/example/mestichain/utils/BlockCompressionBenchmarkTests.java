@@ -0,0 +1,99 @@
+package com.example.mestichain.utils;
+
+import com.example.mestichain.domain.Block;
+import com.example.mestichain.domain.Transaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ratio de compresion y coste en CPU de BlockCodec para bloques de distintos tamaños, frente a deflate sin
+ * diccionario. Se ejecuta con el perfil benchmark: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class BlockCompressionBenchmarkTests {
+
+	private static final int[] TRANSACTIONS = {1, 10, 100, 1000};
+	private static final int SENDERS = 20;
+	private static final int ITERATIONS = 200;
+
+	@Test
+	public void dictionaryImprovesCompressionOfSmallBlocks() throws Exception {
+		List<KeyPair> senders = new ArrayList<>();
+		for (int i = 0; i < SENDERS; i++) {
+			senders.add(SignatureUtils.generateKeyPair());
+		}
+		byte[] miner = SignatureUtils.generateKeyPair().getPublic().getEncoded();
+		ObjectMapper mapper = new ObjectMapper();
+
+		for (int count : TRANSACTIONS) {
+			List<Transaction> transactions = new ArrayList<>();
+			transactions.add(new Transaction(miner));
+			for (int i = 1; i < count; i++) {
+				KeyPair sender = senders.get(i % SENDERS);
+				Transaction transaction = new Transaction(sender.getPublic().getEncoded(),
+						senders.get((i + 1) % SENDERS).getPublic().getEncoded(), i, i / SENDERS);
+				transaction.setSignature(SignatureUtils.sign(transaction.getContent(), sender.getPrivate().getEncoded()));
+				transactions.add(transaction);
+			}
+			byte[] json = mapper.writeValueAsBytes(new Block(new byte[32], transactions, new byte[32], new byte[32], 1));
+
+			byte[] compressed = BlockCodec.compress(json);
+			assertArrayEquals(json, BlockCodec.decompress(compressed, BlockCodec.MAX_CHAIN_SIZE));
+			int plain = deflate(json).length;
+			int iterations = Math.max(1, ITERATIONS / count * 10);
+			double compressMicros = microsPerCall(iterations, () -> BlockCodec.compress(json));
+			double decompressMicros = microsPerCall(iterations, () -> BlockCodec.decompress(compressed, BlockCodec.MAX_CHAIN_SIZE));
+
+			System.out.printf("Bloque con %d transacciones: JSON %d bytes, deflate %d bytes (%.2fx), con diccionario %d "
+							+ "bytes (%.2fx); compresion %.1f us, descompresion %.1f us%n",
+					count, json.length, plain, (double) json.length / plain, compressed.length,
+					(double) json.length / compressed.length, compressMicros, decompressMicros);
+
+			assertTrue(compressed.length <= plain);
+		}
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			out.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private interface Codec {
+		byte[] apply() throws Exception;
+	}
+
+	/**
+	 * Microsegundos por llamada, tras un calentamiento
+	 */
+	private static double microsPerCall(int iterations, Codec codec) throws Exception {
+		long length = 0;
+		for (int i = 0; i < iterations; i++) {
+			length += codec.apply().length;
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			length += codec.apply().length;
+		}
+		long elapsed = System.nanoTime() - start;
+		assertTrue(length > 0);
+		return elapsed / 1000.0 / iterations;
+	}
+}